@@ -5,12 +5,25 @@ import net.minecraft.src.IBlockAccess;
 
 abstract class BiomeHelper {
 	static BiomeHelper instance;
+	//Spout start
+	/**
+	 * Set by threads that render against their own block access, see Colorizer.setupThreadBlockAccess
+	 */
+	static final ThreadLocal<BiomeHelper> threadInstance = new ThreadLocal<BiomeHelper>();
+	//Spout end
 	IBlockAccess blockAccess;
 
 	BiomeHelper(IBlockAccess var1) {
 		this.blockAccess = var1;
 	}
 
+	//Spout start
+	static BiomeHelper get() {
+		BiomeHelper helper = threadInstance.get();
+		return helper != null ? helper : instance;
+	}
+	//Spout end
+
 	boolean useBlockBlending() {
 		return false;
 	}
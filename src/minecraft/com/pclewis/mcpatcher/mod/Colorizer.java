@@ -116,7 +116,7 @@ public class Colorizer {
 	}
 
 	public static int colorizeWater(Object var0, int var1, int var2) {
-		return fixedColorMaps[5].colorize(BiomeHelper.instance.getWaterColorMultiplier(var1, 64, var2), var1, 64, var2);
+		return fixedColorMaps[5].colorize(BiomeHelper.get().getWaterColorMultiplier(var1, 64, var2), var1, 64, var2);
 	}
 
 	public static int colorizeBlock(Block var0, int var1, int var2, int var3, int var4) {
@@ -130,7 +130,7 @@ public class Colorizer {
 		}
 
 		if (var5 != null && var5.isCustom()) {
-			if (BiomeHelper.instance.useBlockBlending() && blockBlendRadius != 0) {
+			if (BiomeHelper.get().useBlockBlending() && blockBlendRadius != 0) {
 				float[] var6 = new float[3];
 				float[] var7 = new float[3];
 
@@ -331,6 +331,19 @@ public class Colorizer {
 		}
 	}
 
+	//Spout start
+	/**
+	 * Makes block colours on the calling thread use the given block access instead of the world, until it is called with null
+	 */
+	public static void setupThreadBlockAccess(IBlockAccess blockAccess) {
+		if (blockAccess == null) {
+			BiomeHelper.threadInstance.remove();
+		} else {
+			BiomeHelper.threadInstance.set(new BiomeHelper.New(blockAccess));
+		}
+	}
+	//Spout end
+
 	public static void setupForFog(Entity var0) {
 		fogCamera = var0;
 		if (!biomesLogged) {
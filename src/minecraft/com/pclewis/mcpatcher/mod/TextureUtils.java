@@ -285,6 +285,21 @@ public class TextureUtils {
 		return buffer;
 	}
 
+	public static ByteBuffer getByteBuffer(ByteBuffer buffer, int[] data, int length) {
+		buffer.clear();
+		int capacity = buffer.capacity();
+		int bytes = length * 4;
+		if (bytes > capacity || reclaimGLMemory && capacity >= 4 * bytes) {
+			buffer = GLAllocation.createDirectByteBuffer(bytes);
+		}
+
+		// The buffer is in native order, so the ints keep their value for GL_UNSIGNED_INT_8_8_8_8_REV
+		buffer.asIntBuffer().put(data, 0, length);
+		buffer.position(0).limit(bytes);
+		TileSize.int_glBufferSize = bytes;
+		return buffer;
+	}
+
 	public static boolean isRequiredResource(String texture) {
 		return !texture.startsWith("/custom_") && !texture.startsWith("/anim/custom_") && !texture.equals("/terrain_nh.png") && !texture.equals("/terrain_s.png") && !texture.matches("^/font/.*\\.properties$") && !texture.matches("^/mob/.*\\d+.png$");
 	}
@@ -33,6 +33,7 @@ import com.pclewis.mcpatcher.mod.TextureUtils;
 
 import org.bukkit.ChatColor;
 import org.spoutcraft.client.SpoutClient;
+import org.spoutcraft.client.chunkcache.ChunkCache;
 import org.spoutcraft.client.chunkcache.HeightMap;
 import org.spoutcraft.client.config.ConfigReader;
 import org.spoutcraft.client.controls.SimpleKeyBindingManager;
@@ -573,6 +574,9 @@ public abstract class Minecraft implements Runnable {
 			} catch (Throwable var8) {
 				;
 			}
+			// Spout Start
+			ChunkCache.close();
+			// Spout End
 
 			try {
 				GLAllocation.deleteTexturesAndDisplayLists();
@@ -665,6 +669,7 @@ public abstract class Minecraft implements Runnable {
 		if (sndManager != null) {
 			sndManager.tick();
 		}
+		CustomTextureManager.uploadTextures();
 		//Spout end
 
 		if (this.mcApplet != null && !this.mcApplet.isActive()) {
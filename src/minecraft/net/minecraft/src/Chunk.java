@@ -56,6 +56,11 @@ public class Chunk {
 	public SpoutcraftChunk spoutChunk;
 	int grassColorCache = -1;
 	int waterColorCache = -1;
+	/**
+	 * Columns whose entry in the minimap height map is out of date, bit z << 4 | x. Every column is out of date
+	 * until the chunk has been scanned once.
+	 */
+	private final long[] staleHeightColumns = {-1L, -1L, -1L, -1L};
 
 	//Spout end
 
@@ -466,6 +471,9 @@ public class Chunk {
 				}
 			}
 
+			//Spout start
+			markHeightColumnStale(par1, par3);
+			//Spout end
 			this.isModified = true;
 			return true;
 		}
@@ -919,6 +927,9 @@ public class Chunk {
 		}
 
 		this.generateHeightMap();
+		//Spout start
+		markHeightMapStale();
+		//Spout end
 		Iterator var10 = this.chunkTileEntityMap.values().iterator();
 
 		while (var10.hasNext()) {
@@ -927,6 +938,38 @@ public class Chunk {
 		}
 	}
 
+	//Spout start
+	public void markHeightColumnStale(int x, int z) {
+		int index = z << 4 | x;
+		synchronized (staleHeightColumns) {
+			staleHeightColumns[index >> 6] |= 1L << (index & 63);
+		}
+	}
+
+	public void markHeightMapStale() {
+		synchronized (staleHeightColumns) {
+			Arrays.fill(staleHeightColumns, -1L);
+		}
+	}
+
+	/**
+	 * Moves the out of date columns into columns, which must hold 4 longs, and clears them.
+	 * 
+	 * @return false if no column is out of date
+	 */
+	public boolean takeStaleHeightColumns(long[] columns) {
+		synchronized (staleHeightColumns) {
+			boolean stale = false;
+			for (int i = 0; i < 4; i++) {
+				columns[i] = staleHeightColumns[i];
+				staleHeightColumns[i] = 0L;
+				stale |= columns[i] != 0L;
+			}
+			return stale;
+		}
+	}
+	//Spout end
+
 	public BiomeGenBase func_48490_a(int par1, int par2, WorldChunkManager par3WorldChunkManager) {
 		int var4 = this.blockBiomeArray[par2 << 4 | par1] & 255;
 		if (var4 == 255) {
@@ -10,7 +10,6 @@ import java.util.LinkedList;
 import org.newdawn.slick.opengl.Texture;
 import org.spoutcraft.client.io.CustomTextureManager;
 import org.spoutcraft.client.item.CustomEntityDiggingFX;
-import org.spoutcraft.spoutcraftapi.Spoutcraft;
 import org.spoutcraft.spoutcraftapi.block.design.GenericBlockDesign;
 import org.spoutcraft.spoutcraftapi.material.CustomBlock;
 import org.spoutcraft.spoutcraftapi.material.MaterialData;
@@ -147,7 +146,7 @@ public class EffectRenderer {
 			boolean custom = false;
 			GenericBlockDesign design = null;
 			Texture customTexture = null;
-			CustomBlock block = MaterialData.getCustomBlock(Spoutcraft.getWorld().getChunkAt(par1, par2, par3).getCustomBlockId(par1, par2, par3));
+			CustomBlock block = MaterialData.getCustomBlock(this.worldObj.getChunkFromBlockCoords(par1, par3).spoutChunk.getCustomBlockId(par1, par2, par3));
 			if (block != null) {
 				design = (GenericBlockDesign) block.getBlockDesign();
 			}
@@ -216,7 +215,7 @@ public class EffectRenderer {
 			boolean custom = false;
 			GenericBlockDesign design = null;
 			int data = this.worldObj.getBlockMetadata(par1, par2, par3);
-			CustomBlock block = MaterialData.getCustomBlock(Spoutcraft.getWorld().getChunkAt(par1, par2, par3).getCustomBlockId(par1, par2, par3));
+			CustomBlock block = MaterialData.getCustomBlock(this.worldObj.getChunkFromBlockCoords(par1, par3).spoutChunk.getCustomBlockId(par1, par2, par3));
 			if (block != null) {
 				design = (GenericBlockDesign) block.getBlockDesign();
 			}
@@ -15,6 +15,7 @@ import org.lwjgl.util.glu.GLU;
 //Spout start
 import org.lwjgl.util.vector.*;
 import org.spoutcraft.client.SpoutClient;
+import org.spoutcraft.client.block.SectionMesher;
 import org.spoutcraft.client.config.ConfigReader;
 import org.spoutcraft.client.spoutworth.SpoutWorth;
 
@@ -860,6 +861,7 @@ public class EntityRenderer {
 			//Spout start
 			if (var19 == 0) {
 				Profiler.endStartSection("updatechunks");
+				SectionMesher.uploadFinished();
 
 				for (int pass = 0; pass < Math.max(1, ConfigReader.chunkRenderPasses); pass++) {
 					if (this.mc.renderGlobal.updateRenderers(var4, false)) {
@@ -204,6 +204,7 @@ public class GuiIngame extends Gui
 					long upBandwidth = (8 * org.spoutcraft.client.chunkcache.ChunkCache.totalPacketUp.get()) / (currentTime - org.spoutcraft.client.chunkcache.ChunkCache.loggingStart.get());
 					this.drawString(font, "Bandwidth (Up): " + Math.max(1, upBandwidth) + "kbps", 2, 88 + offset, 14737632);
 					this.drawString(font, "Bandwidth (Down): " + Math.max(1, downBandwidth) + "kbps", 2, 96 + offset, 14737632);
+					this.drawString(font, "Hints sent: " + org.spoutcraft.client.chunkcache.ChunkCache.hintsSent.get() + " hits: " + org.spoutcraft.client.chunkcache.ChunkCache.hintHits.get(), 2, 104 + offset, 14737632);
 				}
 			}
 			else {
@@ -738,6 +738,8 @@ public class GuiScreen extends Gui
 							// disable the sandbox for this thread
 							SpoutClient.disableSandbox();
 
+							//The server's next update of the field has to apply, even if it did not change
+							PacketWidget.forget(tf.getId());
 							ScheduledTextFieldUpdate updateThread = null;
 							if (scheduledTextFieldUpdates.containsKey(tf)) {
 								updateThread = scheduledTextFieldUpdates.get(tf);
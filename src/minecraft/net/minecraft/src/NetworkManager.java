@@ -7,10 +7,14 @@ import java.io.IOException;
 import java.net.Socket;
 import java.net.SocketAddress;
 import java.net.SocketException;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
 //Spout start
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.spoutcraft.client.PacketDecompressionThread;
 import org.spoutcraft.client.chunkcache.ChunkCache;
 //Spout end
 
@@ -18,15 +22,20 @@ public class NetworkManager {
 	public static final Object threadSyncObject = new Object();
 	public static int numReadThreads;
 	public static int numWriteThreads;
-	private Object sendQueueLock = new Object();
 	private Socket networkSocket;
 	private final SocketAddress remoteSocketAddress;
 	private DataInputStream socketInputStream;
 	private DataOutputStream socketOutputStream;
 	private boolean isRunning = true;
-	private List readPackets = Collections.synchronizedList(new ArrayList());
-	private List dataPackets = Collections.synchronizedList(new ArrayList());
-	private List chunkDataPackets = Collections.synchronizedList(new ArrayList());
+	//Spout start - the reader thread is the only producer of readPackets, the writer thread the only consumer of the send queues
+	private Queue readPackets = new ConcurrentLinkedQueue();
+	private Queue dataPackets = new ConcurrentLinkedQueue();
+	private Queue chunkDataPackets = new ConcurrentLinkedQueue();
+	private static final long READ_BUDGET_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+	private static final long WRITER_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+	//Everything queued in a tick usually fits, so it goes out in one socket write when the writer runs out of packets
+	private static final int SEND_BUFFER_SIZE = 32 * 1024;
+	//Spout end
 	private NetHandler netHandler;
 	private boolean isServerTerminating = false;
 	private Thread writeThread;
@@ -35,7 +44,7 @@ public class NetworkManager {
 	private String terminationReason = "";
 	private Object[] field_20101_t;
 	private int timeSinceLastRead = 0;
-	private int sendQueueByteLength = 0;
+	private final AtomicInteger sendQueueByteLength = new AtomicInteger(); //Spout
 	public static int[] field_28145_d = new int[256];
 	public static int[] field_28144_e = new int[256];
 	public int chunkDataSendCounter = 0;
@@ -54,7 +63,7 @@ public class NetworkManager {
 		}
 
 		this.socketInputStream = new DataInputStream(par1Socket.getInputStream());
-		this.socketOutputStream = new DataOutputStream(new BufferedOutputStream(par1Socket.getOutputStream(), 5120));
+		this.socketOutputStream = new DataOutputStream(new BufferedOutputStream(par1Socket.getOutputStream(), SEND_BUFFER_SIZE)); //Spout
 		this.readThread = new NetworkReaderThread(this, par2Str + " read thread");
 		this.writeThread = new NetworkWriterThread(this, par2Str + " write thread");
 		this.readThread.start();
@@ -64,15 +73,15 @@ public class NetworkManager {
 	public void addToSendQueue(Packet par1Packet) {
 		if (!this.isServerTerminating) {
 			ChunkCache.totalPacketUp.addAndGet(par1Packet.getPacketSize()); // Spout
-			Object var2 = this.sendQueueLock;
-			synchronized(this.sendQueueLock) {
-				this.sendQueueByteLength += par1Packet.getPacketSize() + 1;
-				if (par1Packet.isChunkDataPacket) {
-					this.chunkDataPackets.add(par1Packet);
-				} else {
-					this.dataPackets.add(par1Packet);
-				}
+			//Spout start
+			this.sendQueueByteLength.addAndGet(par1Packet.getPacketSize() + 1);
+			if (par1Packet.isChunkDataPacket) {
+				this.chunkDataPackets.offer(par1Packet);
+			} else {
+				this.dataPackets.offer(par1Packet);
 			}
+			LockSupport.unpark(this.writeThread);
+			//Spout end
 		}
 	}
 
@@ -81,15 +90,14 @@ public class NetworkManager {
 
 		try {
 			Packet var2;
-			Object var3;
 			int var10001;
 			int[] var10000;
-			if (!this.dataPackets.isEmpty() && (this.chunkDataSendCounter == 0 || System.currentTimeMillis() - ((Packet)this.dataPackets.get(0)).creationTimeMillis >= (long)this.chunkDataSendCounter)) {
-				var3 = this.sendQueueLock;
-				synchronized(this.sendQueueLock) {
-					var2 = (Packet)this.dataPackets.remove(0);
-					this.sendQueueByteLength -= var2.getPacketSize() + 1;
-				}
+			//Spout start
+			var2 = (Packet)this.dataPackets.peek();
+			if (var2 != null && (this.chunkDataSendCounter == 0 || System.currentTimeMillis() - var2.creationTimeMillis >= (long)this.chunkDataSendCounter)) {
+				this.dataPackets.poll();
+				this.sendQueueByteLength.addAndGet(-(var2.getPacketSize() + 1));
+				//Spout end
 
 				Packet.writePacket(var2, this.socketOutputStream);
 				var10000 = field_28144_e;
@@ -98,12 +106,12 @@ public class NetworkManager {
 				var1 = true;
 			}
 
-			if (this.field_20100_w-- <= 0 && !this.chunkDataPackets.isEmpty() && (this.chunkDataSendCounter == 0 || System.currentTimeMillis() - ((Packet)this.chunkDataPackets.get(0)).creationTimeMillis >= (long)this.chunkDataSendCounter)) {
-				var3 = this.sendQueueLock;
-				synchronized(this.sendQueueLock) {
-					var2 = (Packet)this.chunkDataPackets.remove(0);
-					this.sendQueueByteLength -= var2.getPacketSize() + 1;
-				}
+			//Spout start
+			var2 = (Packet)this.chunkDataPackets.peek();
+			if (this.field_20100_w-- <= 0 && var2 != null && (this.chunkDataSendCounter == 0 || System.currentTimeMillis() - var2.creationTimeMillis >= (long)this.chunkDataSendCounter)) {
+				this.chunkDataPackets.poll();
+				this.sendQueueByteLength.addAndGet(-(var2.getPacketSize() + 1));
+				//Spout end
 
 				Packet.writePacket(var2, this.socketOutputStream);
 				var10000 = field_28144_e;
@@ -113,6 +121,11 @@ public class NetworkManager {
 				var1 = true;
 			}
 
+			//Spout start
+			if (!var1) {
+				var1 = this.waitForPackets();
+			}
+			//Spout end
 			return var1;
 		} catch (Exception var8) {
 			if (!this.isTerminating) {
@@ -123,13 +136,36 @@ public class NetworkManager {
 		}
 	}
 
+	//Spout start
+	/**
+	 * Parks the writer thread until a packet is queued, instead of polling the queues every 2 ms. Sent packets
+	 * are flushed first, because the writer only flushes once sendPacket returns false.
+	 * 
+	 * @return true if the writer should look at the queues again right away
+	 */
+	private boolean waitForPackets() throws IOException {
+		if (!this.isRunning || !this.dataPackets.isEmpty() || !this.chunkDataPackets.isEmpty()) {
+			//Packets that have to wait are picked up on the writer's next 2 ms round
+			return false;
+		}
+		DataOutputStream var1 = this.socketOutputStream;
+		if (var1 != null) {
+			var1.flush();
+		}
+		//A packet queued after the check above unparks the thread, so it returns right away
+		LockSupport.parkNanos(this, WRITER_PARK_NANOS);
+		return this.isRunning;
+	}
+
 	public void wakeThreads() {
-		this.readThread.interrupt();
-		this.writeThread.interrupt();
+		//The reader blocks on the socket, interrupting it does nothing
+		LockSupport.unpark(this.writeThread);
 	}
+	//Spout end
 
 	private boolean readPacket() {
 		boolean var1 = false;
+		PacketDecompressionThread.waitForCapacity(); //Spout
 
 		try {
 			Packet var2 = Packet.readPacket(this.socketInputStream, this.netHandler.isServerHandler());
@@ -168,6 +204,7 @@ public class NetworkManager {
 			this.field_20101_t = par2ArrayOfObj;
 			(new NetworkMasterThread(this)).start();
 			this.isRunning = false;
+			LockSupport.unpark(this.writeThread); //Spout
 
 			try {
 				this.socketInputStream.close();
@@ -193,7 +230,7 @@ public class NetworkManager {
 	}
 
 	public void processReadPackets() {
-		if(this.sendQueueByteLength > (1048576 * 10)) {//Spout increased overflow from 1mb to 10mb
+		if(this.sendQueueByteLength.get() > (1048576 * 10)) {//Spout increased overflow from 1mb to 10mb
 			this.networkShutdown("disconnect.overflow", new Object[0]);
 		}
 
@@ -205,15 +242,32 @@ public class NetworkManager {
 			this.timeSinceLastRead = 0;
 		}
 
-		int var1 = 1000;
+		//Spout start - process packets for a fixed time instead of a fixed count, at least one per tick
+		long var1 = System.nanoTime() + READ_BUDGET_NANOS;
 
-		while (!this.readPackets.isEmpty() && var1-- >= 0) {
-			Packet var2 = (Packet)this.readPackets.remove(0);
-			ChunkCache.totalPacketDown.addAndGet(var2.getPacketSize()); // Spout
-			var2.processPacket(this.netHandler);
+		Packet var3;
+		while ((var3 = (Packet)this.readPackets.peek()) != null) {
+			//Map chunks are inflated off the reader thread, keep packet order by waiting for them
+			if (var3 instanceof Packet51MapChunk) {
+				Packet51MapChunk var4 = (Packet51MapChunk)var3;
+				if (!var4.isDecoded()) {
+					break;
+				}
+				if (var4.getDecodeError() != null) {
+					this.readPackets.poll();
+					this.onNetworkError(var4.getDecodeError());
+					break;
+				}
+			}
+			this.readPackets.poll();
+			ChunkCache.totalPacketDown.addAndGet(var3.getPacketSize());
+			var3.processPacket(this.netHandler);
+			if (System.nanoTime() - var1 >= 0L) {
+				break;
+			}
 		}
+		//Spout end
 
-		this.wakeThreads();
 		if (this.isTerminating && this.readPackets.isEmpty()) {
 			this.netHandler.handleErrorMessage(this.terminationReason, this.field_20101_t);
 		}
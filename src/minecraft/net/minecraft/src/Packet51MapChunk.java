@@ -9,8 +9,10 @@ import net.minecraft.src.NetHandler;
 import net.minecraft.src.Packet;
 //Spout start
 import org.spoutcraft.client.SpoutClient;
-//Spout end
+import org.spoutcraft.client.chunkcache.ChunkCache;
+import org.spoutcraft.client.chunkcache.ChunkDecoder;
 import org.spoutcraft.client.packet.PacketCustomBlockChunkOverride;
+//Spout end
 
 public class Packet51MapChunk extends Packet {
 	public int xCh;
@@ -21,7 +23,11 @@ public class Packet51MapChunk extends Packet {
 	public boolean includeInitialize;
 	private int tempLength;
 	private int field_48178_h;
-	private static byte[] temp = new byte[0];
+	// Spout start
+	private byte[] compressedData;
+	private volatile boolean decoded = false;
+	private IOException decodeError = null;
+	// Spout end
 
 	public Packet51MapChunk() {
 		this.isChunkDataPacket = true;
@@ -35,11 +41,17 @@ public class Packet51MapChunk extends Packet {
 		this.yChMax = par1DataInputStream.readShort();
 		this.tempLength = par1DataInputStream.readInt();
 		this.field_48178_h = par1DataInputStream.readInt();
-		if (temp.length < this.tempLength) {
-			temp = new byte[this.tempLength];
-		}
+		// Spout start - inflate on a chunk decoder thread instead of the network reader
+		this.compressedData = new byte[this.tempLength];
+		par1DataInputStream.readFully(this.compressedData, 0, this.tempLength);
+		ChunkDecoder.decode(this);
+
+		SpoutClient.getInstance().getPacketManager().sendSpoutPacket(new PacketCustomBlockChunkOverride(xCh, zCh));
+		//Spout end
+	}
 
-		par1DataInputStream.readFully(temp, 0, this.tempLength);
+	// Spout start
+	public void decode(Inflater var4) {
 		int var2 = 0;
 
 		int var3;
@@ -47,36 +59,39 @@ public class Packet51MapChunk extends Packet {
 			var2 += this.yChMin >> var3 & 1;
 		}
 
-		var3 = 12288 * var2;
+		// Size the buffer exactly, anything after the vanilla data is chunk cache hashes
+		var3 = 10240 * var2 + 2048 * Integer.bitCount(this.yChMax & 65535);
 		if (this.includeInitialize) {
 			var3 += 256;
 		}
 
 		this.chunkData = new byte[var3];
-		Inflater var4 = new Inflater();
-		var4.setInput(temp, 0, this.tempLength);
-		
+		var4.setInput(this.compressedData, 0, this.tempLength);
 
 		try {
 			var4.inflate(this.chunkData);
-			// Spout - start
-			
-			//System.out.println("Loading Chunk (" + field_48177_a + ", " + field_48175_b + ")");
-			//TODO: fix!
-			//if (SpoutClient.getInstance().isSpoutEnabled())
-			//	this.chunk = org.spoutcraft.client.chunkcache.ChunkCache.handle(this.chunk, var3, this.chunkSize, xPosition >> 4, zPosition >> 4);
-			// Spout - end
+			if (SpoutClient.getInstance().isSpoutEnabled()) {
+				this.chunkData = ChunkCache.handle(this.chunkData, var4, this.tempLength, this.xCh, this.zCh, this.yChMin, this.yChMax);
+			}
 		} catch (DataFormatException var9) {
-			throw new IOException("Bad compressed data format");
+			this.decodeError = new IOException("Bad compressed data format");
+		} catch (IOException var10) {
+			this.decodeError = var10;
 		} finally {
-			var4.end();
+			this.compressedData = null;
+			this.decoded = true;
 		}
-		
-		//Spout start
-		SpoutClient.getInstance().getPacketManager().sendSpoutPacket(new PacketCustomBlockChunkOverride(xCh, zCh));
-		//Spout end
 	}
 
+	public boolean isDecoded() {
+		return this.decoded;
+	}
+
+	public IOException getDecodeError() {
+		return this.decodeError;
+	}
+	// Spout end
+
 	public void writePacketData(DataOutputStream par1DataOutputStream) throws IOException {
 		par1DataOutputStream.writeInt(this.xCh);
 		par1DataOutputStream.writeInt(this.zCh);
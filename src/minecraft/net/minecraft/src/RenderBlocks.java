@@ -5,12 +5,14 @@ import org.lwjgl.opengl.GL11;
 import org.lwjgl.opengl.GL12;
 //Spout start
 import org.spoutcraft.client.config.ConfigReader;
+import org.spoutcraft.client.block.SectionSnapshot;
 import com.pclewis.mcpatcher.mod.Colorizer;
 //Spout end
 
 public class RenderBlocks {
 
 	public IBlockAccess blockAccess; // Spout private -> public
+	private Tessellator tessellator = Tessellator.instance; //Spout
 	private int overrideBlockTexture = -1;
 	private boolean flipTexture = false;
 	private boolean renderAllFaces = false;
@@ -99,16 +101,19 @@ public class RenderBlocks {
 	private boolean aoGrassXYZPNC;
 	private boolean aoGrassXYZNNC;
 	private boolean aoGrassXYZCNP;
-	//Spout start
-	public short[] customIds = null;
-	//Spout end
-
 	public RenderBlocks(IBlockAccess par1IBlockAccess) {
 		this.blockAccess = par1IBlockAccess;
 	}
 
 	public RenderBlocks() {}
 
+	//Spout start
+	public RenderBlocks(IBlockAccess blockAccess, Tessellator tessellator) {
+		this.blockAccess = blockAccess;
+		this.tessellator = tessellator;
+	}
+	//Spout end
+
 	public void clearOverrideBlockTexture() {
 		this.overrideBlockTexture = -1;
 	}
@@ -162,7 +167,7 @@ public class RenderBlocks {
 	}
 
 	private boolean renderBlockBed(Block par1Block, int par2, int par3, int par4) {
-		Tessellator var5 = Tessellator.instance;
+		Tessellator var5 = this.tessellator; //Spout
 		int var6 = this.blockAccess.getBlockMetadata(par2, par3, par4);
 		int var7 = BlockBed.getDirection(var6);
 		boolean var8 = BlockBed.isBlockFootOfBed(var6);
@@ -298,7 +303,7 @@ public class RenderBlocks {
 		par1BlockBrewingStand.setBlockBounds(0.125F, 0.0F, 0.5625F, 0.5F, 0.125F, 0.9375F);
 		this.renderStandardBlock(par1BlockBrewingStand, par2, par3, par4);
 		this.clearOverrideBlockTexture();
-		Tessellator var5 = Tessellator.instance;
+		Tessellator var5 = this.tessellator; //Spout
 		var5.setBrightness(par1BlockBrewingStand.getMixedBrightnessForBlock(this.blockAccess, par2, par3, par4));
 		float var6 = 1.0F;
 		int var7 = par1BlockBrewingStand.colorMultiplier(this.blockAccess, par2, par3, par4);
@@ -355,7 +360,7 @@ public class RenderBlocks {
 
 	private boolean renderBlockCauldron(BlockCauldron par1BlockCauldron, int par2, int par3, int par4) {
 		this.renderStandardBlock(par1BlockCauldron, par2, par3, par4);
-		Tessellator var5 = Tessellator.instance;
+		Tessellator var5 = this.tessellator; //Spout
 		var5.setBrightness(par1BlockCauldron.getMixedBrightnessForBlock(this.blockAccess, par2, par3, par4));
 		float var6 = 1.0F;
 		int var7 = par1BlockCauldron.colorMultiplier(this.blockAccess, par2, par3, par4);
@@ -400,7 +405,7 @@ public class RenderBlocks {
 
 	public boolean renderBlockTorch(Block par1Block, int par2, int par3, int par4) {
 		int var5 = this.blockAccess.getBlockMetadata(par2, par3, par4);
-		Tessellator var6 = Tessellator.instance;
+		Tessellator var6 = this.tessellator; //Spout
 		var6.setBrightness(par1Block.getMixedBrightnessForBlock(this.blockAccess, par2, par3, par4));
 		var6.setColorOpaque_F(1.0F, 1.0F, 1.0F);
 		double var7 = 0.4000000059604645D;
@@ -426,7 +431,7 @@ public class RenderBlocks {
 		int var6 = var5 & 3;
 		int var7 = (var5 & 12) >> 2;
 		this.renderStandardBlock(par1Block, par2, par3, par4);
-		Tessellator var8 = Tessellator.instance;
+		Tessellator var8 = this.tessellator; //Spout
 		var8.setBrightness(par1Block.getMixedBrightnessForBlock(this.blockAccess, par2, par3, par4));
 		var8.setColorOpaque_F(1.0F, 1.0F, 1.0F);
 		double var9 = -0.1875D;
@@ -605,7 +610,7 @@ public class RenderBlocks {
 
 		int var17 = (var16 & 15) << 4;
 		int var18 = var16 & 240;
-		Tessellator var19 = Tessellator.instance;
+		Tessellator var19 = this.tessellator; //Spout
 		double var20 = (double)((float)(var17 + 0) / 256.0F);
 		double var22 = (double)((float)(var18 + 0) / 256.0F);
 		double var24 = ((double)var17 + par14 - 0.01D) / 256.0D;
@@ -625,7 +630,7 @@ public class RenderBlocks {
 
 		int var17 = (var16 & 15) << 4;
 		int var18 = var16 & 240;
-		Tessellator var19 = Tessellator.instance;
+		Tessellator var19 = this.tessellator; //Spout
 		double var20 = (double)((float)(var17 + 0) / 256.0F);
 		double var22 = (double)((float)(var18 + 0) / 256.0F);
 		double var24 = ((double)var17 + par14 - 0.01D) / 256.0D;
@@ -645,7 +650,7 @@ public class RenderBlocks {
 
 		int var17 = (var16 & 15) << 4;
 		int var18 = var16 & 240;
-		Tessellator var19 = Tessellator.instance;
+		Tessellator var19 = this.tessellator; //Spout
 		double var20 = (double)((float)(var17 + 0) / 256.0F);
 		double var22 = (double)((float)(var18 + 0) / 256.0F);
 		double var24 = ((double)var17 + par14 - 0.01D) / 256.0D;
@@ -751,7 +756,7 @@ public class RenderBlocks {
 		int var5 = this.blockAccess.getBlockMetadata(par2, par3, par4);
 		int var6 = var5 & 7;
 		boolean var7 = (var5 & 8) > 0;
-		Tessellator var8 = Tessellator.instance;
+		Tessellator var8 = this.tessellator; //Spout
 		boolean var9 = this.overrideBlockTexture >= 0;
 		if (!var9) {
 			this.overrideBlockTexture = Block.cobblestone.blockIndexInTexture;
@@ -912,7 +917,7 @@ public class RenderBlocks {
 	}
 
 	public boolean renderBlockFire(Block par1Block, int par2, int par3, int par4) {
-		Tessellator var5 = Tessellator.instance;
+		Tessellator var5 = this.tessellator; //Spout
 		int var6 = par1Block.getBlockTextureFromSide(0);
 		if (this.overrideBlockTexture >= 0) {
 			var6 = this.overrideBlockTexture;
@@ -1100,7 +1105,7 @@ public class RenderBlocks {
 	}
 
 	public boolean renderBlockRedstoneWire(Block par1Block, int par2, int par3, int par4) {
-		Tessellator var5 = Tessellator.instance;
+		Tessellator var5 = this.tessellator; //Spout
 		int var6 = this.blockAccess.getBlockMetadata(par2, par3, par4);
 		int var7 = par1Block.getBlockTextureFromSideAndMetadata(1, var6);
 		if (this.overrideBlockTexture >= 0) {
@@ -1311,7 +1316,7 @@ public class RenderBlocks {
 	}
 
 	public boolean renderBlockMinecartTrack(BlockRail par1BlockRail, int par2, int par3, int par4) {
-		Tessellator var5 = Tessellator.instance;
+		Tessellator var5 = this.tessellator; //Spout
 		int var6 = this.blockAccess.getBlockMetadata(par2, par3, par4);
 		int var7 = par1BlockRail.getBlockTextureFromSideAndMetadata(0, var6);
 		if (this.overrideBlockTexture >= 0) {
@@ -1384,7 +1389,7 @@ public class RenderBlocks {
 	}
 
 	public boolean renderBlockLadder(Block par1Block, int par2, int par3, int par4) {
-		Tessellator var5 = Tessellator.instance;
+		Tessellator var5 = this.tessellator; //Spout
 		int var6 = par1Block.getBlockTextureFromSide(0);
 		if (this.overrideBlockTexture >= 0) {
 			var6 = this.overrideBlockTexture;
@@ -1434,7 +1439,7 @@ public class RenderBlocks {
 	}
 
 	public boolean renderBlockVine(Block par1Block, int par2, int par3, int par4) {
-		Tessellator var5 = Tessellator.instance;
+		Tessellator var5 = this.tessellator; //Spout
 		int var6 = par1Block.getBlockTextureFromSide(0);
 		if (this.overrideBlockTexture >= 0) {
 			var6 = this.overrideBlockTexture;
@@ -1511,7 +1516,7 @@ public class RenderBlocks {
 
 	public boolean renderBlockPane(BlockPane par1BlockPane, int par2, int par3, int par4) {
 		int var5 = this.blockAccess.getHeight();
-		Tessellator var6 = Tessellator.instance;
+		Tessellator var6 = this.tessellator; //Spout
 		var6.setBrightness(par1BlockPane.getMixedBrightnessForBlock(this.blockAccess, par2, par3, par4));
 		float var7 = 1.0F;
 		int var8 = par1BlockPane.colorMultiplier(this.blockAccess, par2, par3, par4);
@@ -1896,7 +1901,7 @@ public class RenderBlocks {
 	}
 
 	public boolean renderCrossedSquares(Block par1Block, int par2, int par3, int par4) {
-		Tessellator var5 = Tessellator.instance;
+		Tessellator var5 = this.tessellator; //Spout
 		var5.setBrightness(par1Block.getMixedBrightnessForBlock(this.blockAccess, par2, par3, par4));
 		float var6 = 1.0F;
 		int var7 = par1Block.colorMultiplier(this.blockAccess, par2, par3, par4);
@@ -1930,7 +1935,7 @@ public class RenderBlocks {
 
 	public boolean renderBlockStem(Block par1Block, int par2, int par3, int par4) {
 		BlockStem var5 = (BlockStem)par1Block;
-		Tessellator var6 = Tessellator.instance;
+		Tessellator var6 = this.tessellator; //Spout
 		var6.setBrightness(var5.getMixedBrightnessForBlock(this.blockAccess, par2, par3, par4));
 		float var7 = 1.0F;
 		int var8 = var5.colorMultiplier(this.blockAccess, par2, par3, par4);
@@ -1960,7 +1965,7 @@ public class RenderBlocks {
 	}
 
 	public boolean renderBlockCrops(Block par1Block, int par2, int par3, int par4) {
-		Tessellator var5 = Tessellator.instance;
+		Tessellator var5 = this.tessellator; //Spout
 		var5.setBrightness(par1Block.getMixedBrightnessForBlock(this.blockAccess, par2, par3, par4));
 		var5.setColorOpaque_F(1.0F, 1.0F, 1.0F);
 		this.renderBlockCropsImpl(par1Block, this.blockAccess.getBlockMetadata(par2, par3, par4), (double)par2, (double)((float)par3 - 0.0625F), (double)par4);
@@ -1968,7 +1973,7 @@ public class RenderBlocks {
 	}
 
 	public void renderTorchAtAngle(Block par1Block, double par2, double par4, double par6, double par8, double par10) {
-		Tessellator var12 = Tessellator.instance;
+		Tessellator var12 = this.tessellator; //Spout
 		int var13 = par1Block.getBlockTextureFromSide(0);
 		if (this.overrideBlockTexture >= 0) {
 			var13 = this.overrideBlockTexture;
@@ -2021,7 +2026,7 @@ public class RenderBlocks {
 
 	public void drawCrossedSquares(Block par1Block, int par2, double par3, double par5, double par7, boolean customUV) {
 		// Spout end
-		Tessellator var9 = Tessellator.instance;
+		Tessellator var9 = this.tessellator; //Spout
 		int var10 = par1Block.getBlockTextureFromSideAndMetadata(0, par2);
 		if (this.overrideBlockTexture >= 0) {
 			var10 = this.overrideBlockTexture;
@@ -2064,7 +2069,7 @@ public class RenderBlocks {
 	}
 
 	public void renderBlockStemSmall(Block par1Block, int par2, double par3, double par5, double par7, double par9) {
-		Tessellator var11 = Tessellator.instance;
+		Tessellator var11 = this.tessellator; //Spout
 		int var12 = par1Block.getBlockTextureFromSideAndMetadata(0, par2);
 		if (this.overrideBlockTexture >= 0) {
 			var12 = this.overrideBlockTexture;
@@ -2099,7 +2104,7 @@ public class RenderBlocks {
 	}
 
 	public boolean renderBlockLilyPad(Block par1Block, int par2, int par3, int par4) {
-		Tessellator var5 = Tessellator.instance;
+		Tessellator var5 = this.tessellator; //Spout
 		int var6 = par1Block.blockIndexInTexture;
 		if (this.overrideBlockTexture >= 0) {
 			var6 = this.overrideBlockTexture;
@@ -2134,7 +2139,7 @@ public class RenderBlocks {
 	}
 
 	public void renderBlockStemBig(Block par1Block, int par2, int par3, double par4, double par6, double par8, double par10) {
-		Tessellator var12 = Tessellator.instance;
+		Tessellator var12 = this.tessellator; //Spout
 		int var13 = par1Block.getBlockTextureFromSideAndMetadata(0, par2) + 16;
 		if (this.overrideBlockTexture >= 0) {
 			var13 = this.overrideBlockTexture;
@@ -2180,7 +2185,7 @@ public class RenderBlocks {
 	}
 
 	public void renderBlockCropsImpl(Block par1Block, int par2, double par3, double par5, double par7) {
-		Tessellator var9 = Tessellator.instance;
+		Tessellator var9 = this.tessellator; //Spout
 		int var10 = par1Block.getBlockTextureFromSideAndMetadata(0, par2);
 		if (this.overrideBlockTexture >= 0) {
 			var10 = this.overrideBlockTexture;
@@ -2235,7 +2240,7 @@ public class RenderBlocks {
 	}
 
 	public boolean renderBlockFluids(Block par1Block, int par2, int par3, int par4) {
-		Tessellator var5 = Tessellator.instance;
+		Tessellator var5 = this.tessellator; //Spout
 		int var6 = par1Block.colorMultiplier(this.blockAccess, par2, par3, par4);
 		float var7 = (float)(var6 >> 16 & 255) / 255.0F;
 		float var8 = (float)(var6 >> 8 & 255) / 255.0F;
@@ -2426,7 +2431,7 @@ public class RenderBlocks {
 		float var7 = 1.0F;
 		float var8 = 0.8F;
 		float var9 = 0.6F;
-		Tessellator var10 = Tessellator.instance;
+		Tessellator var10 = this.tessellator; //Spout
 		var10.startDrawingQuads();
 		var10.setBrightness(par1Block.getMixedBrightnessForBlock(par2World, par3, par4, par5));
 		float var11 = 1.0F;
@@ -2575,7 +2580,7 @@ public class RenderBlocks {
 
 		//Spout end
 
-		Tessellator var26 = Tessellator.instance;
+		Tessellator var26 = this.tessellator; //Spout
 		var26.setBrightness(983055);
 		if (par1Block.blockIndexInTexture == 3) {
 			var18 = false;
@@ -3447,7 +3452,7 @@ public class RenderBlocks {
 
 	public boolean renderStandardBlockWithColorMultiplier(Block par1Block, int par2, int par3, int par4, float par5, float par6, float par7) {
 		this.enableAO = false;
-		Tessellator var8 = Tessellator.instance;
+		Tessellator var8 = this.tessellator; //Spout
 		boolean var9 = false;
 		float var10 = 0.5F;
 		float var11 = 1.0F;
@@ -3583,7 +3588,7 @@ public class RenderBlocks {
 	}
 
 	public boolean renderBlockCactusImpl(Block par1Block, int par2, int par3, int par4, float par5, float par6, float par7) {
-		Tessellator var8 = Tessellator.instance;
+		Tessellator var8 = this.tessellator; //Spout
 		boolean var9 = false;
 		float var10 = 0.5F;
 		float var11 = 1.0F;
@@ -3949,7 +3954,7 @@ public class RenderBlocks {
 	}
 
 	public boolean renderBlockDoor(Block par1Block, int par2, int par3, int par4) {
-		Tessellator var5 = Tessellator.instance;
+		Tessellator var5 = this.tessellator; //Spout
 		BlockDoor var6 = (BlockDoor)par1Block;
 		boolean var7 = false;
 		float var8 = 0.5F;
@@ -4013,8 +4018,8 @@ public class RenderBlocks {
 	}
 
 	public void renderBottomFace(Block par1Block, double par2, double par4, double par6, int par8) {
-		Tessellator.instance.setNormal(0.0F, -1.0F, 0.0F);
-		Tessellator var9 = Tessellator.instance;
+		this.tessellator.setNormal(0.0F, -1.0F, 0.0F); //Spout
+		Tessellator var9 = this.tessellator; //Spout
 		if (this.overrideBlockTexture >= 0) {
 			par8 = this.overrideBlockTexture;
 		}
@@ -4099,8 +4104,8 @@ public class RenderBlocks {
 	}
 
 	public void renderTopFace(Block par1Block, double par2, double par4, double par6, int par8) {
-		Tessellator.instance.setNormal(0.0F, 1.0F, 0.0F);
-		Tessellator var9 = Tessellator.instance;
+		this.tessellator.setNormal(0.0F, 1.0F, 0.0F); //Spout
+		Tessellator var9 = this.tessellator; //Spout
 		if (this.overrideBlockTexture >= 0) {
 			par8 = this.overrideBlockTexture;
 		}
@@ -4185,8 +4190,8 @@ public class RenderBlocks {
 	}
 
 	public void renderEastFace(Block par1Block, double par2, double par4, double par6, int par8) {
-		Tessellator.instance.setNormal(0.0F, 0.0F, -1.0F);
-		Tessellator var9 = Tessellator.instance;
+		this.tessellator.setNormal(0.0F, 0.0F, -1.0F); //Spout
+		Tessellator var9 = this.tessellator; //Spout
 		if (this.overrideBlockTexture >= 0) {
 			par8 = this.overrideBlockTexture;
 		}
@@ -4278,8 +4283,8 @@ public class RenderBlocks {
 	}
 
 	public void renderWestFace(Block par1Block, double par2, double par4, double par6, int par8) {
-		Tessellator.instance.setNormal(0.0F, 0.0F, 1.0F);
-		Tessellator var9 = Tessellator.instance;
+		this.tessellator.setNormal(0.0F, 0.0F, 1.0F); //Spout
+		Tessellator var9 = this.tessellator; //Spout
 		if (this.overrideBlockTexture >= 0) {
 			par8 = this.overrideBlockTexture;
 		}
@@ -4371,8 +4376,8 @@ public class RenderBlocks {
 	}
 
 	public void renderNorthFace(Block par1Block, double par2, double par4, double par6, int par8) {
-		Tessellator.instance.setNormal(-1.0F, 0.0F, 0.0F);
-		Tessellator var9 = Tessellator.instance;
+		this.tessellator.setNormal(-1.0F, 0.0F, 0.0F); //Spout
+		Tessellator var9 = this.tessellator; //Spout
 		if (this.overrideBlockTexture >= 0) {
 			par8 = this.overrideBlockTexture;
 		}
@@ -4464,8 +4469,8 @@ public class RenderBlocks {
 	}
 
 	public void renderSouthFace(Block par1Block, double par2, double par4, double par6, int par8) {
-		Tessellator.instance.setNormal(1.0F, 0.0F, 0.0F);
-		Tessellator var9 = Tessellator.instance;
+		this.tessellator.setNormal(1.0F, 0.0F, 0.0F); //Spout
+		Tessellator var9 = this.tessellator; //Spout
 		if (this.overrideBlockTexture >= 0) {
 			par8 = this.overrideBlockTexture;
 		}
@@ -4557,7 +4562,7 @@ public class RenderBlocks {
 	}
 
 	public void renderBlockAsItem(Block par1Block, int par2, float par3) {
-		Tessellator var4 = Tessellator.instance;
+		Tessellator var4 = this.tessellator; //Spout
 		boolean var5 = par1Block.blockID == Block.grass.blockID;
 		int var6;
 		float var7;
@@ -4952,17 +4957,31 @@ public class RenderBlocks {
 		}
 	}
 	
-	public static float adjustAmbientOcclusion(float lightValue, float lightPosition) {
-		if(Minecraft.theMinecraft.theWorld.worldProvider.lightBrightnessTable == null) {
+	public float adjustAmbientOcclusion(float lightValue, float lightPosition) {
+		//A snapshot is rendered off the main thread, it carries the brightness it was taken with
+		float[] brightnessTable;
+		float brightness;
+		if (this.blockAccess instanceof SectionSnapshot) {
+			brightnessTable = ((SectionSnapshot) this.blockAccess).getLightBrightnessTable();
+			brightness = ((SectionSnapshot) this.blockAccess).getBrightnessSlider();
+		} else {
+			World world = Minecraft.theMinecraft.theWorld;
+			if (world == null) {
+				return lightValue;
+			}
+			brightnessTable = world.worldProvider.lightBrightnessTable;
+			brightness = org.spoutcraft.client.config.ConfigReader.brightnessSlider;
+		}
+		if(brightnessTable == null) {
 			return lightValue;
 		}
-		if(lightValue > Minecraft.theMinecraft.theWorld.worldProvider.lightBrightnessTable[0]) {
+		if(lightValue > brightnessTable[0]) {
 			return lightValue;
 		}
-		if (lightPosition <= Minecraft.theMinecraft.theWorld.worldProvider.lightBrightnessTable[1]) {
+		if (lightPosition <= brightnessTable[1]) {
 			return lightValue;
 		}
-		return lightValue + (lightPosition - lightValue) * (1.0F - org.spoutcraft.client.config.ConfigReader.brightnessSlider);
+		return lightValue + (lightPosition - lightValue) * (1.0F - brightness);
 	}
 	
 	private boolean dirtyAmbientOcclusionCache = true;
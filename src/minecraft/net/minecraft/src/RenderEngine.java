@@ -24,8 +24,11 @@ import com.pclewis.mcpatcher.mod.TileSize;
 import java.awt.Graphics2D;
 import java.awt.RenderingHints;
 import java.awt.Dimension;
+import org.lwjgl.opengl.GL12;
 import org.lwjgl.opengl.GLContext;
 
+import org.spoutcraft.client.texture.TexturePixels;
+
 //Spout HD End
 
 public class RenderEngine {
@@ -35,6 +38,10 @@ public class RenderEngine {
 	private IntHashMap textureNameToImageMap = new IntHashMap();
 	private IntBuffer singleIntBuffer = GLAllocation.createDirectIntBuffer(1);
 	private ByteBuffer imageData = GLAllocation.createDirectByteBuffer(16777216);
+	// Spout Start
+	private int[] pixelData = new int[0];
+	private int[] mipmapData = new int[0];
+	// Spout End
 	public List textureList = new ArrayList(); // Spout private -> public
 	private Map urlToImageDataMap = new HashMap();
 	private GameSettings options;
@@ -229,81 +236,43 @@ public class RenderEngine {
 			}
 			int textureWidth = texture.getWidth();
 			int textureHeight = texture.getHeight();
-			int[] texData = new int[textureWidth * textureHeight];
-			byte[] texColors = new byte[textureWidth * textureHeight * 4];
 			//Spout start
-			//Performance reasons
-			boolean handled = false;
-			try {
-				java.awt.image.DataBuffer buf = texture.getRaster().getDataBuffer();
-				if (buf instanceof java.awt.image.DataBufferInt) {
-					int[] srcbuf = ((java.awt.image.DataBufferInt) buf).getData();
-					System.arraycopy(srcbuf, 0, texData, 0, srcbuf.length);
-					handled = true;
+			//Upload the ARGB pixels as they are, GL_UNSIGNED_INT_8_8_8_8_REV with GL_BGRA reads them without conversion
+			int length = textureWidth * textureHeight;
+			int[] pixels = TexturePixels.getRaster(texture);
+			boolean anaglyph = this.options != null && this.options.anaglyph;
+			if (pixels == null || anaglyph) {
+				if (this.pixelData.length < length) {
+					this.pixelData = new int[length];
 				}
-			}
-			catch (Exception ignore) { }
-			if (!handled) {
-				texture.getRGB(0, 0, textureWidth, textureHeight, texData, 0, textureWidth);
-			}
-			
-			int r;
-			int g;
-			int b;
-			int a;
-			int j;
-			int var13;
-			int var14;
-			for (int i = 0; i < texData.length; ++i) {
-				r = texData[i] >> 24 & 255;
-				g = texData[i] >> 16 & 255;
-				b = texData[i] >> 8 & 255;
-				a = texData[i] & 255;
-				if (this.options != null && this.options.anaglyph) {
-					j = (g * 30 + b * 59 + a * 11) / 100;
-					var13 = (g * 30 + b * 70) / 100;
-					var14 = (g * 30 + a * 70) / 100;
-					g = j;
-					b = var13;
-					a = var14;
+				if (pixels == null) {
+					texture.getRGB(0, 0, textureWidth, textureHeight, this.pixelData, 0, textureWidth);
+					pixels = this.pixelData;
+				}
+				if (anaglyph) {
+					TexturePixels.anaglyph(pixels, this.pixelData, length);
+					pixels = this.pixelData;
 				}
-
-				texColors[i * 4 + 0] = (byte) g;
-				texColors[i * 4 + 1] = (byte) b;
-				texColors[i * 4 + 2] = (byte) a;
-				texColors[i * 4 + 3] = (byte) r;
 			}
-			//Spout end
-			this.imageData = TextureUtils.getByteBuffer(this.imageData, texColors);
+			this.imageData = TextureUtils.getByteBuffer(this.imageData, pixels, length);
 
-			GL11.glTexImage2D(GL11.GL_TEXTURE_2D, 0, GL11.GL_RGBA, textureWidth, textureHeight, 0, GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE, this.imageData);
+			GL11.glTexImage2D(GL11.GL_TEXTURE_2D, 0, GL11.GL_RGBA, textureWidth, textureHeight, 0, GL12.GL_BGRA, GL12.GL_UNSIGNED_INT_8_8_8_8_REV, this.imageData);
 			if (useMipmaps) {
+				// The pixels may be the raster of the image, so the levels are written to mipmapData
+				if (this.mipmapData.length < length / 4) {
+					this.mipmapData = new int[length / 4];
+				}
+				int[] level = pixels;
 				for (int i = 1; i <= 4; ++i) {
-					// slide the colors into proper bit positions?
-					// IE: r g b a
-					// 00 - 00 - 00 - 00
-					// so you can do something like
-					// int col = r + g + b + a;
-
-					r = textureWidth >> i - 1;
-					g = textureWidth >> i;
-					b = textureHeight >> i;
-
-					for (a = 0; a < g; ++a) {
-						for (j = 0; j < b; ++j) {
-							var13 = this.imageData.getInt((a * 2 + 0 + (j * 2 + 0) * r) * 4);
-							var14 = this.imageData.getInt((a * 2 + 1 + (j * 2 + 0) * r) * 4);
-							int var15 = this.imageData.getInt((a * 2 + 1 + (j * 2 + 1) * r) * 4);
-							int var16 = this.imageData.getInt((a * 2 + 0 + (j * 2 + 1) * r) * 4);
-							int var17 = this.alphaBlend(this.alphaBlend(var13, var14), this.alphaBlend(var15, var16));
-							this.imageData.putInt((a + j * g) * 4, var17);
-						}
-					}
-
-					GL11.glTexImage2D(GL11.GL_TEXTURE_2D, i, GL11.GL_RGBA, g, b, 0, GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE, this.imageData);
+					int levelWidth = textureWidth >> i;
+					int levelHeight = textureHeight >> i;
+					TexturePixels.downsample(level, textureWidth >> i - 1, this.mipmapData, levelWidth, levelHeight);
+					level = this.mipmapData;
+					this.imageData = TextureUtils.getByteBuffer(this.imageData, level, levelWidth * levelHeight);
+					GL11.glTexImage2D(GL11.GL_TEXTURE_2D, i, GL11.GL_RGBA, levelWidth, levelHeight, 0, GL12.GL_BGRA, GL12.GL_UNSIGNED_INT_8_8_8_8_REV, this.imageData);
 				}
 			}
-
+			//Spout end
 		}
 	}
 
@@ -455,36 +424,6 @@ public class RenderEngine {
 		CustomAnimation.updateAll();
 	}
 
-	private int alphaBlend(int par1, int par2) {
-		int var3 = (par1 & -16777216) >> 24 & 255;
-		int var4 = (par2 & -16777216) >> 24 & 255;
-		short var5 = 255;
-		short var15;
-		short var16;
-		if (var3 + var4 < 255) {
-			var5 = 0;
-			var15 = 1;
-			var16 = 1;
-		} else if (var3 > var4) {
-			var15 = 255;
-			var16 = 1;
-		} else {
-			var15 = 1;
-			var16 = 255;
-		}
-
-		int var6 = (par1 >> 16 & 255) * var15;
-		int var7 = (par1 >> 8 & 255) * var15;
-		int var8 = (par1 & 255) * var15;
-		int var9 = (par2 >> 16 & 255) * var16;
-		int var10 = (par2 >> 8 & 255) * var16;
-		int var11 = (par2 & 255) * var16;
-		int var12 = (var6 + var9) / (var15 + var16);
-		int var13 = (var7 + var10) / (var15 + var16);
-		int var14 = (var8 + var11) / (var15 + var16);
-		return var5 << 24 | var12 << 16 | var13 << 8 | var14;
-	}
-
 	public void refreshTextures() {
 		TexturePackBase var1 = this.texturePack.selectedTexturePack;
 		Iterator var2 = this.textureNameToImageMap.getKeySet().iterator();
@@ -17,6 +17,7 @@ import org.lwjgl.opengl.GL11;
 import org.spoutcraft.client.HDImageBufferDownload;
 import org.spoutcraft.client.SpoutClient;
 import org.spoutcraft.client.config.ConfigReader;
+import org.spoutcraft.client.gui.minimap.MapCalculator;
 import org.spoutcraft.client.io.CustomTextureManager;
 import org.spoutcraft.client.spoutworth.SpoutWorth;
 import org.spoutcraft.spoutcraftapi.gui.Color;
@@ -1428,6 +1429,7 @@ public class RenderGlobal implements IWorldAccess {
 	}
 
 	public void markBlocksForUpdate(int par1, int par2, int par3, int par4, int par5, int par6) {
+		MapCalculator.markDirty(par1, par3, par4, par6); //Spout
 		int var7 = MathHelper.bucketInt(par1, 16);
 		int var8 = MathHelper.bucketInt(par2, 16);
 		int var9 = MathHelper.bucketInt(par3, 16);
@@ -11,6 +11,7 @@ import net.minecraft.src.OpenGlHelper;
 import org.lwjgl.opengl.ARBVertexBufferObject;
 import org.lwjgl.opengl.GL11;
 import org.lwjgl.opengl.GLContext;
+import org.spoutcraft.client.block.VertexBucket; //Spout
 
 public class Tessellator {
 
@@ -194,6 +195,83 @@ public class Tessellator {
 			this.shadersData[0] = (short)var1;
 		}
 	}
+
+	/**
+	 * Creates a tessellator that only collects vertices, for use off the render thread. It must never be drawn with vertices in it.
+	 */
+	public static Tessellator createCaptureTessellator(int bufferSize) {
+		return new Tessellator(bufferSize);
+	}
+
+	public int getRawBufferIndex() {
+		return this.rawBufferIndex;
+	}
+
+	/**
+	 * Draws what was added so far unless the given number of vertices still fits, so they can be added without the buffer being flushed part way through.
+	 */
+	public void ensureRoom(int vertices) {
+		if (this.rawBufferIndex + vertices * 8 >= this.bufferSize - 32) {
+			this.draw();
+			this.isDrawing = true;
+		}
+	}
+
+	/**
+	 * Moves every vertex added since the given raw buffer mark into the bucket, rewinding this tessellator back to the mark.
+	 * The buffer must not have been flushed since the mark was taken, see {@link #ensureRoom(int)}.
+	 */
+	public void moveVertices(int mark, VertexBucket bucket) {
+		int count = (this.rawBufferIndex - mark) / 8;
+		if (count <= 0) {
+			return;
+		}
+		int flags = (this.hasTexture ? VertexBucket.TEXTURE : 0) | (this.hasBrightness ? VertexBucket.BRIGHTNESS : 0) | (this.hasColor ? VertexBucket.COLOR : 0) | (this.hasNormals ? VertexBucket.NORMALS : 0);
+		int start = bucket.append(count, flags);
+		System.arraycopy(this.rawBuffer, mark, bucket.getData(), start * 8, count * 8);
+		short[] shaders = bucket.getShaderData();
+		int shaderStart = this.shadersBuffer.position() - count * 4;
+		for (int i = 0; i < count; i++) {
+			shaders[(start + i) * 2] = this.shadersBuffer.getShort(shaderStart + i * 4);
+			shaders[(start + i) * 2 + 1] = this.shadersBuffer.getShort(shaderStart + i * 4 + 2);
+		}
+		this.shadersBuffer.position(shaderStart);
+		this.rawBufferIndex = mark;
+		this.vertexCount -= count;
+		this.addedVertices -= this.drawMode == 7 && convertQuadsToTriangles ? count / 6 * 4 : count;
+	}
+
+	/**
+	 * Appends the vertices of a bucket to the current draw, flushing whenever the buffer fills up.
+	 */
+	public void addVertices(VertexBucket bucket) {
+		int flags = bucket.getFlags();
+		this.hasTexture |= (flags & VertexBucket.TEXTURE) != 0;
+		this.hasBrightness |= (flags & VertexBucket.BRIGHTNESS) != 0;
+		this.hasColor |= (flags & VertexBucket.COLOR) != 0;
+		this.hasNormals |= (flags & VertexBucket.NORMALS) != 0;
+		int[] data = bucket.getData();
+		short[] shaders = bucket.getShaderData();
+		int total = bucket.getVertexCount();
+		int done = 0;
+		while (done < total) {
+			int room = (this.bufferSize - 32 - this.rawBufferIndex) / 8;
+			int count = Math.min(total - done, room - room % 4);
+			if (count <= 0) {
+				this.draw();
+				this.isDrawing = true;
+				continue;
+			}
+			System.arraycopy(data, done * 8, this.rawBuffer, this.rawBufferIndex, count * 8);
+			for (int i = 0; i < count; i++) {
+				this.shadersBuffer.putShort(shaders[(done + i) * 2]).putShort(shaders[(done + i) * 2 + 1]);
+			}
+			this.rawBufferIndex += count * 8;
+			this.vertexCount += count;
+			this.addedVertices += count;
+			done += count;
+		}
+	}
  //Spout end
 
 	public void startDrawingQuads() {
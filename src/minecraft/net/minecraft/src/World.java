@@ -2275,12 +2275,7 @@ public class World implements IBlockAccess {
 		//Spout start
 		int light = Block.lightValue[par5];
 		
-		//Fix for generation-time accessing
-		org.spoutcraft.spoutcraftapi.World world = Spoutcraft.getWorld();
-		short customId = 0;
-		if(world != null) {
-			customId = world.getChunkAt(par2, par3, par4).getCustomBlockId(par2, par3, par4);
-		}
+		short customId = this.getChunkFromBlockCoords(par2, par4).spoutChunk.getCustomBlockId(par2, par3, par4);
 		if (customId > 0) {
 			CustomBlock block = MaterialData.getCustomBlock(customId);
 			if (block != null) {
@@ -18,14 +18,18 @@ import net.minecraft.src.TileEntityRenderer;
 import net.minecraft.src.World;
 import org.lwjgl.opengl.GL11;
 //Spout start
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TObjectIntHashMap;
 import org.newdawn.slick.opengl.Texture;
 import org.spoutcraft.client.SpoutClient;
+import org.spoutcraft.client.block.SectionMesh;
+import org.spoutcraft.client.block.SectionMesher;
+import org.spoutcraft.client.block.SectionSnapshot;
+import org.spoutcraft.client.block.VertexBucket;
 import org.spoutcraft.client.io.CustomTextureManager;
 import org.spoutcraft.client.item.SpoutItem;
-import org.spoutcraft.spoutcraftapi.Spoutcraft;
 import org.spoutcraft.spoutcraftapi.block.design.GenericBlockDesign;
 import org.spoutcraft.spoutcraftapi.material.CustomBlock;
-import org.spoutcraft.spoutcraftapi.material.MaterialData;
 
 import net.minecraft.client.Minecraft;
 //Spout end
@@ -59,6 +63,20 @@ public class WorldRenderer {
 	private boolean isInitialized = false;
 	public List tileEntityRenderers = new ArrayList();
 	private List tileEntities;
+	//Spout start
+	private int buildGeneration = 0;
+	private static final TObjectIntHashMap<String> textureKeys = new TObjectIntHashMap<String>(16, 0.5F, -1);
+	private static final List<String> textureUrls = new ArrayList<String>();
+	private static final List<String> textureAddons = new ArrayList<String>();
+	private static final List<VertexBucket> buckets = new ArrayList<VertexBucket>();
+	private static final TObjectIntHashMap<GenericBlockDesign> designTextures = new TObjectIntHashMap<GenericBlockDesign>(16, 0.5F, -1);
+	private static final TIntArrayList usedTextures = new TIntArrayList();
+	static {
+		textureUrls.add("/terrain.png");
+		textureAddons.add("");
+		buckets.add(null);
+	}
+	//Spout end
 
 	public WorldRenderer(World par1World, List par2List, int par3, int par4, int par5, int par6) {
 		this.worldObj = par1World;
@@ -101,208 +119,171 @@ public class WorldRenderer {
 		//Spout Start
 		if(this.needsUpdate) {
 			++chunksUpdated;
-			int x = this.posX;
-			int y = this.posY;
-			int z = this.posZ;
-			int sizeXOffset = this.posX + 16;
-			int sizeYOffset = this.posY + 16;
-			int sizeZOffset = this.posZ + 16;
-
-			for(int renderPass = 0; renderPass < skipRenderPass.length; ++renderPass) {
-				this.skipRenderPass[renderPass] = true;
-			}
-
 			Chunk.isLit = false;
+			SectionSnapshot snapshot = new SectionSnapshot(worldObj, posX, posY, posZ);
+			this.isChunkLit = Chunk.isLit;
+
 			HashSet tileRenderers = new HashSet();
 			tileRenderers.addAll(this.tileEntityRenderers);
 			this.tileEntityRenderers.clear();
-			//ChunkCache chunkCache = new ChunkCache(this.worldObj, x - 1, y - 1, z - 1, sizeXOffset + 1, sizeYOffset + 1, sizeZOffset + 1);
-			RenderBlocks blockRenderer = new RenderBlocks(worldObj);
-			
-			List<String> hitTextures = new ArrayList<String>();
-			List<String> hitTexturesPlugins = new ArrayList<String>();
-			int currentTexture = 0;
-			Minecraft game = SpoutClient.getHandle();
+			for (TileEntity tileEntity : snapshot.getTileEntities()) {
+				if (TileEntityRenderer.instance.hasSpecialRenderer(tileEntity)) {
+					this.tileEntityRenderers.add(tileEntity);
+				}
+			}
 
-			hitTextures.add("/terrain.png");
-			hitTexturesPlugins.add("");
-			int defaultTexture = game.renderEngine.getTexture("/terrain.png");
-			game.renderEngine.bindTexture(defaultTexture);
-			
-			short[] customBlockIds = Spoutcraft.getWorld().getChunkAt(posX, posY, posZ).getCustomBlockIds();
-			byte[] customBlockData = Spoutcraft.getWorld().getChunkAt(posX, posY, posZ).getCustomBlockData();
+			HashSet var24 = new HashSet();
+			var24.addAll(this.tileEntityRenderers);
+			var24.removeAll(tileRenderers);
+			this.tileEntities.addAll(var24);
+			tileRenderers.removeAll(this.tileEntityRenderers);
+			this.tileEntities.removeAll(tileRenderers);
 
-			blockRenderer.customIds = customBlockIds;
+			//The previous display lists stay in use until the new mesh is uploaded
+			SectionMesher.build(this, ++buildGeneration, snapshot);
+			//Spout End
+		}
+	}
 
-			for (int renderPass = 0; renderPass < skipRenderPass.length; ++renderPass) {
-				
-				boolean skipRenderPass = false;
-				boolean rendered = false;
-				boolean drawBlock = false;
-				
-				if (!drawBlock) {
-					drawBlock = true;
-					GL11.glNewList(this.glRenderList + renderPass, GL11.GL_COMPILE);
-					GL11.glPushMatrix();
-					this.setupGLTranslation();
-					GL11.glTranslatef(-8F, -8F, -8F);
-					GL11.glScalef(1F, 1F, 1F);
-					GL11.glTranslatef(8F, 8F, 8F);
-					tessellator.startDrawingQuads();
-					tessellator.setTranslation((double)(-this.posX), (double)(-this.posY), (double)(-this.posZ));
-				}
-				
-				game.renderEngine.bindTexture(defaultTexture);
-				for (currentTexture = 0; currentTexture < hitTextures.size(); currentTexture++) {	
-					int texture = defaultTexture;
-					//First pass (currentTexture == 0) is for the default terrain.png texture. Subsquent passes are for custom textures
-					//This design is to avoid unnessecary glBindTexture calls.
-					if(currentTexture > 0) {
-						Texture customTexture = CustomTextureManager.getTextureFromUrl(hitTexturesPlugins.get(currentTexture), hitTextures.get(currentTexture));
-						if (customTexture != null) {
-							texture = customTexture.getTextureID();
-							game.renderEngine.bindTexture(texture);
-							if(texture <= 0) {
-								texture = defaultTexture;
-							}
-						}
-					}
+	//Spout start
+	/**
+	 * Compiles a mesh built by {@link SectionMesher} into this renderer's display lists, rendering the blocks the worker left
+	 * for the main thread on the way, against the snapshot the worker used. Meshes from before the last rebuild or move are dropped.
+	 */
+	public void uploadMesh(SectionMesh mesh) {
+		if (this.worldObj == null || mesh.getGeneration() != this.buildGeneration) {
+			return;
+		}
+		int x = this.posX;
+		int y = this.posY;
+		int z = this.posZ;
+		SectionSnapshot snapshot = mesh.getSnapshot();
+		RenderBlocks blockRenderer = new RenderBlocks(snapshot);
+		Minecraft game = SpoutClient.getHandle();
+		int defaultTexture = game.renderEngine.getTexture("/terrain.png");
+		game.renderEngine.bindTexture(defaultTexture);
 
-					if(tessellator.textureOverride != texture){
-						tessellator.draw();
-						tessellator.textureOverride = texture;
-						tessellator.startDrawingQuads();
-					}
-					
-					float[] oldBounds = new float[6];
-					
-					//The x,y,z order is important, don't change!
-					for (int dx = x; dx < sizeXOffset; ++dx) {
-						for (int dz = z; dz < sizeZOffset; ++dz) {
-							for (int dy = y; dy < sizeYOffset; ++dy) {
-								int id = worldObj.getBlockId(dx, dy, dz);
-								if (id > 0) {
-									String customTexture = null; 
-									String customTextureAddon = null;
-									GenericBlockDesign design = null;
+		designTextures.clear();
+		float[] oldBounds = new float[6];
+		TIntArrayList deferred = mesh.getDeferred();
 
-									CustomBlock mat = null;
-									if (customBlockIds != null) {
-										int key = ((dx & 0xF) << 12) | ((dz & 0xF) << 8) | (dy & 0xFF);
-										if (customBlockIds[key] != 0) {
-											mat = MaterialData.getCustomBlock(customBlockIds[key]);
-											if (mat != null) {
-												design = (GenericBlockDesign) mat.getBlockDesign(customBlockData[key]);
-											}
-										}
-									}
-									
-									if (design != null) {
-										customTexture = design.getTexureURL();
-										customTextureAddon = design.getTextureAddon();
-									}
-									
-									
-									if(customTexture != null){
-										boolean found = false;
-										
-										//Search for the custom texture in our list
-										for(int i = 0; i < hitTextures.size(); i++){
-											if(hitTextures.get(i).equals(customTexture) && hitTexturesPlugins.get(i).equals(customTextureAddon)) {
-												found = true;
-												break;
-											}
-										}
-										//If it is not already accounted for, add it so we do an additional pass for it.
-										if(!found) {
-											hitTextures.add(customTexture);
-											hitTexturesPlugins.add(customTextureAddon);
-										}
-										
-										//Do not render if we are using a different texture than the current one
-										if(!hitTextures.get(currentTexture).equals(customTexture) || !hitTexturesPlugins.get(currentTexture).equals(customTextureAddon)) {
-											continue;
-										}
-									}
-									//Do not render if we are not using the terrain.png and can't find a valid texture for this custom block
-									else if (currentTexture != 0) { 
-										continue;
-									}
-									
-									Block block = Block.blocksList[id];
-									if (renderPass == 0 && block.hasTileEntity()) {
-										TileEntity var20 = worldObj.getBlockTileEntity(dx, dy, dz);
-										if (TileEntityRenderer.instance.hasSpecialRenderer(var20)) {
-											this.tileEntityRenderers.add(var20);
-										}
-									}
+		int passes = mesh.getPasses();
+		for (int i = 0; i < deferred.size(); i++) {
+			int packed = deferred.get(i);
+			int dx = x + (packed >> 8);
+			int dz = z + (packed >> 4 & 15);
+			int dy = y + (packed & 15);
+			Block block = Block.blocksList[snapshot.getBlockId(dx, dy, dz)];
+			if (block != null) {
+				GenericBlockDesign design = snapshot.getDesign(dx, dy, dz);
+				passes |= 1 << (design != null ? design.getRenderPass() : block.getRenderBlockPass());
+			}
+		}
 
-									//Determine which pass this block needs to be rendered on
-									int blockRenderPass = block.getRenderBlockPass();
-									if (design != null) {
-										blockRenderPass = design.getRenderPass();
-									}
-									
-									if (blockRenderPass != renderPass) {
-										skipRenderPass = true;
-									}
-									else {
-										Tessellator.instance.setEntity(block.blockID); //shaders
-										if (design != null) {
-											oldBounds[0] = (float) block.minX;
-											oldBounds[1] = (float) block.minY;
-											oldBounds[2] = (float) block.minZ;
-											oldBounds[3] = (float) block.maxX;
-											oldBounds[4] = (float) block.maxY;
-											oldBounds[5] = (float) block.maxZ;
-											block.setBlockBounds(design.getLowXBound(), design.getLowYBound(), design.getLowZBound(), design.getHighXBound(), design.getHighYBound(), design.getHighZBound());
-											rendered |= design.renderBlock(mat, dx, dy, dz);
-											block.setBlockBounds(oldBounds[0], oldBounds[1], oldBounds[2], oldBounds[3], oldBounds[4], oldBounds[5]);
-										}
-										else {
-											rendered |= blockRenderer.renderBlockByRenderType(block, dx, dy, dz);
-										}
-									}
-								}
-							}
-						}
-					}
+		for (int renderPass = 0; renderPass < skipRenderPass.length; ++renderPass) {
+			this.skipRenderPass[renderPass] = true;
+			if ((passes & 1 << renderPass) == 0) {
+				continue;
+			}
+
+			boolean rendered = mesh.isRendered(renderPass);
+			usedTextures.resetQuick();
+
+			GL11.glNewList(this.glRenderList + renderPass, GL11.GL_COMPILE);
+			GL11.glPushMatrix();
+			this.setupGLTranslation();
+			GL11.glTranslatef(-8F, -8F, -8F);
+			GL11.glScalef(1F, 1F, 1F);
+			GL11.glTranslatef(8F, 8F, 8F);
+			tessellator.textureOverride = defaultTexture;
+			tessellator.startDrawingQuads();
+			tessellator.setTranslation((double)(-this.posX), (double)(-this.posY), (double)(-this.posZ));
+			if (mesh.getVertices(renderPass) != null) {
+				tessellator.addVertices(mesh.getVertices(renderPass));
+			}
+
+			//Terrain.png blocks go straight to the tessellator, blocks with a custom texture are moved into a
+			//bucket per texture and drawn after, so each texture is bound once per pass.
+			for (int i = 0; i < deferred.size(); i++) {
+				int packed = deferred.get(i);
+				int dx = x + (packed >> 8);
+				int dz = z + (packed >> 4 & 15);
+				int dy = y + (packed & 15);
+				int id = snapshot.getBlockId(dx, dy, dz);
+				Block block = Block.blocksList[id];
+				if (block == null) {
+					continue;
 				}
+				CustomBlock mat = snapshot.getCustomBlock(dx, dy, dz);
+				GenericBlockDesign design = snapshot.getDesign(dx, dy, dz);
 
-				if (drawBlock) {
-					tessellator.draw();
-					tessellator.textureOverride = 0;
-					GL11.glPopMatrix();
-					GL11.glEndList();
-					game.renderEngine.bindTexture(defaultTexture);
-					tessellator.setTranslation(0.0D, 0.0D, 0.0D);
-				} else {
-					rendered = false;
+				//Determine which pass this block needs to be rendered on
+				int blockRenderPass = block.getRenderBlockPass();
+				if (design != null) {
+					blockRenderPass = design.getRenderPass();
+				}
+				if (blockRenderPass != renderPass) {
+					continue;
 				}
 
-				if (rendered) {
-					this.skipRenderPass[renderPass] = false;
+				Tessellator.instance.setEntity(block.blockID); //shaders
+				if (design != null) {
+					int texture = getTextureKey(design);
+					//The vertices of the design are moved out below, so they must not be drawn half way through
+					tessellator.ensureRoom(design.getX().length * 4);
+					int mark = tessellator.getRawBufferIndex();
+					//Only safe while no mesher worker runs, see SectionMesher.uploadFinished
+					oldBounds[0] = (float) block.minX;
+					oldBounds[1] = (float) block.minY;
+					oldBounds[2] = (float) block.minZ;
+					oldBounds[3] = (float) block.maxX;
+					oldBounds[4] = (float) block.maxY;
+					oldBounds[5] = (float) block.maxZ;
+					block.setBlockBounds(design.getLowXBound(), design.getLowYBound(), design.getLowZBound(), design.getHighXBound(), design.getHighYBound(), design.getHighZBound());
+					rendered |= design.renderBlock(mat, dx, dy, dz);
+					block.setBlockBounds(oldBounds[0], oldBounds[1], oldBounds[2], oldBounds[3], oldBounds[4], oldBounds[5]);
+					if (texture > 0) {
+						VertexBucket bucket = buckets.get(texture);
+						if (bucket.isEmpty()) {
+							usedTextures.add(texture);
+						}
+						tessellator.moveVertices(mark, bucket);
+					}
 				}
+				else {
+					rendered |= blockRenderer.renderBlockByRenderType(block, dx, dy, dz);
+				}
+			}
 
-				if (!skipRenderPass) {
-					break;
+			tessellator.draw();
+			for (int i = 0; i < usedTextures.size(); i++) {
+				int key = usedTextures.get(i);
+				VertexBucket bucket = buckets.get(key);
+				int texture = defaultTexture;
+				Texture customTexture = CustomTextureManager.getTextureFromUrl(textureAddons.get(key), textureUrls.get(key));
+				if (customTexture != null && customTexture.getTextureID() > 0) {
+					texture = customTexture.getTextureID();
 				}
+				tessellator.textureOverride = texture;
+				tessellator.startDrawingQuads();
+				tessellator.addVertices(bucket);
+				tessellator.draw();
+				bucket.clear();
+			}
+			tessellator.textureOverride = 0;
+			GL11.glPopMatrix();
+			GL11.glEndList();
+			game.renderEngine.bindTexture(defaultTexture);
+			tessellator.setTranslation(0.0D, 0.0D, 0.0D);
+
+			if (rendered) {
+				this.skipRenderPass[renderPass] = false;
 			}
-			
-			HashSet var24 = new HashSet();
-			var24.addAll(this.tileEntityRenderers);
-			var24.removeAll(tileRenderers);
-			this.tileEntities.addAll(var24);
-			tileRenderers.removeAll(this.tileEntityRenderers);
-			Tessellator.instance.setEntity(-1); //shaders
-			//Spout End
-			this.tileEntities.removeAll(tileRenderers);
-			this.isChunkLit = Chunk.isLit;
-			this.isInitialized = true;
-			
-			blockRenderer.customIds = null;
 		}
+		Tessellator.instance.setEntity(-1); //shaders
+		this.isInitialized = true;
 	}
+	//Spout end
 
 	public float distanceToEntitySquared(Entity var1) {
 		float var2 = (float)(var1.posX - (double)this.posXPlus);
@@ -318,6 +299,7 @@ public class WorldRenderer {
 
 		this.isInFrustum = false;
 		this.isInitialized = false;
+		++this.buildGeneration; //Spout
 	}
 
 	public void stopRendering() {
@@ -325,6 +307,33 @@ public class WorldRenderer {
 		this.worldObj = null;
 	}
 	//Spout start
+	/**
+	 * Interns the texture of a design to a small int key, 0 being terrain.png. Keys are stable for the life of the client, so
+	 * the bucket for a texture is reused by every section that uses it.
+	 */
+	private static int getTextureKey(GenericBlockDesign design) {
+		int key = designTextures.get(design);
+		if (key != -1) {
+			return key;
+		}
+		String url = design.getTexureURL();
+		String addon = design.getTextureAddon();
+		if (url == null) {
+			key = 0;
+		} else {
+			String name = addon + "/" + url;
+			key = textureKeys.get(name);
+			if (key == -1) {
+				key = textureUrls.size();
+				textureKeys.put(name, key);
+				textureUrls.add(url);
+				textureAddons.add(addon);
+				buckets.add(new VertexBucket());
+			}
+		}
+		designTextures.put(design, key);
+		return key;
+	}
 
 	 public int getGLCallListForPass(int par1) {
 		return !this.isInFrustum?-1:(!this.skipRenderPass[par1]?this.glRenderList + par1:-1);
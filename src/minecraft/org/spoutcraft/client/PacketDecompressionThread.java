@@ -16,81 +16,189 @@
  */
 package org.spoutcraft.client;
 
-import java.util.Collections;
-import java.util.Iterator;
 import java.util.LinkedList;
-import java.util.List;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import org.spoutcraft.client.packet.CompressablePacket;
-import org.spoutcraft.client.packet.SpoutPacket;
 
+/**
+ * One of a small set of decompression workers.
+ *
+ * Packets are handed to the workers in turn and decompressed in parallel, but run on the main thread strictly
+ * in the order they arrived, like they were with a single worker: a packet whose predecessors are still being
+ * decompressed waits for them. Each worker has a bounded queue. While a queue is full the network reader thread
+ * stops reading, see waitForCapacity, and packets that were already read wait on the main thread until there
+ * is room again. Decompressed packets are run on the main thread within a time budget.
+ */
 public class PacketDecompressionThread extends Thread{
-	private static PacketDecompressionThread instance = null;
+	private static final int THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+	private static final int QUEUE_CAPACITY = 1024 * 10 / THREADS;
+	private static final long TICK_BUDGET_NANOS = 5000000L;
+
+	private static PacketDecompressionThread[] workers = null;
+	/**
+	 * Every packet that was added and has not run yet, in the order they arrived. Only used on the main thread
+	 */
+	private static final LinkedList<Pending> pending = new LinkedList<Pending>();
+	/**
+	 * Packets that did not fit in their worker's queue, in the order they arrived. Only used on the main thread
+	 */
+	private static final LinkedList<Pending> overflow = new LinkedList<Pending>();
+	private static long nextSequence = 0L;
+	private static final Object capacityLock = new Object();
+	private static volatile boolean waitingForCapacity = false;
 
-	private static final int QUEUE_CAPACITY = 1024 * 10;
-	private final LinkedBlockingDeque<CompressablePacket> queue = new LinkedBlockingDeque<CompressablePacket>(QUEUE_CAPACITY);
-	private final List<CompressablePacket> decompressed = Collections.synchronizedList(new LinkedList<CompressablePacket>());
+	private final LinkedBlockingQueue<Pending> queue = new LinkedBlockingQueue<Pending>(QUEUE_CAPACITY);
 
-	private PacketDecompressionThread() {
+	private static class Pending {
+		final CompressablePacket packet;
+		final long sequence;
+		/**
+		 * Set by the worker once it is done with the packet
+		 */
+		volatile boolean decompressed = false;
+		volatile boolean failed = false;
+
+		Pending(CompressablePacket packet, long sequence) {
+			this.packet = packet;
+			this.sequence = sequence;
+		}
+	}
 
+	private PacketDecompressionThread(int id) {
+		super("Packet decompression thread " + id);
+		setDaemon(true);
 	}
 
 	public static void startThread() {
-		instance = new PacketDecompressionThread();
-		instance.start();
+		endThread();
+		PacketDecompressionThread[] started = new PacketDecompressionThread[THREADS];
+		for (int i = 0; i < THREADS; i++) {
+			started[i] = new PacketDecompressionThread(i);
+			started[i].start();
+		}
+		workers = started;
 	}
 
 	public static void endThread() {
-		if (instance == null) {
+		if (workers == null) {
 			return;
 		}
-		instance.interrupt();
-		try {
-			instance.join();
-		} catch (InterruptedException ie) {
+		for (PacketDecompressionThread worker : workers) {
+			worker.interrupt();
 		}
-		instance = null;
+		for (PacketDecompressionThread worker : workers) {
+			try {
+				worker.join();
+			} catch (InterruptedException ie) {
+			}
+		}
+		workers = null;
+		pending.clear();
+		overflow.clear();
 	}
 
-	public static PacketDecompressionThread getInstance() {
-		return instance;
+	/**
+	 * Queues the packet for decompression, never blocks. Called on the main thread.
+	 */
+	public static void add(CompressablePacket packet) {
+		if (workers == null) {
+			return;
+		}
+		Pending entry = new Pending(packet, nextSequence++);
+		pending.add(entry);
+		if (!overflow.isEmpty() || !offer(entry)) {
+			overflow.add(entry);
+		}
 	}
 
-	public static void add(CompressablePacket packet) {
-		if (instance != null) {
-			instance.queue.add(packet);
+	private static boolean offer(Pending entry) {
+		PacketDecompressionThread[] current = workers;
+		if (current == null) {
+			return true;
 		}
+		// The order packets run in does not depend on the worker, so they simply take turns
+		return current[(int) (entry.sequence % current.length)].queue.offer(entry);
 	}
 
-	public void run() {
-		while (!isInterrupted()) {
-			try {
-				CompressablePacket packet = queue.take();
-				packet.decompress();
-				synchronized(decompressed) {
-					decompressed.add(packet);
+	private static boolean isFull() {
+		PacketDecompressionThread[] current = workers;
+		if (current != null) {
+			for (PacketDecompressionThread worker : current) {
+				if (worker.queue.remainingCapacity() == 0) {
+					return true;
 				}
-			} catch (InterruptedException e) {
-				break;
 			}
 		}
+		return false;
 	}
 
-	public static void onTick() {
-		synchronized(instance.decompressed) {
-			Iterator<CompressablePacket> i = instance.decompressed.iterator();
-			while (i.hasNext()) {
-				SpoutPacket packet = i.next();
+	/**
+	 * Waits while a worker's queue is full. Called by the network reader thread before it reads a packet, so a
+	 * server that sends faster than the packets can be decompressed is slowed down by TCP instead of the game.
+	 */
+	public static void waitForCapacity() {
+		synchronized (capacityLock) {
+			while (isFull()) {
+				waitingForCapacity = true;
 				try {
-					packet.run(SpoutClient.getHandle().thePlayer.entityId);
-					i.remove();
+					capacityLock.wait(10L);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				} finally {
+					waitingForCapacity = false;
+				}
+			}
+		}
+	}
+
+	public void run() {
+		while (!isInterrupted()) {
+			try {
+				Pending entry = queue.take();
+				if (waitingForCapacity) {
+					synchronized (capacityLock) {
+						capacityLock.notifyAll();
+					}
+				}
+				try {
+					entry.packet.decompress();
 				} catch (Exception e) {
+					entry.failed = true;
 					System.out.println("------------------------");
-					System.out.println("Unexpected Exception: " + packet.getPacketType());
+					System.out.println("Failed to decompress: " + entry.packet.getPacketType());
 					e.printStackTrace();
 					System.out.println("------------------------");
 				}
+				entry.decompressed = true;
+			} catch (InterruptedException e) {
+				break;
+			}
+		}
+	}
+
+	public static void onTick() {
+		while (!overflow.isEmpty() && offer(overflow.peek())) {
+			overflow.poll();
+		}
+		long end = System.nanoTime() + TICK_BUDGET_NANOS;
+		while (!pending.isEmpty() && pending.peek().decompressed) {
+			Pending entry = pending.poll();
+			if (entry.failed) {
+				continue;
+			}
+			CompressablePacket packet = entry.packet;
+			try {
+				packet.run(SpoutClient.getHandle().thePlayer.entityId);
+			} catch (Exception e) {
+				System.out.println("------------------------");
+				System.out.println("Unexpected Exception: " + packet.getPacketType());
+				e.printStackTrace();
+				System.out.println("------------------------");
+			}
+			if (System.nanoTime() >= end) {
+				break;
 			}
 		}
 	}
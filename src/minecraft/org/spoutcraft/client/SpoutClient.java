@@ -39,6 +39,7 @@ import org.bukkit.ChatColor;
 import org.newdawn.slick.util.Log;
 import org.spoutcraft.client.addon.SimpleAddonStore;
 import org.spoutcraft.client.block.SpoutcraftChunk;
+import org.spoutcraft.client.chunkcache.ChunkCache;
 import org.spoutcraft.client.config.ConfigReader;
 import org.spoutcraft.client.config.MipMapUtils;
 import org.spoutcraft.client.controls.SimpleKeyBindingManager;
@@ -55,11 +56,13 @@ import org.spoutcraft.client.inventory.SimpleMaterialManager;
 import org.spoutcraft.client.io.CRCManager;
 import org.spoutcraft.client.io.CustomTextureManager;
 import org.spoutcraft.client.io.FileDownloadThread;
+import org.spoutcraft.client.io.FileStore;
 import org.spoutcraft.client.io.FileUtil;
 import org.spoutcraft.client.packet.CustomPacket;
 import org.spoutcraft.client.packet.PacketAddonData;
 import org.spoutcraft.client.packet.PacketEntityInformation;
 import org.spoutcraft.client.packet.PacketManager;
+import org.spoutcraft.client.packet.PacketWidget;
 import org.spoutcraft.client.player.ChatManager;
 import org.spoutcraft.client.player.ClientPlayer;
 import org.spoutcraft.client.player.SimpleBiomeManager;
@@ -315,6 +318,7 @@ public class SpoutClient extends PropertyObject implements Client {
 			inWorldTicks++;
 		}
 		if (isSpoutEnabled()) {
+			ChunkCache.onTick();
 			LinkedList<org.spoutcraft.spoutcraftapi.entity.Entity> processed = new LinkedList<org.spoutcraft.spoutcraftapi.entity.Entity>();
 			Iterator<Entity> i = Entity.toProcess.iterator();
 			while (i.hasNext()) {
@@ -343,6 +347,8 @@ public class SpoutClient extends PropertyObject implements Client {
 		FileUtil.deleteTempDirectory();
 		CustomTextureManager.resetTextures();
 		CRCManager.clear();
+		FileStore.flush();
+		ChunkCache.flush();
 		SpoutcraftChunk.loadedChunks.clear();
 		if (clipboardThread != null) {
 			clipboardThread.interrupt();
@@ -356,6 +362,7 @@ public class SpoutClient extends PropertyObject implements Client {
 		inWorldTicks = 0L;
 		MaterialData.reset();
 		MinimapConfig.getInstance().getServerWaypoints().clear();
+		PacketWidget.reset();
 	}
 
 	public void onWorldEnter() {
@@ -0,0 +1,212 @@
+/*
+ * This file is part of Spoutcraft (http://www.spout.org/).
+ *
+ * Spoutcraft is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Spoutcraft is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.spoutcraft.client.block;
+
+/**
+ * Custom block ids and data for one chunk, stored per 16x16x16 section.
+ *
+ * A section is only allocated once it holds a custom block, and is dropped again when its last
+ * custom block is removed. Each section keeps a palette of the (id, data) pairs it contains and a
+ * bit packed index into that palette per block, so a section with a handful of custom block types
+ * costs a few hundred bytes instead of the 12 KB of the dense arrays.
+ */
+public class CustomBlockStorage {
+	private static final int SECTIONS = 16;
+
+	private final Section[] sections = new Section[SECTIONS];
+
+	public short getId(int x, int y, int z) {
+		Section section = sections[(y >> 4) & 0xF];
+		if (section == null) {
+			return 0;
+		}
+		return (short) (section.get(index(x, y, z)) >>> 8);
+	}
+
+	public byte getData(int x, int y, int z) {
+		Section section = sections[(y >> 4) & 0xF];
+		if (section == null) {
+			return 0;
+		}
+		return (byte) section.get(index(x, y, z));
+	}
+
+	public short setId(int x, int y, int z, short id) {
+		int old = set(x, y, z, id, (byte) 0, true, false);
+		return (short) (old >>> 8);
+	}
+
+	public byte setData(int x, int y, int z, byte data) {
+		int old = set(x, y, z, (short) 0, data, false, true);
+		return (byte) old;
+	}
+
+	public void set(int x, int y, int z, short id, byte data) {
+		set(x, y, z, id, data, true, true);
+	}
+
+	private int set(int x, int y, int z, short id, byte data, boolean setId, boolean setData) {
+		int sectionY = (y >> 4) & 0xF;
+		int index = index(x, y, z);
+		Section section = sections[sectionY];
+		int old = section == null ? 0 : section.get(index);
+		int value = ((setId ? id : old >>> 8) & 0xFFFF) << 8 | ((setData ? data : old) & 0xFF);
+		if (value == old) {
+			return old;
+		}
+		if (section == null) {
+			section = new Section();
+			sections[sectionY] = section;
+		}
+		section.set(index, value);
+		if (section.isEmpty()) {
+			sections[sectionY] = null;
+		}
+		return old;
+	}
+
+	/**
+	 * Checks if a 16x16x16 section holds any custom blocks
+	 * @param sectionY of the section, block y >> 4
+	 * @return true if it has none
+	 */
+	public boolean isSectionEmpty(int sectionY) {
+		return sections[sectionY & 0xF] == null;
+	}
+
+	public boolean isEmpty() {
+		for (Section section : sections) {
+			if (section != null) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public void clear() {
+		for (int i = 0; i < SECTIONS; i++) {
+			sections[i] = null;
+		}
+	}
+
+	private static int index(int x, int y, int z) {
+		return ((y & 0xF) << 8) | ((z & 0xF) << 4) | (x & 0xF);
+	}
+
+	private static class Section {
+		private static final int BLOCKS = 16 * 16 * 16;
+
+		private int[] palette = new int[2];
+		private int paletteSize = 1;
+		private int bits = 1;
+		private long[] indices = new long[BLOCKS / 64];
+		private int blocks = 0;
+
+		int get(int i) {
+			return palette[getIndex(i)];
+		}
+
+		void set(int i, int value) {
+			int old = get(i);
+			int p = find(value);
+			if (p < 0) {
+				p = add(value);
+			}
+			setIndex(i, p);
+			if (old == 0) {
+				blocks++;
+			}
+			if (value == 0) {
+				blocks--;
+			}
+		}
+
+		boolean isEmpty() {
+			return blocks == 0;
+		}
+
+		private int getIndex(int i) {
+			int bit = i * bits;
+			return (int) (indices[bit >> 6] >>> (bit & 63)) & ((1 << bits) - 1);
+		}
+
+		private void setIndex(int i, int p) {
+			int bit = i * bits;
+			long mask = ((1L << bits) - 1) << (bit & 63);
+			indices[bit >> 6] = (indices[bit >> 6] & ~mask) | ((long) p << (bit & 63));
+		}
+
+		private int find(int value) {
+			for (int p = 0; p < paletteSize; p++) {
+				if (palette[p] == value) {
+					return p;
+				}
+			}
+			return -1;
+		}
+
+		private int add(int value) {
+			if (paletteSize == palette.length) {
+				compact();
+			}
+			if (paletteSize == palette.length) {
+				resize(bits << 1);
+			}
+			palette[paletteSize] = value;
+			return paletteSize++;
+		}
+
+		// Drops palette entries no block refers to anymore, entry 0 (no custom block) is always kept
+		private void compact() {
+			boolean[] used = new boolean[paletteSize];
+			used[0] = true;
+			for (int i = 0; i < BLOCKS; i++) {
+				used[getIndex(i)] = true;
+			}
+			int[] remap = new int[paletteSize];
+			int size = 0;
+			for (int p = 0; p < paletteSize; p++) {
+				if (used[p]) {
+					palette[size] = palette[p];
+					remap[p] = size++;
+				}
+			}
+			if (size == paletteSize) {
+				return;
+			}
+			for (int i = 0; i < BLOCKS; i++) {
+				setIndex(i, remap[getIndex(i)]);
+			}
+			paletteSize = size;
+		}
+
+		private void resize(int newBits) {
+			long[] oldIndices = indices;
+			int oldBits = bits;
+			indices = new long[BLOCKS * newBits / 64];
+			bits = newBits;
+			int oldMask = (1 << oldBits) - 1;
+			for (int i = 0; i < BLOCKS; i++) {
+				int bit = i * oldBits;
+				setIndex(i, (int) (oldIndices[bit >> 6] >>> (bit & 63)) & oldMask);
+			}
+			int[] newPalette = new int[1 << newBits];
+			System.arraycopy(palette, 0, newPalette, 0, paletteSize);
+			palette = newPalette;
+		}
+	}
+}
@@ -0,0 +1,118 @@
+/*
+ * This file is part of Spoutcraft (http://www.spout.org/).
+ *
+ * Spoutcraft is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Spoutcraft is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.spoutcraft.client.block;
+
+import gnu.trove.list.array.TIntArrayList;
+
+import net.minecraft.src.WorldRenderer;
+
+/**
+ * The result of tessellating a section off the main thread: terrain.png vertices per render pass,
+ * plus the blocks that have to be rendered on the main thread against the same snapshot.
+ */
+public class SectionMesh {
+	private final WorldRenderer renderer;
+	private final int generation;
+	private SectionSnapshot snapshot;
+	private final VertexBucket[] vertices = new VertexBucket[3];
+	private final boolean[] rendered = new boolean[3];
+	private final TIntArrayList deferred = new TIntArrayList();
+	private int passes = 0;
+	private boolean designs = false;
+
+	public SectionMesh(WorldRenderer renderer, int generation, SectionSnapshot snapshot) {
+		this.renderer = renderer;
+		this.generation = generation;
+		this.snapshot = snapshot;
+	}
+
+	public WorldRenderer getRenderer() {
+		return renderer;
+	}
+
+	public int getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * The snapshot the mesh was built from, the deferred blocks are rendered against it too.
+	 */
+	public SectionSnapshot getSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * True if any deferred block is rendered by a custom block design.
+	 */
+	public boolean hasDesigns() {
+		return designs;
+	}
+
+	/**
+	 * Bit mask of the render passes the worker produced vertices for.
+	 */
+	public int getPasses() {
+		return passes;
+	}
+
+	public VertexBucket getVertices(int pass) {
+		return vertices[pass];
+	}
+
+	public boolean isRendered(int pass) {
+		return rendered[pass];
+	}
+
+	/**
+	 * Positions of blocks left for the main thread, packed as x << 8 | z << 4 | y relative to the section.
+	 */
+	public TIntArrayList getDeferred() {
+		return deferred;
+	}
+
+	VertexBucket getOrCreateVertices(int pass) {
+		passes |= 1 << pass;
+		if (vertices[pass] == null) {
+			vertices[pass] = SectionMesher.obtainBucket();
+		}
+		return vertices[pass];
+	}
+
+	void setRendered(int pass) {
+		rendered[pass] = true;
+	}
+
+	void defer(int dx, int dy, int dz) {
+		deferred.add(dx << 8 | dz << 4 | dy);
+		if (snapshot.getDesign(snapshot.getX() + dx, snapshot.getY() + dy, snapshot.getZ() + dz) != null) {
+			designs = true;
+		}
+	}
+
+	/**
+	 * Hands the vertex buckets back for reuse, the mesh must not be used afterwards.
+	 */
+	public void release() {
+		snapshot = null;
+		for (int pass = 0; pass < vertices.length; pass++) {
+			if (vertices[pass] != null) {
+				SectionMesher.recycleBucket(vertices[pass]);
+				vertices[pass] = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,202 @@
+/*
+ * This file is part of Spoutcraft (http://www.spout.org/).
+ *
+ * Spoutcraft is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Spoutcraft is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.spoutcraft.client.block;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import net.minecraft.src.Block;
+import net.minecraft.src.RenderBlocks;
+import net.minecraft.src.Tessellator;
+import net.minecraft.src.WorldRenderer;
+
+import com.pclewis.mcpatcher.mod.Colorizer;
+
+/**
+ * Tessellates render sections from a {@link SectionSnapshot} on a small pool of worker threads.
+ *
+ * Workers only handle full standard cubes, which make up nearly all of the terrain and only read
+ * the snapshot. Everything else (custom blocks, fluids, stairs, fences...) changes shared block
+ * bounds, so its position is handed back to the main thread, which renders it against the same
+ * snapshot while uploading the worker's vertices into the display list.
+ *
+ * Custom block designs are rendered with the bounds of the plain block they are based on changed,
+ * and a worker may be rendering that plain block at the same time, so meshes with designs are only
+ * uploaded while no worker is tessellating.
+ */
+public class SectionMesher {
+	private static final int THREADS = Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() - 1));
+	private static final long UPLOAD_BUDGET = 4000000L;
+
+	private static final ExecutorService pool = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+		private final AtomicInteger count = new AtomicInteger();
+
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "Chunk mesher thread " + count.incrementAndGet());
+			t.setDaemon(true);
+			t.setPriority(Thread.NORM_PRIORITY - 1);
+			return t;
+		}
+	});
+
+	private static final ThreadLocal<Tessellator> tessellators = new ThreadLocal<Tessellator>() {
+		@Override
+		protected Tessellator initialValue() {
+			return Tessellator.createCaptureTessellator(65536);
+		}
+	};
+
+	private static final ConcurrentLinkedQueue<SectionMesh> finished = new ConcurrentLinkedQueue<SectionMesh>();
+	private static final ConcurrentLinkedQueue<VertexBucket> freeBuckets = new ConcurrentLinkedQueue<VertexBucket>();
+
+	/**
+	 * Held for reading by each worker while it tessellates, and for writing by the main thread while it renders designs
+	 */
+	private static final ReentrantReadWriteLock meshing = new ReentrantReadWriteLock();
+	private static final Object pauseLock = new Object();
+	private static volatile boolean paused = false;
+
+	public static void build(WorldRenderer renderer, int generation, final SectionSnapshot snapshot) {
+		final SectionMesh mesh = new SectionMesh(renderer, generation, snapshot);
+		pool.execute(new Runnable() {
+			public void run() {
+				awaitResume();
+				meshing.readLock().lock();
+				try {
+					tessellate(snapshot, mesh);
+				} catch (Throwable t) {
+					// A half built mesh would show holes, the section keeps its old display lists instead
+					t.printStackTrace();
+					mesh.release();
+					return;
+				} finally {
+					meshing.readLock().unlock();
+				}
+				finished.add(mesh);
+			}
+		});
+	}
+
+	/**
+	 * Keeps a worker from starting on another section while the main thread waits to upload designs
+	 */
+	private static void awaitResume() {
+		synchronized (pauseLock) {
+			while (paused) {
+				try {
+					pauseLock.wait();
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Uploads finished meshes into their renderers, for at most a few milliseconds per call.
+	 * Must be called from the main thread.
+	 */
+	public static void uploadFinished() {
+		long start = System.nanoTime();
+		boolean locked = false;
+		try {
+			SectionMesh mesh;
+			while ((mesh = finished.peek()) != null) {
+				if (mesh.hasDesigns() && !locked) {
+					// Never wait for the workers here, hold them back instead and try again next frame
+					locked = meshing.writeLock().tryLock();
+					if (!locked) {
+						paused = true;
+						break;
+					}
+				}
+				finished.poll();
+				mesh.getRenderer().uploadMesh(mesh);
+				mesh.release();
+				if (System.nanoTime() - start > UPLOAD_BUDGET) {
+					break;
+				}
+			}
+		} finally {
+			if (locked) {
+				meshing.writeLock().unlock();
+				synchronized (pauseLock) {
+					paused = false;
+					pauseLock.notifyAll();
+				}
+			}
+		}
+	}
+
+	private static void tessellate(SectionSnapshot snapshot, SectionMesh mesh) {
+		Tessellator tessellator = tessellators.get();
+		RenderBlocks renderBlocks = new RenderBlocks(snapshot, tessellator);
+		int x = snapshot.getX();
+		int y = snapshot.getY();
+		int z = snapshot.getZ();
+		tessellator.startDrawingQuads();
+		tessellator.setTranslation((double)(-x), (double)(-y), (double)(-z));
+		// Block colours look up biomes through the snapshot too
+		Colorizer.setupThreadBlockAccess(snapshot);
+		try {
+			//The x,y,z order is important, don't change!
+			for (int dx = 0; dx < 16; dx++) {
+				for (int dz = 0; dz < 16; dz++) {
+					for (int dy = 0; dy < 16; dy++) {
+						int id = snapshot.getBlockId(x + dx, y + dy, z + dz);
+						if (id == 0) {
+							continue;
+						}
+						Block block = Block.blocksList[id];
+						if (block == null || block.getRenderType() != 0 || !block.renderAsNormalBlock() || snapshot.isCustomBlock(x + dx, y + dy, z + dz)) {
+							mesh.defer(dx, dy, dz);
+							continue;
+						}
+						int pass = block.getRenderBlockPass();
+						tessellator.setEntity(id); //shaders
+						if (renderBlocks.renderBlockByRenderType(block, x + dx, y + dy, z + dz)) {
+							mesh.setRendered(pass);
+						}
+						tessellator.moveVertices(0, mesh.getOrCreateVertices(pass));
+					}
+				}
+			}
+		} finally {
+			Colorizer.setupThreadBlockAccess(null);
+			if (tessellator.getRawBufferIndex() > 0) {
+				// A block failed half way, drop what it left behind
+				tessellator.moveVertices(0, new VertexBucket());
+			}
+			// The buffer is empty, so this only resets the tessellator and never touches GL
+			tessellator.draw();
+		}
+	}
+
+	static VertexBucket obtainBucket() {
+		VertexBucket bucket = freeBuckets.poll();
+		return bucket != null ? bucket : new VertexBucket();
+	}
+
+	static void recycleBucket(VertexBucket bucket) {
+		bucket.clear();
+		freeBuckets.add(bucket);
+	}
+}
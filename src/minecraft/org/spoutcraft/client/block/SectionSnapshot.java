@@ -0,0 +1,346 @@
+/*
+ * This file is part of Spoutcraft (http://www.spout.org/).
+ *
+ * Spoutcraft is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Spoutcraft is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.spoutcraft.client.block;
+
+import gnu.trove.map.hash.TIntObjectHashMap;
+
+import java.util.Collection;
+
+import net.minecraft.src.BiomeGenBase;
+import net.minecraft.src.Block;
+import net.minecraft.src.Chunk;
+import net.minecraft.src.EnumSkyBlock;
+import net.minecraft.src.IBlockAccess;
+import net.minecraft.src.Material;
+import net.minecraft.src.TileEntity;
+import net.minecraft.src.World;
+import net.minecraft.src.WorldChunkManager;
+
+import org.spoutcraft.client.config.ConfigReader;
+import org.spoutcraft.spoutcraftapi.block.design.GenericBlockDesign;
+import org.spoutcraft.spoutcraftapi.material.CustomBlock;
+import org.spoutcraft.spoutcraftapi.material.MaterialData;
+
+/**
+ * An immutable copy of one 16x16x16 render section and a two block border around it.
+ *
+ * The copy is taken on the main thread and answers the same queries the world would, so a
+ * section can be tessellated on another thread while the world keeps changing. Block ids,
+ * metadata and light are copied for the whole box, biomes for one more column around it to
+ * cover colour blending, and custom blocks, their designs and tile entities for the section itself.
+ */
+public class SectionSnapshot implements IBlockAccess {
+	private static final int MARGIN = 2;
+	private static final int SIZE = 16 + MARGIN * 2;
+	private static final int BIOME_MARGIN = MARGIN + 1;
+	private static final int BIOME_SIZE = 16 + BIOME_MARGIN * 2;
+
+	private final int x;
+	private final int y;
+	private final int z;
+	private final short[] ids = new short[SIZE * SIZE * SIZE];
+	private final byte[] metadata = new byte[SIZE * SIZE * SIZE];
+	private final byte[] skyLight = new byte[SIZE * SIZE * SIZE];
+	private final byte[] blockLight = new byte[SIZE * SIZE * SIZE];
+	private final byte[] lightValue = new byte[SIZE * SIZE * SIZE];
+	private final BiomeGenBase[] biomes = new BiomeGenBase[BIOME_SIZE * BIOME_SIZE];
+	private final TIntObjectHashMap<TileEntity> tileEntities = new TIntObjectHashMap<TileEntity>();
+	private final CustomBlock[] customBlocks;
+	private final GenericBlockDesign[] designs;
+	private final boolean hasNoSky;
+	private final float[] brightnessTable;
+	private final float brightnessSlider;
+	private final WorldChunkManager chunkManager;
+
+	public SectionSnapshot(World world, int x, int y, int z) {
+		this.x = x;
+		this.y = y;
+		this.z = z;
+		this.hasNoSky = world.worldProvider.hasNoSky;
+		this.brightnessTable = world.worldProvider.lightBrightnessTable;
+		this.brightnessSlider = ConfigReader.brightnessSlider;
+		this.chunkManager = world.getWorldChunkManager();
+		int skylightSubtracted = world.skylightSubtracted;
+
+		for (int dx = 0; dx < SIZE; dx++) {
+			for (int dz = 0; dz < SIZE; dz++) {
+				int bx = x - MARGIN + dx;
+				int bz = z - MARGIN + dz;
+				Chunk chunk = world.getChunkFromChunkCoords(bx >> 4, bz >> 4);
+				boolean exists = world.blockExists(bx, 0, bz);
+				int cx = bx & 15;
+				int cz = bz & 15;
+				int index = (dx * SIZE + dz) * SIZE;
+				for (int dy = 0; dy < SIZE; dy++, index++) {
+					int by = y - MARGIN + dy;
+					int clampedY = by < 0 ? 0 : (by > 255 ? 255 : by);
+					if (by >= 0 && by < 256) {
+						ids[index] = (short) chunk.getBlockID(cx, by, cz);
+						metadata[index] = (byte) chunk.getBlockMetadata(cx, by, cz);
+					}
+					if (exists) {
+						skyLight[index] = (byte) chunk.getSavedLightValue(EnumSkyBlock.Sky, cx, clampedY, cz);
+						blockLight[index] = (byte) chunk.getSavedLightValue(EnumSkyBlock.Block, cx, clampedY, cz);
+					} else {
+						skyLight[index] = (byte) EnumSkyBlock.Sky.defaultLightValue;
+						blockLight[index] = (byte) EnumSkyBlock.Block.defaultLightValue;
+					}
+					if (by >= 0) {
+						lightValue[index] = (byte) chunk.getBlockLightValue(cx, clampedY, cz, skylightSubtracted);
+					}
+				}
+			}
+		}
+
+		for (int dx = 0; dx < BIOME_SIZE; dx++) {
+			for (int dz = 0; dz < BIOME_SIZE; dz++) {
+				biomes[dx * BIOME_SIZE + dz] = world.getBiomeGenForCoords(x - BIOME_MARGIN + dx, z - BIOME_MARGIN + dz);
+			}
+		}
+
+		for (int dx = 0; dx < 16; dx++) {
+			for (int dz = 0; dz < 16; dz++) {
+				for (int dy = 0; dy < 16; dy++) {
+					Block block = Block.blocksList[getBlockId(x + dx, y + dy, z + dz)];
+					if (block != null && block.hasTileEntity()) {
+						TileEntity tileEntity = world.getBlockTileEntity(x + dx, y + dy, z + dz);
+						if (tileEntity != null) {
+							tileEntities.put(index(x + dx, y + dy, z + dz), tileEntity);
+						}
+					}
+				}
+			}
+		}
+
+		CustomBlockStorage storage = world.getChunkFromBlockCoords(x, z).spoutChunk.getCustomBlockStorage();
+		if (storage.isSectionEmpty(y >> 4)) {
+			customBlocks = null;
+			designs = null;
+		} else {
+			customBlocks = new CustomBlock[4096];
+			designs = new GenericBlockDesign[4096];
+			for (int dx = 0; dx < 16; dx++) {
+				for (int dz = 0; dz < 16; dz++) {
+					for (int dy = 0; dy < 16; dy++) {
+						short customId = storage.getId(x + dx, y + dy, z + dz);
+						CustomBlock block = customId != 0 ? MaterialData.getCustomBlock(customId) : null;
+						if (block != null) {
+							customBlocks[dx << 8 | dz << 4 | dy] = block;
+							designs[dx << 8 | dz << 4 | dy] = (GenericBlockDesign) block.getBlockDesign(storage.getData(x + dx, y + dy, z + dz) & 0xFF);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	public int getX() {
+		return x;
+	}
+
+	public int getY() {
+		return y;
+	}
+
+	public int getZ() {
+		return z;
+	}
+
+	/**
+	 * True if any block of the section was a custom block when the snapshot was taken.
+	 */
+	public boolean hasCustomBlocks() {
+		return customBlocks != null;
+	}
+
+	/**
+	 * True if the block, which must lie inside the section, was a custom block when the snapshot was taken.
+	 */
+	public boolean isCustomBlock(int x, int y, int z) {
+		return getCustomBlock(x, y, z) != null;
+	}
+
+	/**
+	 * Gets the custom block at a position inside the section, or null if it was a plain block.
+	 */
+	public CustomBlock getCustomBlock(int x, int y, int z) {
+		return customBlocks == null ? null : customBlocks[(x - this.x) << 8 | (z - this.z) << 4 | (y - this.y)];
+	}
+
+	/**
+	 * Gets the design the custom block at a position inside the section had for its data, or null if it has none.
+	 */
+	public GenericBlockDesign getDesign(int x, int y, int z) {
+		return designs == null ? null : designs[(x - this.x) << 8 | (z - this.z) << 4 | (y - this.y)];
+	}
+
+	public float[] getLightBrightnessTable() {
+		return brightnessTable;
+	}
+
+	/**
+	 * The brightness setting when the snapshot was taken, see RenderBlocks.adjustAmbientOcclusion
+	 */
+	public float getBrightnessSlider() {
+		return brightnessSlider;
+	}
+
+	public Collection<TileEntity> getTileEntities() {
+		return tileEntities.valueCollection();
+	}
+
+	private int index(int x, int y, int z) {
+		x -= this.x - MARGIN;
+		y -= this.y - MARGIN;
+		z -= this.z - MARGIN;
+		if (x < 0 || y < 0 || z < 0 || x >= SIZE || y >= SIZE || z >= SIZE) {
+			return -1;
+		}
+		return (x * SIZE + z) * SIZE + y;
+	}
+
+	public int getBlockId(int x, int y, int z) {
+		int index = index(x, y, z);
+		return index == -1 ? 0 : ids[index];
+	}
+
+	public TileEntity getBlockTileEntity(int x, int y, int z) {
+		int index = index(x, y, z);
+		return index == -1 ? null : tileEntities.get(index);
+	}
+
+	public int getLightBrightnessForSkyBlocks(int x, int y, int z, int min) {
+		int sky = getSkyBlockTypeBrightness(EnumSkyBlock.Sky, x, y, z);
+		int block = getSkyBlockTypeBrightness(EnumSkyBlock.Block, x, y, z);
+		if (block < min) {
+			block = min;
+		}
+		return sky << 20 | block << 4;
+	}
+
+	public float getBrightness(int x, int y, int z, int min) {
+		int light = getLightValue(x, y, z);
+		if (light < min) {
+			light = min;
+		}
+		return brightnessTable[light];
+	}
+
+	public float getLightBrightness(int x, int y, int z) {
+		return brightnessTable[getLightValue(x, y, z)];
+	}
+
+	private int getLightValue(int x, int y, int z) {
+		int id = getBlockId(x, y, z);
+		if (id == Block.stairSingle.blockID || id == Block.tilledField.blockID || id == Block.stairCompactCobblestone.blockID || id == Block.stairCompactPlanks.blockID) {
+			int light = getRawLightValue(x, y + 1, z);
+			light = Math.max(light, getRawLightValue(x + 1, y, z));
+			light = Math.max(light, getRawLightValue(x - 1, y, z));
+			light = Math.max(light, getRawLightValue(x, y, z + 1));
+			return Math.max(light, getRawLightValue(x, y, z - 1));
+		}
+		return getRawLightValue(x, y, z);
+	}
+
+	private int getRawLightValue(int x, int y, int z) {
+		int index = index(x, y, z);
+		return index == -1 ? 0 : lightValue[index];
+	}
+
+	private int getSkyBlockTypeBrightness(EnumSkyBlock type, int x, int y, int z) {
+		if (hasNoSky && type == EnumSkyBlock.Sky) {
+			return 0;
+		}
+		if (y < 0) {
+			y = 0;
+		}
+		if (y >= 256) {
+			return type.defaultLightValue;
+		}
+		if (Block.useNeighborBrightness[getBlockId(x, y, z)]) {
+			int light = getSavedLightValue(type, x, y + 1, z);
+			light = Math.max(light, getSavedLightValue(type, x + 1, y, z));
+			light = Math.max(light, getSavedLightValue(type, x - 1, y, z));
+			light = Math.max(light, getSavedLightValue(type, x, y, z + 1));
+			return Math.max(light, getSavedLightValue(type, x, y, z - 1));
+		}
+		return getSavedLightValue(type, x, y, z);
+	}
+
+	private int getSavedLightValue(EnumSkyBlock type, int x, int y, int z) {
+		int index = index(x, y, z);
+		if (index == -1) {
+			return type.defaultLightValue;
+		}
+		return type == EnumSkyBlock.Sky ? skyLight[index] : blockLight[index];
+	}
+
+	public int getBlockMetadata(int x, int y, int z) {
+		int index = index(x, y, z);
+		return index == -1 ? 0 : metadata[index];
+	}
+
+	public Material getBlockMaterial(int x, int y, int z) {
+		int id = getBlockId(x, y, z);
+		return id == 0 ? Material.air : Block.blocksList[id].blockMaterial;
+	}
+
+	public boolean isBlockOpaqueCube(int x, int y, int z) {
+		Block block = Block.blocksList[getBlockId(x, y, z)];
+		return block == null ? false : block.isOpaqueCube();
+	}
+
+	public boolean isBlockNormalCube(int x, int y, int z) {
+		return Block.isNormalCube(getBlockId(x, y, z));
+	}
+
+	public boolean isAirBlock(int x, int y, int z) {
+		return getBlockId(x, y, z) == 0;
+	}
+
+	public BiomeGenBase getBiomeGenForCoords(int x, int z) {
+		x = Math.max(0, Math.min(BIOME_SIZE - 1, x - this.x + BIOME_MARGIN));
+		z = Math.max(0, Math.min(BIOME_SIZE - 1, z - this.z + BIOME_MARGIN));
+		return biomes[x * BIOME_SIZE + z];
+	}
+
+	public int getHeight() {
+		return 256;
+	}
+
+	public boolean func_48452_a() {
+		return false;
+	}
+
+	public int getGrassColorCache(int x, int y, int z) {
+		return -1;
+	}
+
+	public void setGrassColorCache(int x, int y, int z, int color) {
+	}
+
+	public int getWaterColorCache(int x, int y, int z) {
+		return -1;
+	}
+
+	public void setWaterColorCache(int x, int y, int z, int color) {
+	}
+
+	public WorldChunkManager getWorldChunkManager() {
+		return chunkManager;
+	}
+}
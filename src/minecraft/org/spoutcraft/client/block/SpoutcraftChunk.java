@@ -44,8 +44,7 @@ public class SpoutcraftChunk implements Chunk{
 	private int z;
 	//public final TIntIntHashMap powerOverrides = new TIntIntHashMap();
 	public final TIntFloatHashMap hardnessOverrides = new TIntFloatHashMap();
-	private short[] customBlockData = null;
-	private byte[] customBlockRotations = null;
+	private final CustomBlockStorage customBlocks = new CustomBlockStorage();
 	public SpoutcraftChunk(net.minecraft.src.Chunk chunk) {
 		this.weakChunk = new WeakReference<net.minecraft.src.Chunk>(chunk);
 		world = chunk.worldObj;
@@ -137,32 +136,59 @@ public class SpoutcraftChunk implements Chunk{
 		return entities;
 	}
 
+	public CustomBlockStorage getCustomBlockStorage() {
+		return customBlocks;
+	}
+
 	public short getCustomBlockId(int x, int y, int z) {
-		if (customBlockData != null) {
-			int key = ((x & 0xF) << 12) | ((z & 0xF) << 8) | (y & 0xFF);
-			return customBlockData[key];
-		}
-		return 0;
+		return customBlocks.getId(x, y, z);
 	}
 
 	public short setCustomBlockId(int x, int y, int z, short id) {
-		if (customBlockData == null) {
-			customBlockData = new short[16*16*256];
-		}
 		if (id < 0) id = 0;
-		int key = ((x & 0xF) << 12) | ((z & 0xF) << 8) | (y & 0xFF);
-		short old = customBlockData[key];
-		customBlockData[key] = id;
+		short old = customBlocks.setId(x, y, z, id);
 		Minecraft.theMinecraft.theWorld.markBlockNeedsUpdate(x, y, z);
 		return old;
 	}
 
+	/**
+	 * Gets a dense copy of the custom block ids, indexed by (x << 12) | (z << 8) | y
+	 * @return the ids, or null if the chunk has no custom blocks
+	 */
 	public short[] getCustomBlockIds() {
-		return customBlockData;
+		if (customBlocks.isEmpty()) {
+			return null;
+		}
+		short[] ids = new short[16*16*256];
+		for (int key = 0; key < ids.length; key++) {
+			ids[key] = customBlocks.getId(key >> 12, key & 0xFF, (key >> 8) & 0xF);
+		}
+		return ids;
 	}
 
 	public void setCustomBlockIds(short[] ids) {
-		customBlockData = ids;
+		for (int key = 0; key < 16*16*256; key++) {
+			short id = ids == null ? 0 : ids[key];
+			customBlocks.setId(key >> 12, key & 0xFF, (key >> 8) & 0xF, id < 0 ? 0 : id);
+		}
+		Minecraft.theMinecraft.theWorld.markBlocksDirty(x * 16, 0, z * 16, x * 16 + 15, 255, z * 16 + 15);
+	}
+
+	/**
+	 * Replaces all custom blocks in this chunk
+	 * @param data 3 bytes (short id, byte data) per block, indexed by (x << 12) | (z << 8) | y
+	 */
+	public void setCustomBlocks(byte[] data) {
+		customBlocks.clear();
+		int blocks = Math.min(data.length / 3, 16*16*256);
+		for (int key = 0; key < blocks; key++) {
+			int i = key * 3;
+			short id = (short) (((data[i] & 0xFF) << 8) | (data[i + 1] & 0xFF));
+			byte rot = data[i + 2];
+			if (id != 0 || rot != 0) {
+				customBlocks.set(key >> 12, key & 0xFF, (key >> 8) & 0xF, id < 0 ? 0 : id, rot);
+			}
+		}
 		Minecraft.theMinecraft.theWorld.markBlocksDirty(x * 16, 0, z * 16, x * 16 + 15, 255, z * 16 + 15);
 	}
 
@@ -175,31 +201,34 @@ public class SpoutcraftChunk implements Chunk{
 	}
 
 	public byte getCustomBlockData(int x, int y, int z) {
-		if (customBlockRotations != null) {
-			int key = ((x & 0xF) << 12) | ((z & 0xF) << 8) | (y & 0xFF);
-			return customBlockRotations[key];
-		}
-		return 0;
+		return customBlocks.getData(x, y, z);
 	}
 
 	public byte setCustomBlockData(int x, int y, int z, byte rot) {
-		if (customBlockRotations == null) {
-			customBlockRotations = new byte[16*16*256];
-		}
-		if (rot < 0) rot = 0;
-		int key = ((x & 0xF) << 12) | ((z & 0xF) << 8) | (y & 0xFF);
-		byte old = customBlockRotations[key];
-		customBlockRotations[key] = rot;
+		byte old = customBlocks.setData(x, y, z, rot);
 		Minecraft.theMinecraft.theWorld.markBlockNeedsUpdate(x, y, z);
 		return old;
 	}
-	
+
+	/**
+	 * Gets a dense copy of the custom block data, indexed by (x << 12) | (z << 8) | y
+	 * @return the data, or null if the chunk has no custom blocks
+	 */
 	public byte[] getCustomBlockData() {
-		return customBlockRotations;
+		if (customBlocks.isEmpty()) {
+			return null;
+		}
+		byte[] data = new byte[16*16*256];
+		for (int key = 0; key < data.length; key++) {
+			data[key] = customBlocks.getData(key >> 12, key & 0xFF, (key >> 8) & 0xF);
+		}
+		return data;
 	}
-	
+
 	public void setCustomBlockData(byte[] data) {
-		customBlockRotations = data;
+		for (int key = 0; key < 16*16*256; key++) {
+			customBlocks.setData(key >> 12, key & 0xFF, (key >> 8) & 0xF, data == null ? 0 : data[key]);
+		}
 		Minecraft.theMinecraft.theWorld.markBlocksDirty(x * 16, 0, z * 16, x * 16 + 15, 255, z * 16 + 15);
 	}
 
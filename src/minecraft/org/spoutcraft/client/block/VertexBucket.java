@@ -0,0 +1,83 @@
+/*
+ * This file is part of Spoutcraft (http://www.spout.org/).
+ *
+ * Spoutcraft is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Spoutcraft is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.spoutcraft.client.block;
+
+/**
+ * A growable copy of tessellator vertices that all share one texture.
+ *
+ * Vertices are kept in the tessellator's raw layout (8 ints per vertex) together with the two
+ * shader attribute shorts written for each vertex, so they can be replayed into a later draw
+ * unchanged.
+ */
+public class VertexBucket {
+	public static final int INTS_PER_VERTEX = 8;
+	public static final int TEXTURE = 1;
+	public static final int BRIGHTNESS = 2;
+	public static final int COLOR = 4;
+	public static final int NORMALS = 8;
+
+	private int[] data = new int[INTS_PER_VERTEX * 64];
+	private short[] shaderData = new short[2 * 64];
+	private int vertices = 0;
+	private int flags = 0;
+
+	public int getVertexCount() {
+		return vertices;
+	}
+
+	public int[] getData() {
+		return data;
+	}
+
+	public short[] getShaderData() {
+		return shaderData;
+	}
+
+	public int getFlags() {
+		return flags;
+	}
+
+	public boolean isEmpty() {
+		return vertices == 0;
+	}
+
+	public void clear() {
+		vertices = 0;
+		flags = 0;
+	}
+
+	/**
+	 * Reserves room for the given number of additional vertices and returns the vertex index
+	 * they start at. The caller is expected to fill data and shader data for them.
+	 */
+	public int append(int count, int flags) {
+		int start = vertices;
+		int needed = start + count;
+		if (needed * INTS_PER_VERTEX > data.length) {
+			int capacity = Math.max(needed, (data.length / INTS_PER_VERTEX) << 1);
+			int[] newData = new int[capacity * INTS_PER_VERTEX];
+			System.arraycopy(data, 0, newData, 0, start * INTS_PER_VERTEX);
+			data = newData;
+			short[] newShaderData = new short[capacity * 2];
+			System.arraycopy(shaderData, 0, newShaderData, 0, start * 2);
+			shaderData = newShaderData;
+		}
+		vertices = needed;
+		this.flags |= flags;
+		return start;
+	}
+}
@@ -16,11 +16,11 @@
  */
 package org.spoutcraft.client.chunkcache;
 
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.hash.TLongByteHashMap;
+
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.zip.DataFormatException;
@@ -35,15 +35,22 @@ import org.spoutcraft.client.util.ChunkHash;
 import org.spoutcraft.client.util.PersistentMap;
 
 public class ChunkCache {
-	private final static int FULL_CHUNK = (128 * 16 * 16 * 5) / 2;
-
 	private static final PersistentMap p;
 
-	private static final byte[] partition = new byte[2048];
+	private static final int MAX_KNOWN_HASHES = 64 * 1024;
+	private static final int MAX_HASHES_PER_UPDATE = 4096;
+	private static final int HINT_WINDOW = 1024;
+	private static final byte SEEN = 0;
+	private static final byte HINTED = 1;
+
+	// Hashes the server has been told about, the oldest are evicted (and the server told to forget them) once full
+	private static final TLongByteHashMap known = new TLongByteHashMap(MAX_KNOWN_HASHES, 0.5F, 0, (byte) -1);
+	private static final long[] knownOrder = new long[MAX_KNOWN_HASHES];
+	private static int knownNext = 0;
 
-	private static final HashSet<Long> hashes = new HashSet<Long>();
-	private static final ArrayList<Long> hashQueue = new ArrayList<Long>(1025);
-	private static final LinkedList<Long> overwriteQueue = new LinkedList<Long>();
+	// Hash updates are coalesced and sent once per tick
+	private static final TLongArrayList pendingHints = new TLongArrayList();
+	private static final TLongArrayList pendingRemovals = new TLongArrayList();
 
 	static {
 		File dir = new File(Minecraft.getMinecraftDir(), "chunkcache");
@@ -57,8 +64,13 @@ public class ChunkCache {
 		}
 	}
 
-	private static byte[] hashData = new byte[2048];
-	private static byte[] blank = new byte[2048];
+	// Chunks are handled concurrently by the ChunkDecoder workers, each worker reuses its own buffers
+	private static final ThreadLocal<Buffers> buffers = new ThreadLocal<Buffers>() {
+		@Override
+		protected Buffers initialValue() {
+			return new Buffers();
+		}
+	};
 
 	public static AtomicInteger averageChunkSize = new AtomicInteger();
 	private static AtomicInteger chunks = new AtomicInteger();
@@ -69,19 +81,22 @@ public class ChunkCache {
 	public static AtomicLong loggingStart = new AtomicLong();
 	public static AtomicInteger totalPacketUp = new AtomicInteger();
 	public static AtomicInteger totalPacketDown = new AtomicInteger();
+	public static AtomicInteger hintsSent = new AtomicInteger();
+	public static AtomicInteger hintHits = new AtomicInteger();
 
-	public static byte[] handle(byte[] chunkData, Inflater inflater, int chunkSize, int cx, int cz) throws IOException {
-		if (chunkData.length % FULL_CHUNK != 0) {
+	public static byte[] handle(byte[] chunkData, Inflater inflater, int chunkSize, int cx, int cz, int primaryBitMask, int addBitMask) throws IOException {
+		int segments = PartitionChunk.getSegments(primaryBitMask, addBitMask);
+		if (segments == 0 || chunkData.length < segments * PartitionChunk.PARTITION_SIZE) {
 			return chunkData;
 		}
 
-		int segments = chunkData.length >> 11;
-		int height = chunkData.length / 640;
-		int heightBits = 31 - Integer.numberOfLeadingZeros(height);
-		int cachedSize = segments * (2048 + 8) + 8;
-		if (hashData.length < cachedSize) {
-			hashData = new byte[cachedSize];
+		Buffers buf = buffers.get();
+		int hashSize = segments * 8 + 8;
+		if (buf.hashData.length < hashSize) {
+			buf.hashData = new byte[hashSize];
 		}
+		byte[] hashData = buf.hashData;
+		byte[] partition = buf.partition;
 
 		int d = totalData.addAndGet(chunkSize);
 		int c = chunks.incrementAndGet();
@@ -90,13 +105,11 @@ public class ChunkCache {
 			averageChunkSize.set(d/c);
 		}
 
+		// The server appends one hash per partition and a CRC of the whole chunk after the vanilla data
 		long CRC = 0;
-		boolean CRCProvided;
 		try {
-			int hashSize = inflater.inflate(hashData, chunkData.length, segments*8 + 8);
-			if (hashSize == segments * 8 + 8) {
-				CRC = PartitionChunk.getHash(hashData, segments, heightBits);
-				CRCProvided = true;
+			if (inflater.inflate(hashData, 0, hashSize) == hashSize) {
+				CRC = PartitionChunk.getHash(hashData, segments);
 			} else {
 				return chunkData;
 			}
@@ -104,45 +117,53 @@ public class ChunkCache {
 			return chunkData;
 		}
 
-		int cacheHit = 0;
-
+		// Hash the partitions the server sent in full before taking the lock
 		for (int i = 0; i < segments; i++) {
-			long hash = PartitionChunk.getHash(hashData, i, heightBits);
-			byte[] partitionData = p.get(hash, partition);
-
-			if (hash == 0) {
-				PartitionChunk.copyFromChunkData(chunkData, i, partition, heightBits);
-				hash = ChunkHash.hash(partition);
-				p.put(hash, partition);
-				processOverwriteQueue();
-			} else if (partitionData == null) {
-				long[] brokenHash = new long[1];
-				brokenHash[0] = hash;
-				SpoutClient.getInstance().getPacketManager().sendSpoutPacket(new PacketCacheHashUpdate(false, brokenHash));
-				PartitionChunk.copyToChunkData(chunkData, i, blank, heightBits);
+			if (PartitionChunk.getHash(hashData, i) == 0) {
+				PartitionChunk.setHash(hashData, i, ChunkHash.hash(chunkData, i * PartitionChunk.PARTITION_SIZE, PartitionChunk.PARTITION_SIZE));
+				buf.sent[i] = true;
 			} else {
-				cacheHit++;
-				PartitionChunk.copyToChunkData(chunkData, i, partitionData, heightBits);
+				buf.sent[i] = false;
 			}
+		}
+
+		int cacheHit = 0;
 
-			// Send hints to server about possible nearby hashes
-			if (hashes.add(hash)) {
-				Integer index = p.getIndex(hash);
-				if (index != null) {
-					for (int j = index - 1024; j < index + 1024; j++) {
-						Long nearbyHash = p.getHash(j);
-						if (nearbyHash != null && !hashes.contains(nearbyHash) && nearbyHash != 0) {
-							hashQueue.add(nearbyHash);
-							hashes.add(nearbyHash);
+		synchronized (p) {
+			for (int i = 0; i < segments; i++) {
+				long hash = PartitionChunk.getHash(hashData, i);
+
+				if (buf.sent[i]) {
+					PartitionChunk.copyFromChunkData(chunkData, i, partition);
+					p.put(hash, partition);
+					processOverwriteQueue();
+				} else {
+					byte[] partitionData = p.get(hash, partition);
+					if (partitionData == null) {
+						pendingRemovals.add(hash);
+						PartitionChunk.copyToChunkData(chunkData, i, null);
+					} else {
+						cacheHit++;
+						PartitionChunk.copyToChunkData(chunkData, i, partitionData);
+						if (known.get(hash) == HINTED) {
+							known.put(hash, SEEN);
+							hintHits.incrementAndGet();
 						}
 					}
 				}
-				long[] nearbyHashes = new long[hashQueue.size()];
-				for (int j = 0; j < nearbyHashes.length; j++) {
-					nearbyHashes[j] = hashQueue.get(j);
+
+				// Queue hints to server about possible nearby hashes
+				if (addKnown(hash, SEEN)) {
+					int index = p.getIndex(hash);
+					if (index >= 0) {
+						for (int j = index - HINT_WINDOW; j < index + HINT_WINDOW; j++) {
+							long nearbyHash = p.getHash(j);
+							if (nearbyHash != 0 && addKnown(nearbyHash, HINTED)) {
+								pendingHints.add(nearbyHash);
+							}
+						}
+					}
 				}
-				hashQueue.clear();
-				SpoutClient.getInstance().getPacketManager().sendSpoutPacket(new PacketCacheHashUpdate(true, nearbyHashes));
 			}
 		}
 
@@ -152,45 +173,109 @@ public class ChunkCache {
 			hitPercentage.set((100 * h) / a);
 		}
 
-		byte[] cachedChunkData = new byte[segments * 2048];
-		System.arraycopy(chunkData, 0, cachedChunkData, 0, segments * 2048);
-
-		long CRCNew = ChunkHash.hash(cachedChunkData);
+		long CRCNew = ChunkHash.hash(chunkData, 0, segments * PartitionChunk.PARTITION_SIZE);
 
-		if (CRCProvided && CRCNew != CRC) {
+		if (CRCNew != CRC) {
 			System.out.println("CRC error, received: " + CRC + " CRC of data: " + CRCNew);
 			System.out.println("Requesting chunk resend: " + cx + " " + cz);
 			SpoutClient.getInstance().getPacketManager().sendSpoutPacket(new PacketChunkRefresh(cx, cz));
 		}
 
-		return cachedChunkData;
+		return chunkData;
+	}
+
+	private static boolean addKnown(long hash, byte state) {
+		if (known.containsKey(hash)) {
+			return false;
+		}
+		if (known.size() >= MAX_KNOWN_HASHES) {
+			long oldest = knownOrder[knownNext];
+			known.remove(oldest);
+			pendingRemovals.add(oldest);
+		}
+		known.put(hash, state);
+		knownOrder[knownNext] = hash;
+		knownNext = (knownNext + 1) % MAX_KNOWN_HASHES;
+		return true;
 	}
 
 	private static void processOverwriteQueue() {
 		Long hash;
 		while ((hash = p.getOverwritten()) != null) {
-			if (hashes.contains(hash)) {
-				overwriteQueue.add(hash);
+			if (known.containsKey(hash)) {
+				pendingRemovals.add(hash);
 			} else {
 				p.removeOverwriteBackup(hash);
 			}
 		}
-		if (overwriteQueue.size() > 128) {
-			long[] overwrittenHashes = new long[overwriteQueue.size()];
-			for (int j = 0; j < overwrittenHashes.length; j++) {
-				overwrittenHashes[j] = overwriteQueue.removeFirst();
+	}
+
+	/**
+	 * Sends the hash updates queued since the last tick, at most one packet for hints and one for removals
+	 */
+	public static void onTick() {
+		long[] hints = null;
+		long[] removals = null;
+		synchronized (p) {
+			if (!pendingHints.isEmpty()) {
+				hints = drain(pendingHints);
+			}
+			if (!pendingRemovals.isEmpty()) {
+				removals = drain(pendingRemovals);
 			}
-			SpoutClient.getInstance().getPacketManager().sendSpoutPacket(new PacketCacheHashUpdate(false, overwrittenHashes));
+		}
+		if (hints != null) {
+			hintsSent.addAndGet(hints.length);
+			SpoutClient.getInstance().getPacketManager().sendSpoutPacket(new PacketCacheHashUpdate(true, hints));
+		}
+		if (removals != null) {
+			SpoutClient.getInstance().getPacketManager().sendSpoutPacket(new PacketCacheHashUpdate(false, removals));
 		}
 	}
 
+	private static long[] drain(TLongArrayList list) {
+		int length = Math.min(list.size(), MAX_HASHES_PER_UPDATE);
+		long[] drained = list.toArray(0, length);
+		list.remove(0, length);
+		return drained;
+	}
+
 	public static byte[] removeOverwriteBackup(long hash) {
-		return p.removeOverwriteBackup(hash);
+		synchronized (p) {
+			return p.removeOverwriteBackup(hash);
+		}
+	}
+
+	/**
+	 * Writes the cached partitions and the index to disk
+	 */
+	public static void flush() {
+		synchronized (p) {
+			p.flush();
+		}
+	}
+
+	/**
+	 * Flushes and closes the cache files, the cache can not be used afterwards
+	 */
+	public static void close() {
+		synchronized (p) {
+			try {
+				p.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
 	}
 
 	public static void reset() {
-		hashes.clear();
-		p.reset();
+		synchronized (p) {
+			known.clear();
+			knownNext = 0;
+			pendingHints.clear();
+			pendingRemovals.clear();
+			p.reset();
+		}
 		loggingStart.set(System.currentTimeMillis());
 		totalPacketUp.set(0);
 		totalPacketDown.set(0);
@@ -198,5 +283,13 @@ public class ChunkCache {
 		chunks.set(0);
 		hits.set(0);
 		cacheAttempts.set(0);
+		hintsSent.set(0);
+		hintHits.set(0);
+	}
+
+	private static class Buffers {
+		byte[] hashData = new byte[16 * 6 * 8 + 8];
+		final byte[] partition = new byte[PartitionChunk.PARTITION_SIZE];
+		final boolean[] sent = new boolean[16 * 6];
 	}
 }
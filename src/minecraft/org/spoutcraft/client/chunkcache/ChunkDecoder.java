@@ -0,0 +1,63 @@
+/*
+ * This file is part of Spoutcraft (http://www.spout.org/).
+ *
+ * Spoutcraft is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Spoutcraft is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.spoutcraft.client.chunkcache;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Inflater;
+
+import net.minecraft.src.Packet51MapChunk;
+
+/**
+ * Inflates map chunk packets and runs them through the chunk cache on a small pool of
+ * worker threads, so the network reader only has to read the compressed bytes.
+ *
+ * The packets stay in the network manager's read queue in arrival order, the main thread
+ * waits for the head of the queue to be decoded before processing anything after it.
+ */
+public class ChunkDecoder {
+	private static final int THREADS = Math.max(1, Math.min(3, Runtime.getRuntime().availableProcessors() - 1));
+
+	private static final ExecutorService pool = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+		private final AtomicInteger count = new AtomicInteger();
+
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "Chunk decoder thread " + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	private static final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>() {
+		@Override
+		protected Inflater initialValue() {
+			return new Inflater();
+		}
+	};
+
+	public static void decode(final Packet51MapChunk packet) {
+		pool.execute(new Runnable() {
+			public void run() {
+				Inflater inflater = inflaters.get();
+				inflater.reset();
+				packet.decode(inflater);
+			}
+		});
+	}
+}
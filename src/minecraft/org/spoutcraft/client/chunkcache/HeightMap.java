@@ -16,37 +16,56 @@
  */
 package org.spoutcraft.client.chunkcache;
 
+import java.io.BufferedInputStream;
 import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
-import org.spoutcraft.spoutcraftapi.util.map.TIntPairObjectHashMap;
 import org.spoutcraft.client.chunkcache.HeightMap.HeightChunk;
 import org.spoutcraft.client.io.FileUtil;
 
 public class HeightMap {
 	private String worldName;
 	private final static int INITIAL_CAPACITY = 500;
-	private final TIntPairObjectHashMap<HeightChunk> cache = new TIntPairObjectHashMap<HeightChunk>(INITIAL_CAPACITY);
+	/**
+	 * Published chunks are never changed, writers publish a changed copy instead. This way readers
+	 * neither lock nor wait for the writer.
+	 */
+	private final ConcurrentHashMap<Long, HeightChunk> cache = new ConcurrentHashMap<Long, HeightChunk>(INITIAL_CAPACITY, 0.75f, 4);
+	private final ConcurrentHashMap<Long, Region> regions = new ConcurrentHashMap<Long, Region>();
 	private static final HashMap<String, HeightMap> heightMaps = new HashMap<String, HeightMap>();
 	private static HeightMap lastMap = null; //Faster access to last height-map (which will be the case in most cases)
-	private int minX = 0, maxX = 0, minZ = 0, maxZ = 0;
-	private boolean initBounds = false;
+	private volatile int minX = 0, maxX = 0, minZ = 0, maxZ = 0;
+	private volatile boolean initBounds = false; //written with the lock of cache
 	private File file = null;
-	private HeightChunk lastChunk = null; //Faster access to last accessed chunk
+	private File folder = null;
+	private boolean migrateLegacy = false;
+	private final ThreadLocal<HeightChunk> lastChunk = new ThreadLocal<HeightChunk>(); //Faster access to the chunk each thread accessed last
 	private static HeightMapSaveThread saveThread;
-	private boolean dirty = true;
+	private volatile boolean dirty = true;
 
 	public class HeightChunk {
 		public short heightmap[] = new short[16 * 16];
 		public final int x, z;
 		public byte[] idmap = new byte[16 * 16];
+		/**
+		 * Changed since it was last written to its region file
+		 */
+		volatile boolean dirty = false;
+		/**
+		 * A newer copy of the chunk has been published
+		 */
+		volatile boolean replaced = false;
 
 		{
 			for(int i = 0; i < 256; i++) {
@@ -70,17 +89,159 @@ public class HeightMap {
 		
 		public void setHeight(int x, int z, short h) {
 			heightmap[z << 4 | x] = h;
+			dirty = true;
 		}
 		
 		public void setBlockId(int x, int z, byte id) {
 			idmap[z << 4 | x] = id;
+			dirty = true;
+		}
+
+		/**
+		 * @return an unpublished copy, which may be changed and then published with HeightMap.putChunk
+		 */
+		public HeightChunk copy() {
+			HeightChunk copy = new HeightChunk(x, z);
+			System.arraycopy(heightmap, 0, copy.heightmap, 0, heightmap.length);
+			System.arraycopy(idmap, 0, copy.idmap, 0, idmap.length);
+			return copy;
+		}
+	}
+
+	/*
+	 * The height map is stored in region files of 32x32 chunks, named r.<x>.<z>.hmr, in a folder named after the world.
+	 * Format of a region file is this:
+	 * magic:int
+	 * offsets:int[1024], file position of the record of each chunk, where offsets[0] is the chunk at the region's
+	 *   minX, minZ and offsets[1023] at maxX, maxZ, or 0 if the chunk is not stored
+	 * records, each heights:short[256] followed by ids:byte[256], where [0] is at x = 0, z = 0 of the chunk
+	 * Records are appended when a chunk is first written and overwritten in place afterwards.
+	 */
+	private static final int REGION_MAGIC = 0x484d5201;
+	private static final int REGION_SHIFT = 5;
+	private static final int REGION_CHUNKS = 1 << REGION_SHIFT * 2;
+	private static final int HEADER_SIZE = 4 + REGION_CHUNKS * 4;
+	private static final int RECORD_SIZE = 256 * 3;
+
+	private class Region {
+		final int x, z;
+		final File file;
+		int[] offsets = null;
+		volatile boolean loaded = false;
+
+		Region(int x, int z) {
+			this.x = x;
+			this.z = z;
+			this.file = new File(folder, "r." + x + "." + z + ".hmr");
+		}
+
+		/**
+		 * Reads the header, must hold the region's lock
+		 */
+		void readHeader(RandomAccessFile in) throws IOException {
+			offsets = new int[REGION_CHUNKS];
+			if (in.length() < HEADER_SIZE) {
+				return;
+			}
+			byte[] header = new byte[HEADER_SIZE];
+			in.seek(0);
+			in.readFully(header);
+			readHeader(ByteBuffer.wrap(header));
+		}
+
+		private void readHeader(ByteBuffer buf) throws IOException {
+			if (buf.getInt() != REGION_MAGIC) {
+				throw new IOException("Not a height map region: " + file);
+			}
+			buf.asIntBuffer().get(offsets);
+		}
+
+		/**
+		 * Reads every chunk of the region, must hold the region's lock
+		 */
+		List<HeightChunk> read() throws IOException {
+			List<HeightChunk> chunks = new ArrayList<HeightChunk>();
+			if (!file.exists()) {
+				return chunks;
+			}
+			RandomAccessFile in = new RandomAccessFile(file, "r");
+			try {
+				byte[] data = new byte[(int) in.length()];
+				in.readFully(data);
+				ByteBuffer buf = ByteBuffer.wrap(data);
+				offsets = new int[REGION_CHUNKS];
+				if (data.length < HEADER_SIZE) {
+					return chunks;
+				}
+				readHeader(buf);
+				for (int i = 0; i < REGION_CHUNKS; i++) {
+					if (offsets[i] == 0 || offsets[i] + RECORD_SIZE > data.length) {
+						continue;
+					}
+					HeightChunk chunk = new HeightChunk(x << REGION_SHIFT | i & 31, z << REGION_SHIFT | i >> REGION_SHIFT);
+					buf.position(offsets[i]);
+					buf.asShortBuffer().get(chunk.heightmap);
+					buf.position(offsets[i] + 512);
+					buf.get(chunk.idmap);
+					chunks.add(chunk);
+				}
+			} finally {
+				in.close();
+			}
+			return chunks;
+		}
+
+		/**
+		 * Writes the given chunk records, must hold the region's lock
+		 */
+		void write(List<HeightChunk> chunks) throws IOException {
+			RandomAccessFile out = new RandomAccessFile(file, "rw");
+			try {
+				if (offsets == null) {
+					readHeader(out);
+				}
+				long end = Math.max(out.length(), HEADER_SIZE);
+				ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+				for (int i = 0; i < chunks.size(); i++) {
+					HeightChunk chunk = chunks.get(i);
+					int index = (chunk.z & 31) << REGION_SHIFT | chunk.x & 31;
+					if (offsets[index] == 0) {
+						offsets[index] = (int) end;
+						end += RECORD_SIZE;
+					}
+					record.clear();
+					record.asShortBuffer().put(chunk.heightmap);
+					record.position(512);
+					record.put(chunk.idmap);
+					out.seek(offsets[index]);
+					out.write(record.array());
+				}
+				//Records first, so the header never points at data that is not there
+				ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+				header.putInt(REGION_MAGIC);
+				header.asIntBuffer().put(offsets);
+				out.seek(0);
+				out.write(header.array());
+			} finally {
+				out.close();
+			}
 		}
 	}
 
 	public void clear() {
-		cache.clear();
-		initBounds = false;
-		dirty = false;
+		synchronized (cache) {
+			for (HeightChunk chunk : cache.values()) {
+				chunk.replaced = true;
+			}
+			cache.clear();
+			regions.clear();
+			initBounds = false;
+			dirty = false;
+		}
+	}
+
+	private static Long getKey(int x, int z) {
+		return (long) x << 32 | z & 0xFFFFFFFFL;
 	}
 
 	public static HeightMap getHeightMap(String worldName) {
@@ -89,20 +250,18 @@ public class HeightMap {
 
 	public static HeightMap getHeightMap(String worldName, File file) {
 		if(lastMap != null && lastMap.getWorldName().equals(worldName)) {
-			lastMap.file = file;
+			lastMap.setFile(file);
 			return lastMap;
 		}
 		HeightMap ret = null;
 		if(heightMaps.containsKey(worldName)) {
 			ret = heightMaps.get(worldName);
-			ret.file = file;
+			ret.setFile(file);
 		} else {
 			HeightMap map = new HeightMap(worldName);
-			map.file = file;
+			map.setFile(file);
 			heightMaps.put(worldName, map);
-			if(file.exists()) {
-				map.load();
-			}
+			map.load();
 			ret = map;
 		}
 		lastMap = ret;
@@ -113,84 +272,140 @@ public class HeightMap {
 		this.worldName = worldName;
 	}
 
+	private void setFile(File file) {
+		this.file = file;
+		String name = file.getName();
+		if (name.endsWith(".hma")) {
+			name = name.substring(0, name.length() - 4);
+		}
+		this.folder = new File(file.getAbsoluteFile().getParentFile(), name);
+	}
+
+	/**
+	 * Forgets what is in memory and indexes the region files. Chunks are only read once something asks
+	 * for a chunk of their region. A height map in the old single file format is converted on the next save.
+	 */
+	public void load() {
+		synchronized (cache) {
+			clear();
+			File[] files = folder.listFiles();
+			if (files != null) {
+				for (File f : files) {
+					String[] parts = f.getName().split("\\.");
+					if (parts.length != 4 || !parts[0].equals("r") || !parts[3].equals("hmr")) {
+						continue;
+					}
+					try {
+						Region region = new Region(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+						RandomAccessFile in = new RandomAccessFile(region.file, "r");
+						try {
+							region.readHeader(in);
+						} finally {
+							in.close();
+						}
+						regions.put(getKey(region.x, region.z), region);
+						for (int i = 0; i < REGION_CHUNKS; i++) {
+							if (region.offsets[i] != 0) {
+								updateBounds(region.x << REGION_SHIFT | i & 31, region.z << REGION_SHIFT | i >> REGION_SHIFT);
+							}
+						}
+					} catch (NumberFormatException ignore) {
+					} catch (IOException e) {
+						e.printStackTrace();
+						System.out.println("Error while indexing height map region " + f.getName() + ". Ignoring it.");
+					}
+				}
+			}
+			if (file.exists()) {
+				loadLegacy(file);
+				migrateLegacy = true;
+				dirty = true;
+			} else {
+				dirty = false;
+			}
+		}
+	}
+
 	/*
-	 * Format of the file is this:
+	 * Format of the old single file is this:
 	 * worldName:String
 	 * minX:int
 	 * maxX:int
 	 * minZ:int
 	 * maxZ:int
-	 * height-map:short[], where map[0] is at minX, minZ and map[last] is at maxX, maxZ
+	 * chunks, each x:int, z:int and 256 times height:short followed by id:byte
 	 */
 
-	public void load() {
-		synchronized (cache) {
-			clear();
-			try {
-				DataInputStream in = new DataInputStream(new FileInputStream(file));
-				
-				StringBuilder builder = new StringBuilder();
-				short size = in.readShort();
-				for (int i = 0; i < size; i++) {
-					builder.append(in.readChar());
-				}
-				String name = builder.toString();
-				if(!name.equals(getWorldName())) {
-					System.out.println("World names do not match: "+name+" [file] != "+getWorldName()+" [game]. Compensating...");
-					//TODO compensate
-				}
-				minX = in.readInt();
-				maxX = in.readInt();
-				minZ = in.readInt();
-				maxZ = in.readInt();
-				initBounds = true;
-				int x = minX;
-				int z = minZ;
-				try {
-					while(true) {
-						x = in.readInt();
-						z = in.readInt();
-						HeightChunk chunk = new HeightChunk(x, z);
-						for(int i = 0; i < 256; i++) {
-							chunk.heightmap[i] = in.readShort();
-							chunk.idmap[i] = in.readByte();
-						}
-						addChunk(chunk);
-					}
-				} catch (EOFException e) {}
-				in.close();
-			} catch (FileNotFoundException e) {
-				e.printStackTrace();
-			} catch (IOException e) {
-				e.printStackTrace();
-				cache.clear();
-				initBounds = false;
-				System.out.println("Error while loading persistent copy of the heightmap. Clearing the cache.");
+	private void loadLegacy(File file) {
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			
+			StringBuilder builder = new StringBuilder();
+			short size = in.readShort();
+			for (int i = 0; i < size; i++) {
+				builder.append(in.readChar());
+			}
+			String name = builder.toString();
+			if(!name.equals(getWorldName())) {
+				System.out.println("World names do not match: "+name+" [file] != "+getWorldName()+" [game]. Compensating...");
+				//TODO compensate
 			}
-			File progress = new File(file.getAbsoluteFile() + ".inProgress");
-			if(progress.exists()) {
-				System.out.println("Found in-progress file!");
-				HeightMap progressMap = new HeightMap(getWorldName());
-				progressMap.file = progress;
-				progressMap.load();
-				for(HeightChunk chunk:progressMap.cache.valueCollection()) {
-					if(chunk.getHeight(0, 0) != -1) {
-						addChunk(chunk);
+			in.readInt();
+			in.readInt();
+			in.readInt();
+			in.readInt();
+			try {
+				while(true) {
+					int x = in.readInt();
+					int z = in.readInt();
+					HeightChunk chunk = new HeightChunk(x, z);
+					for(int i = 0; i < 256; i++) {
+						chunk.heightmap[i] = in.readShort();
+						chunk.idmap[i] = in.readByte();
 					}
+					chunk.dirty = true;
+					addChunk(chunk);
 				}
-				heightMaps.remove(progressMap);
-				progress.delete();
-			}
+			} catch (EOFException e) {}
+			in.close();
+		} catch (FileNotFoundException e) {
+			e.printStackTrace();
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.out.println("Error while loading old copy of the heightmap. Ignoring the rest of it.");
+		}
+		File progress = new File(file.getAbsoluteFile() + ".inProgress");
+		if(progress.exists()) {
+			System.out.println("Found in-progress file!");
+			loadLegacy(progress);
+			progress.delete();
 		}
-		dirty = false;
 	}
 
 	private void addChunk(HeightChunk chunk) {
 		dirty = true;
+		HeightChunk old = cache.put(getKey(chunk.x, chunk.z), chunk);
+		if (old != null) {
+			old.replaced = true;
+		}
+		updateBounds(chunk.x, chunk.z);
+	}
+
+	/**
+	 * Publishes a changed copy of a chunk, see HeightChunk.copy
+	 */
+	public void putChunk(HeightChunk chunk) {
+		loadRegion(chunk.x, chunk.z);
+		chunk.dirty = true;
+		addChunk(chunk);
+		lastChunk.set(chunk);
+	}
+
+	private void updateBounds(int x, int z) {
+		if (initBounds && x >= minX && x <= maxX && z >= minZ && z <= maxZ) {
+			return;
+		}
 		synchronized (cache) {
-			int x = chunk.x;
-			int z = chunk.z;
-			cache.put(x, z, chunk);
 			if(!initBounds) {
 				minX = x; 
 				maxX = x;
@@ -202,63 +417,110 @@ public class HeightMap {
 				maxX = Math.max(maxX, x);
 				minZ = Math.min(minZ, z);
 				maxZ = Math.max(maxZ, z);
-			}	
+			}
 		}
 	}
 
+	/**
+	 * Makes sure the chunks stored in the region of a chunk are in memory.
+	 */
+	private void loadRegion(int chunkX, int chunkZ) {
+		Region region = regions.get(getKey(chunkX >> REGION_SHIFT, chunkZ >> REGION_SHIFT));
+		if (region == null || region.loaded) {
+			return;
+		}
+		synchronized (region) {
+			if (region.loaded) {
+				return;
+			}
+			List<HeightChunk> chunks;
+			try {
+				chunks = region.read();
+			} catch (IOException e) {
+				e.printStackTrace();
+				System.out.println("Error while loading height map region " + region.file.getName() + ". Ignoring it.");
+				chunks = new ArrayList<HeightChunk>();
+			}
+			for (HeightChunk chunk : chunks) {
+				//Chunks created before the region was loaded are newer
+				if (cache.putIfAbsent(getKey(chunk.x, chunk.z), chunk) == null) {
+					updateBounds(chunk.x, chunk.z);
+				}
+			}
+			region.loaded = true;
+		}
+	}
+
+	/**
+	 * Writes the chunks that changed since the last save to their region files.
+	 */
 	public void save() {
 		if(!dirty) {
 			return;
 			//Don't need to save when not touched...
 		}
-		synchronized (cache) {
-			try {
-				File progress = new File(file.getAbsoluteFile() + ".inProgress");
-				DataOutputStream out = new DataOutputStream(new FileOutputStream(progress));
-				
-				String name = getWorldName();
-				out.writeShort(name.length());
-				for (int i = 0; i < name.length(); i++) {
-					out.writeChar(name.charAt(i));
+		dirty = false;
+		HashMap<Region, List<HeightChunk>> changed = new HashMap<Region, List<HeightChunk>>();
+		for(HeightChunk chunk : cache.values()) {
+			if(!chunk.dirty) {
+				continue;
+			}
+			//Published chunks don't change, so they can be written without a copy
+			chunk.dirty = false;
+			Long key = getKey(chunk.x >> REGION_SHIFT, chunk.z >> REGION_SHIFT);
+			Region region = regions.get(key);
+			if (region == null) {
+				region = new Region(chunk.x >> REGION_SHIFT, chunk.z >> REGION_SHIFT);
+				region.loaded = true;
+				Region other = regions.putIfAbsent(key, region);
+				if (other != null) {
+					region = other;
 				}
-				
-				out.writeInt(minX);
-				out.writeInt(maxX);
-				out.writeInt(minZ);
-				out.writeInt(maxZ);
-				for(HeightChunk chunk : cache.valueCollection()) {
-					if(chunk == null) {
-						continue;
-					} else {
-						out.writeInt(chunk.x);
-						out.writeInt(chunk.z);
-						for(int i = 0; i < 256; i++) {
-							out.writeShort(chunk.heightmap[i]);
-							out.writeByte(chunk.idmap[i]);
+			}
+			List<HeightChunk> list = changed.get(region);
+			if (list == null) {
+				list = new ArrayList<HeightChunk>();
+				changed.put(region, list);
+			}
+			list.add(chunk);
+		}
+		if (!folder.exists()) {
+			folder.mkdirs();
+		}
+		boolean failed = false;
+		for (Map.Entry<Region, List<HeightChunk>> entry : changed.entrySet()) {
+			Region region = entry.getKey();
+			List<HeightChunk> chunks = entry.getValue();
+			synchronized (region) {
+				try {
+					region.write(chunks);
+				} catch (IOException e) {
+					e.printStackTrace();
+					failed = true;
+					for (HeightChunk chunk : chunks) {
+						if (!chunk.replaced) {
+							chunk.dirty = true;
 						}
 					}
+					dirty = true;
 				}
-				out.close();
-				
-				//Make sure that we don't loose older stuff when someone quits.
-				File older = new File(file.getAbsoluteFile() + ".old");
-				file.renameTo(older);
-				progress.renameTo(file);
-				older.delete();
-			} catch (FileNotFoundException e) {
-				e.printStackTrace();
-			} catch (IOException e) {
-				e.printStackTrace();
 			}
 		}
-		dirty = false;
+		if (migrateLegacy && !failed) {
+			//Everything from the old file is in the regions now
+			file.delete();
+			migrateLegacy = false;
+		}
 	}
 	
 	public void saveThreaded() {
-		if(saveThread == null) {
-			saveThread = new HeightMapSaveThread();
-			saveThread.addMap(this);
+		synchronized (HeightMap.class) {
+			if(saveThread == null) {
+				saveThread = new HeightMapSaveThread();
+				saveThread.start();
+			}
 		}
+		saveThread.addMap(this);
 	}
 
 	private static File getFile(String worldName) {
@@ -282,79 +544,80 @@ public class HeightMap {
 		return getChunk(x, z, false);
 	}
 
+	/**
+	 * Returns the chunk, creating an empty one if needed. The returned chunk must not be changed,
+	 * publish a changed copy with putChunk instead.
+	 */
 	public HeightChunk getChunk(int x, int z, boolean force) {
-		dirty = true; //We don't know what they do with the chunk, so it could be dirtied...
-		if(lastChunk != null && lastChunk.x == x && lastChunk.z == z) {
-			return lastChunk;
-		} else {
-			synchronized (cache) {
-				lastChunk = cache.get(x, z);
-				if(lastChunk == null) {
-					lastChunk = new HeightChunk(x, z);
-					addChunk(lastChunk);
-				}
-				return lastChunk;				
+		HeightChunk chunk = lookup(x, z);
+		if (chunk == null) {
+			chunk = new HeightChunk(x, z);
+			HeightChunk other = cache.putIfAbsent(getKey(x, z), chunk);
+			if (other != null) {
+				chunk = other;
+			} else {
+				dirty = true;
+				updateBounds(x, z);
 			}
+			lastChunk.set(chunk);
 		}
+		return chunk;
 	}
 
-	public short getHeight(int x, int z) {
-		int cX = (x >> 4);
-		int cZ = (z >> 4);
-		x &= 0xF;
-		z &= 0xF;
-		if(lastChunk != null && lastChunk.x == cX && lastChunk.z == cZ) {
-			return lastChunk.heightmap[z << 4 | x];
+	private HeightChunk lookup(int cX, int cZ) {
+		HeightChunk last = lastChunk.get();
+		if (last != null && last.x == cX && last.z == cZ && !last.replaced) {
+			return last;
 		}
-		synchronized (cache) {
-			if(cache.containsKey(cX, cZ)) {
-				lastChunk = cache.get(cX, cZ);
-				return lastChunk.heightmap[z << 4 | x];
-			} else {
-				return -1;
-			}			
+		Long key = getKey(cX, cZ);
+		HeightChunk chunk = cache.get(key);
+		if (chunk == null) {
+			loadRegion(cX, cZ);
+			chunk = cache.get(key);
+		}
+		if (chunk != null) {
+			lastChunk.set(chunk);
 		}
+		return chunk;
+	}
+
+	public short getHeight(int x, int z) {
+		HeightChunk chunk = lookup(x >> 4, z >> 4);
+		if (chunk == null) {
+			return -1;
+		}
+		return chunk.heightmap[(z & 0xF) << 4 | (x & 0xF)];
 	}
 	
 	public byte getBlockId(int x, int z) {
-		int cX = (x >> 4);
-		int cZ = (z >> 4);
-		x &= 0xF;
-		z &= 0xF;
-		if(lastChunk != null && lastChunk.x == cX && lastChunk.z == cZ) {
-			return lastChunk.idmap[z << 4 | x];
-		}
-		synchronized (cache) {
-			if(cache.containsKey(cX, cZ)) {
-				lastChunk = cache.get(cX, cZ);
-				return lastChunk.idmap[z << 4 | x];
-			} else {
-				return -1;
-			}			
+		HeightChunk chunk = lookup(x >> 4, z >> 4);
+		if (chunk == null) {
+			return -1;
 		}
+		return chunk.idmap[(z & 0xF) << 4 | (x & 0xF)];
 	}
 	
 	public void setHighestBlock(int x, int z, short height, byte id) {
-		dirty = true;
 		int cX = (x >> 4);
 		int cZ = (z >> 4);
-		x &= 0xF;
-		z &= 0xF;
-		synchronized (cache) {
-			if(!(lastChunk != null && lastChunk.x == cX && lastChunk.z == cZ)) {
-				if(cache.containsKey(cX, cZ)) {
-					lastChunk = cache.get(cX, cZ);
-				} else {
-					HeightChunk chunk = new HeightChunk(cX, cZ);
-					chunk.heightmap[z << 4 | x] = height;
-					chunk.idmap [z << 4 | x] = id;
-					lastChunk = chunk;
-					addChunk(chunk);
-					return;
-				}	
+		int index = (z & 0xF) << 4 | (x & 0xF);
+		Long key = getKey(cX, cZ);
+		loadRegion(cX, cZ);
+		while (true) {
+			HeightChunk old = cache.get(key);
+			HeightChunk chunk = old == null ? new HeightChunk(cX, cZ) : old.copy();
+			chunk.heightmap[index] = height;
+			chunk.idmap[index] = id;
+			chunk.dirty = true;
+			if (old == null ? cache.putIfAbsent(key, chunk) == null : cache.replace(key, old, chunk)) {
+				if (old != null) {
+					old.replaced = true;
+				}
+				dirty = true;
+				updateBounds(cX, cZ);
+				lastChunk.set(chunk);
+				return;
 			}
-			lastChunk.heightmap[z << 4 | x] = height;
-			lastChunk.idmap[z << 4 | x] = id;
 		}
 	}
 
@@ -380,11 +643,8 @@ public class HeightMap {
 
 	public static void joinSaveThread() {
 		if(saveThread != null) {
-			try {
-				System.out.println("Waiting for heightmap to save...");
-				saveThread.join();
-			} catch (InterruptedException e) {
-			}
+			System.out.println("Waiting for heightmap to save...");
+			saveThread.waitForSaves();
 		}
 	}
 	
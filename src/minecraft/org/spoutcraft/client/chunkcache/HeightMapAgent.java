@@ -16,32 +16,48 @@
  */
 package org.spoutcraft.client.chunkcache;
 
+import java.util.Arrays;
+
 import org.spoutcraft.client.chunkcache.HeightMap.HeightChunk;
 import org.spoutcraft.client.gui.minimap.MinimapUtils;
 
 import net.minecraft.src.Chunk;
 
 public class HeightMapAgent {
+	/**
+	 * Updates the columns of the chunk that changed since it was last scanned, see Chunk.markHeightColumnStale.
+	 * The whole chunk is scanned only after its data arrived.
+	 */
 	public static void scanChunk(Chunk chunk) {
+		long[] stale = new long[4];
+		if (!chunk.takeStaleHeightColumns(stale)) {
+			return;
+		}
 		try {
 			HeightMap map = HeightMap.getHeightMap(MinimapUtils.getWorldName());
-			synchronized (map) {
-				HeightChunk hchunk = map.getChunk(chunk.xPosition, chunk.zPosition, true);
-				for (int x = 0; x < 16; x++) {
-					for (int z = 0; z < 16; z++) {
-						int h = getHighestBlock(chunk, x, z);
-						if (h > -1) {
-							byte id = (byte) chunk.getBlockID(x, h, z);
-							
-							//Check if block above is snow
-							if (chunk.getBlockID(x, h + 1, z) == 78) {
-								id = 78;
-							}
-							hchunk.setHeight(x, z, (short) h);
-							hchunk.setBlockId(x, z, id);
-						}
+			HeightChunk current = map.getChunk(chunk.xPosition, chunk.zPosition, true);
+			HeightChunk hchunk = current.copy();
+			int top = chunk.getTopFilledSegment() + 15;
+			for (int i = 0; i < 256; i++) {
+				if ((stale[i >> 6] & 1L << (i & 63)) == 0) {
+					continue;
+				}
+				int x = i & 15;
+				int z = i >> 4;
+				int h = getHighestBlock(chunk, x, z, top);
+				if (h > -1) {
+					byte id = (byte) chunk.getBlockID(x, h, z);
+					
+					//Check if block above is snow
+					if (chunk.getBlockID(x, h + 1, z) == 78) {
+						id = 78;
 					}
-				}				
+					hchunk.setHeight(x, z, (short) h);
+					hchunk.setBlockId(x, z, id);
+				}
+			}
+			if (!Arrays.equals(current.heightmap, hchunk.heightmap) || !Arrays.equals(current.idmap, hchunk.idmap)) {
+				map.putChunk(hchunk);
 			}
 		}
 		catch (ArrayIndexOutOfBoundsException ignore) { }
@@ -52,8 +68,15 @@ public class HeightMapAgent {
 	}
 
 	public static short getHighestBlock(Chunk chunk, int x, int z) {
+		return getHighestBlock(chunk, x, z, 255);
+	}
+
+	/**
+	 * @param top highest y that may hold a block, blocks above it are not looked at
+	 */
+	public static short getHighestBlock(Chunk chunk, int x, int z, int top) {
 		boolean lastWater = false;
-		for (short y = 255; y > 0; y--) {
+		for (short y = (short) Math.min(top, 255); y > 0; y--) {
 			byte id = (byte) chunk.getBlockID(x, y, z);
 			if (id != 0 && id != 8 && id != 9) {
 				return (short) (lastWater ? y + 1 : y);
@@ -1,30 +1,64 @@
 package org.spoutcraft.client.chunkcache;
 
-import java.util.Queue;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.LinkedBlockingQueue;
 
+/**
+ * Writes height maps in the background, one after the other.
+ */
 public class HeightMapSaveThread extends Thread {
 	
-	private Queue<HeightMap> saveQueue = new LinkedBlockingDeque<HeightMap>();
-	private boolean running;
+	private final LinkedBlockingQueue<HeightMap> saveQueue = new LinkedBlockingQueue<HeightMap>();
+	private int pending = 0;
+
+	public HeightMapSaveThread() {
+		super("Height map writer");
+		setDaemon(true);
+	}
 
 	public void addMap(HeightMap heightMap) {
-		synchronized (saveQueue) {			
+		synchronized (saveQueue) {
+			if (saveQueue.contains(heightMap)) {
+				return;
+			}
+			pending++;
 			saveQueue.add(heightMap);
 		}
-		if(!running) {
-			start();
+	}
+
+	/**
+	 * Blocks until every queued height map has been written.
+	 */
+	public void waitForSaves() {
+		synchronized (saveQueue) {
+			while (pending > 0) {
+				try {
+					saveQueue.wait();
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
 		}
 	}
 	
 	@Override
 	public void run() {
-		running = true;
-		synchronized (saveQueue) {
-			while(!saveQueue.isEmpty()) {
-				saveQueue.poll().save();
+		while (true) {
+			HeightMap map;
+			try {
+				map = saveQueue.take();
+			} catch (InterruptedException e) {
+				continue;
+			}
+			try {
+				map.save();
+			} catch (Throwable t) {
+				t.printStackTrace();
+			} finally {
+				synchronized (saveQueue) {
+					pending--;
+					saveQueue.notifyAll();
+				}
 			}
 		}
-		running = false;
 	}
 }
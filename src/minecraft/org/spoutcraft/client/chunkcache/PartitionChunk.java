@@ -16,143 +16,67 @@
  */
 package org.spoutcraft.client.chunkcache;
 
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicReference;
-
-@SuppressWarnings("unchecked")
+/**
+ * Maps 2048 byte cache partitions onto the sectioned (16x16x16) chunk format.
+ *
+ * Every array sent for a section (block ids, metadata, block light, sky light and the
+ * optional block id MSB array) is a multiple of 2048 bytes and the arrays are packed back
+ * to back, so partition n of a chunk is simply bytes [n * 2048, (n + 1) * 2048) of the
+ * inflated data. The biome array, if any, follows the partitions and is never cached.
+ */
 public class PartitionChunk {
-	private final static int MAX_HEIGHT = 16;
-
-	private final static AtomicReference<int[]>[] startPoint;
-	private final static AtomicReference<int[]>[] step1;
-	private final static AtomicBoolean[] LUTSetup;
-
-	static {
-		startPoint = new AtomicReference[MAX_HEIGHT + 1];
-		LUTSetup = new AtomicBoolean[MAX_HEIGHT + 1];
-		step1 = new AtomicReference[MAX_HEIGHT + 1];
-		for (int count = 0; count < MAX_HEIGHT; count++) {
-			LUTSetup[count] = new AtomicBoolean(false);
-		}
+	public final static int PARTITION_SIZE = 2048;
+	private final static int PARTITION_BITS = 11;
+	private final static int SECTION_PARTITIONS = 5;
+
+	/**
+	 * Gets the number of cacheable partitions for a chunk packet
+	 * @param primaryBitMask of the sections sent in full
+	 * @param addBitMask of the sections that include a block id MSB array
+	 * @return number of partitions
+	 */
+	static public int getSegments(int primaryBitMask, int addBitMask) {
+		return SECTION_PARTITIONS * Integer.bitCount(primaryBitMask & 0xFFFF) + Integer.bitCount(addBitMask & 0xFFFF);
 	}
 
-	private static void updateLookupTable(int heightBits) {
-		if (heightBits < 0 || heightBits > MAX_HEIGHT) {
-			throw new IllegalArgumentException("Height of " + heightBits + " bits for chunk height is outside of range (0 - " + MAX_HEIGHT + ")");
-		}
-
-		if (LUTSetup[heightBits].get()) {
-			return;
-		}
-
-		int height = 1 << heightBits;
-
-		int blockSegments = height >> 3;
-
-		int extraSegments = blockSegments >> 1;
-		int extraSegmentsMask = extraSegments - 1;
-		int extraSegmentSize = height << 7;
-
-		int segments = blockSegments + 3 * extraSegments;
-
-		int[] newStartPoint = new int[segments];
-		int[] newStep1 = new int[segments];
-
-		int cnt;
-		for (cnt = 0; cnt < blockSegments; cnt++) {
-			newStartPoint[cnt] = cnt << 3;
-			newStep1[cnt] = height - 8;
-		}
-
-		int nextStart = extraSegmentSize << 1;
-		for (cnt = blockSegments; cnt < segments; cnt++) {
-			if ((cnt & extraSegmentsMask) == 0) {
-				newStartPoint[cnt] = nextStart;
-				nextStart += 16384;
-			} else {
-				newStartPoint[cnt] = newStartPoint[cnt - 1] + 8;
+	static public void copyToChunkData(byte[] chunkData, int blockNum, byte[] partition) {
+		int start = blockNum << PARTITION_BITS;
+		if (partition == null) {
+			for (int i = start; i < start + PARTITION_SIZE; i++) {
+				chunkData[i] = 0;
 			}
-			newStep1[cnt] = (height >> 1) - 8;
+		} else {
+			System.arraycopy(partition, 0, chunkData, start, PARTITION_SIZE);
 		}
-
-		step1[heightBits] = new AtomicReference(newStep1);
-		startPoint[heightBits] = new AtomicReference(newStartPoint);
-
-		LUTSetup[heightBits].set(true);
 	}
 
-	static public void copyToChunkData(byte[] chunkData, int blockNum, byte[] partition, int heightBits) {
-
-		updateLookupTable(heightBits);
-		int start = startPoint[heightBits].get()[blockNum];
-		int step = step1[heightBits].get()[blockNum];
-
-		int pos = start;
-
-		int partitionPos = 0;
-
-		boolean clear = partition == null;
-
-		for (int outer = 0; outer < 256; outer++) {
-			for (int inner = 0; inner < 8; inner++) {
-				if (clear) {
-					chunkData[pos] = 0;
-				} else {
-					chunkData[pos] = partition[partitionPos++];
-				}
-				pos++;
-			}
-			pos += step;
-		}
+	static public void copyFromChunkData(byte[] chunkData, int blockNum, byte[] partition) {
+		System.arraycopy(chunkData, blockNum << PARTITION_BITS, partition, 0, PARTITION_SIZE);
 	}
 
-	static public void copyFromChunkData(byte[] chunkData, int blockNum, byte[] partition, int heightBits) {
-		updateLookupTable(heightBits);
-		int start = startPoint[heightBits].get()[blockNum];
-		int step = step1[heightBits].get()[blockNum];
-
-		int pos = start;
-
-		int partitionPos = 0;
-
-		for (int outer = 0; outer < 256; outer++) {
-			for (int inner = 0; inner < 8; inner++) {
-				partition[partitionPos++] = chunkData[pos];
-				pos++;
-			}
-			pos += step;
-		}
-	}
-
-	static public long getHash(byte[] chunkData, int blockNum, int heightBits) {
-		int height = 1 << heightBits;
-		int size = ((height * 5) / 2) * 256;
-
-		int p = blockNum * 8 + size;
+	static public long getHash(byte[] hashData, int blockNum) {
+		int p = blockNum << 3;
 		long hash = 0;
-		hash = hash << 8 | (((long) chunkData[p++]) & 0xFFL);
-		hash = hash << 8 | (((long) chunkData[p++]) & 0xFFL);
-		hash = hash << 8 | (((long) chunkData[p++]) & 0xFFL);
-		hash = hash << 8 | (((long) chunkData[p++]) & 0xFFL);
-		hash = hash << 8 | (((long) chunkData[p++]) & 0xFFL);
-		hash = hash << 8 | (((long) chunkData[p++]) & 0xFFL);
-		hash = hash << 8 | (((long) chunkData[p++]) & 0xFFL);
-		hash = hash << 8 | (((long) chunkData[p++]) & 0xFFL);
+		hash = hash << 8 | (((long) hashData[p++]) & 0xFFL);
+		hash = hash << 8 | (((long) hashData[p++]) & 0xFFL);
+		hash = hash << 8 | (((long) hashData[p++]) & 0xFFL);
+		hash = hash << 8 | (((long) hashData[p++]) & 0xFFL);
+		hash = hash << 8 | (((long) hashData[p++]) & 0xFFL);
+		hash = hash << 8 | (((long) hashData[p++]) & 0xFFL);
+		hash = hash << 8 | (((long) hashData[p++]) & 0xFFL);
+		hash = hash << 8 | (((long) hashData[p++]) & 0xFFL);
 		return hash;
 	}
 
-	static public void setHash(byte[] chunkData, int blockNum, long hash, int heightBits) {
-		int height = 1 << heightBits;
-		int size = ((height * 5) / 2) * 256;
-
-		int p = blockNum * 8 + size;
-		chunkData[p++] = (byte) (hash >> 56);
-		chunkData[p++] = (byte) (hash >> 48);
-		chunkData[p++] = (byte) (hash >> 40);
-		chunkData[p++] = (byte) (hash >> 32);
-		chunkData[p++] = (byte) (hash >> 24);
-		chunkData[p++] = (byte) (hash >> 16);
-		chunkData[p++] = (byte) (hash >> 8);
-		chunkData[p++] = (byte) (hash >> 0);
+	static public void setHash(byte[] hashData, int blockNum, long hash) {
+		int p = blockNum << 3;
+		hashData[p++] = (byte) (hash >> 56);
+		hashData[p++] = (byte) (hash >> 48);
+		hashData[p++] = (byte) (hash >> 40);
+		hashData[p++] = (byte) (hash >> 32);
+		hashData[p++] = (byte) (hash >> 24);
+		hashData[p++] = (byte) (hash >> 16);
+		hashData[p++] = (byte) (hash >> 8);
+		hashData[p++] = (byte) (hash >> 0);
 	}
 }
@@ -398,7 +398,7 @@ public class MCRenderDelegate implements RenderDelegate {
 			textureBinding = CustomTextureManager.getTextureFromJar(url);
 		}
 		else {
-			textureBinding = CustomTextureManager.getTextureFromUrl(addon, url);
+			textureBinding = CustomTextureManager.getTextureFromUrlAsync(addon, url);
 		}
 
 		if (textureBinding != null) {
@@ -955,7 +955,7 @@ public class MCRenderDelegate implements RenderDelegate {
 	}
 	
 	public boolean bindTexture(String addon, String path) {
-		Texture tex = CustomTextureManager.getTextureFromUrl(addon, path);
+		Texture tex = CustomTextureManager.getTextureFromUrlAsync(addon, path);
 		if (tex != null) {
 			tex.bind();
 		}
@@ -28,6 +28,8 @@ public class SimpleWidgetManager implements WidgetManager {
 		if (widget.getScreen() == null) {
 			return;
 		}
+		//The server's copy differs now, so its next update has to be applied
+		PacketWidget.forget(widget.getId());
 		PacketWidget update = new PacketWidget(widget, widget.getScreen().getId());
 		SpoutClient.getInstance().getPacketManager().sendSpoutPacket(update);
 	}
@@ -0,0 +1,132 @@
+/*
+ * This file is part of Spoutcraft (http://www.spout.org/).
+ *
+ * Spoutcraft is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Spoutcraft is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.spoutcraft.client.gui.minimap;
+
+/**
+ * Tracks the changed parts of an image as a few rectangles, so only those have to be uploaded.
+ * Rectangles are merged when they touch, or when there are already as many as allowed.
+ * Everything added is clamped to the bounds of the image.
+ */
+public class DirtyRegion {
+	private final int[] rects;
+	private final int width;
+	private final int height;
+	private int count = 0;
+
+	public DirtyRegion(int maxRects, int width, int height) {
+		rects = new int[maxRects * 4];
+		this.width = width;
+		this.height = height;
+	}
+
+	public void add(int x, int y) {
+		for (int i = 0; i < count; i++) {
+			int off = i << 2;
+			if (x >= rects[off] && y >= rects[off + 1] && x < rects[off + 2] && y < rects[off + 3]) {
+				return;
+			}
+		}
+		add(x, y, x + 1, y + 1);
+	}
+
+	/**
+	 * Adds a rectangle, the max coordinates are exclusive.
+	 */
+	public void add(int minX, int minY, int maxX, int maxY) {
+		minX = Math.max(minX, 0);
+		minY = Math.max(minY, 0);
+		maxX = Math.min(maxX, width);
+		maxY = Math.min(maxY, height);
+		if (minX >= maxX || minY >= maxY) {
+			return;
+		}
+		int best = -1;
+		boolean touching = false;
+		long bestGrowth = Long.MAX_VALUE;
+		for (int i = 0; i < count; i++) {
+			int off = i << 2;
+			if (minX <= rects[off + 2] && maxX >= rects[off] && minY <= rects[off + 3] && maxY >= rects[off + 1]) {
+				best = i;
+				touching = true;
+				break;
+			}
+			long growth = area(Math.min(minX, rects[off]), Math.min(minY, rects[off + 1]), Math.max(maxX, rects[off + 2]), Math.max(maxY, rects[off + 3]))
+					- area(rects[off], rects[off + 1], rects[off + 2], rects[off + 3]);
+			if (growth < bestGrowth) {
+				bestGrowth = growth;
+				best = i;
+			}
+		}
+		if (!touching && count < rects.length >> 2) {
+			int off = count << 2;
+			rects[off] = minX;
+			rects[off + 1] = minY;
+			rects[off + 2] = maxX;
+			rects[off + 3] = maxY;
+			count++;
+			return;
+		}
+		int off = best << 2;
+		rects[off] = Math.min(minX, rects[off]);
+		rects[off + 1] = Math.min(minY, rects[off + 1]);
+		rects[off + 2] = Math.max(maxX, rects[off + 2]);
+		rects[off + 3] = Math.max(maxY, rects[off + 3]);
+	}
+
+	private static long area(int minX, int minY, int maxX, int maxY) {
+		return (long) (maxX - minX) * (maxY - minY);
+	}
+
+	public boolean isEmpty() {
+		return count == 0;
+	}
+
+	public int size() {
+		return count;
+	}
+
+	public int getMinX(int index) {
+		return rects[index << 2];
+	}
+
+	public int getMinY(int index) {
+		return rects[(index << 2) + 1];
+	}
+
+	public int getMaxX(int index) {
+		return rects[(index << 2) + 2];
+	}
+
+	public int getMaxY(int index) {
+		return rects[(index << 2) + 3];
+	}
+
+	/**
+	 * @return the number of pixels covered, counting overlapping parts more than once
+	 */
+	public long getArea() {
+		long area = 0;
+		for (int i = 0; i < count; i++) {
+			area += area(getMinX(i), getMinY(i), getMaxX(i), getMaxY(i));
+		}
+		return area;
+	}
+
+	public void clear() {
+		count = 0;
+	}
+}
@@ -17,10 +17,15 @@
 package org.spoutcraft.client.gui.minimap;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.nio.IntBuffer;
+import java.util.Arrays;
 
 import net.minecraft.client.Minecraft;
+import net.minecraft.src.GLAllocation;
 
 import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL12;
 
 /**
  * @author lahwran
@@ -29,12 +34,36 @@ import org.lwjgl.opengl.GL11;
 public class ImageManager {
 
 	protected final BufferedImage image;
-	
+
+	/**
+	 * The ARGB pixels backing the image
+	 */
+	private final int[] pixels;
+
+	private final int width;
+
+	private final int height;
+
+	/**
+	 * Changed parts of the image that still need to be uploaded, guarded by the image
+	 */
+	private final DirtyRegion dirty;
+
+	private final int[] uploadBounds = new int[4 * 4];
+
+	/**
+	 * Pixels staged for upload, only touched by the render thread
+	 */
+	private IntBuffer uploadBuffer = null;
+
 	private int glImage = 0;
 
 	private volatile boolean hasGLImage = false;
 
-	private volatile boolean hasChanged = true;
+	/**
+	 * Whether the texture was last uploaded through the render engine for the anaglyph colors
+	 */
+	private boolean glAnaglyph = false;
 
 	/**
 	 * @param imageSize
@@ -43,41 +72,139 @@ public class ImageManager {
 	 */
 	public ImageManager(int sizeX, int sizeY, int type) {
 		image = new BufferedImage(sizeX, sizeY, type);
+		pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		width = sizeX;
+		height = sizeY;
+		dirty = new DirtyRegion(4, width, height);
+		dirty.add(0, 0, width, height);
 	}
 
 	public void setRGB(int X, int Y, int color) {
 		synchronized(image) {
-			image.setRGB(X, Y, 0xff000000 | color);
-			hasChanged = true;
+			pixels[Y * width + X] = 0xff000000 | color;
+			dirty.add(X, Y);
 		}
 	}
-	
+
 	public void setARGB(int X, int Y, int color) {
 		synchronized(image) {
-			image.setRGB(X, Y, color);
-			hasChanged = true;
-		}	
+			pixels[Y * width + X] = color;
+			dirty.add(X, Y);
+		}
+	}
+
+	public void fill(int color) {
+		synchronized(image) {
+			Arrays.fill(pixels, color);
+			dirty.clear();
+			dirty.add(0, 0, width, height);
+		}
 	}
 
+	/**
+	 * Direct access to the ARGB pixels, row by row. Writers have to hold the lock of
+	 * getLock() and report what they changed with markDirty.
+	 */
+	public int[] getPixels() {
+		return pixels;
+	}
+
+	public Object getLock() {
+		return image;
+	}
+
+	public void markDirty(int minX, int minY, int maxX, int maxY) {
+		synchronized(image) {
+			dirty.add(minX, minY, maxX, maxY);
+		}
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Binds the texture of the image, uploading only the parts that changed since the last call.
+	 */
 	public void loadGLImage() {
-		synchronized (image) {
-			if (hasGLImage && hasChanged) {
-				Minecraft.theMinecraft.renderEngine.deleteTexture(glImage);
-				GL11.glPushMatrix();
-				glImage = Minecraft.theMinecraft.renderEngine.allocateAndSetupTexture(image);
-				GL11.glPopMatrix();
-				hasChanged = false;
+		boolean anaglyph = Minecraft.theMinecraft.gameSettings.anaglyph;
+		if (hasGLImage && anaglyph != glAnaglyph) {
+			Minecraft.theMinecraft.renderEngine.deleteTexture(glImage);
+			hasGLImage = false;
+		}
+		if (anaglyph) {
+			// The render engine converts the colors for the anaglyph mode, so fall back to full uploads
+			synchronized (image) {
+				if (!hasGLImage) {
+					glImage = Minecraft.theMinecraft.renderEngine.allocateAndSetupTexture(image);
+				} else if (!dirty.isEmpty()) {
+					Minecraft.theMinecraft.renderEngine.setupTexture(image, glImage);
+				} else {
+					GL11.glBindTexture(GL11.GL_TEXTURE_2D, glImage);
+				}
+				dirty.clear();
 			}
-			else if (!hasGLImage) {
-				GL11.glPushMatrix();
-				glImage = Minecraft.theMinecraft.renderEngine.allocateAndSetupTexture(image);
-				GL11.glPopMatrix();
-				hasGLImage = true;
-				hasChanged = false;
+			hasGLImage = true;
+			glAnaglyph = true;
+			return;
+		}
+
+		if (!hasGLImage) {
+			glImage = GL11.glGenTextures();
+			GL11.glBindTexture(GL11.GL_TEXTURE_2D, glImage);
+			GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MIN_FILTER, GL11.GL_NEAREST);
+			GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MAG_FILTER, GL11.GL_NEAREST);
+			GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_WRAP_S, GL11.GL_REPEAT);
+			GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_WRAP_T, GL11.GL_REPEAT);
+			if (uploadBuffer == null) {
+				uploadBuffer = GLAllocation.createDirectIntBuffer(width * height);
 			}
-			else if (glImage > 0) {
-				GL11.glBindTexture(GL11.GL_TEXTURE_2D, glImage);
+			synchronized (image) {
+				uploadBuffer.clear();
+				uploadBuffer.put(pixels);
+				dirty.clear();
 			}
+			uploadBuffer.flip();
+			// ARGB ints are BGRA bytes in little endian order, so the pixels go up unconverted
+			GL11.glTexImage2D(GL11.GL_TEXTURE_2D, 0, GL11.GL_RGBA, width, height, 0, GL12.GL_BGRA, GL12.GL_UNSIGNED_INT_8_8_8_8_REV, uploadBuffer);
+			hasGLImage = true;
+			glAnaglyph = false;
+			return;
+		}
+
+		GL11.glBindTexture(GL11.GL_TEXTURE_2D, glImage);
+		int[] bounds = uploadBounds;
+		int rects;
+		synchronized (image) {
+			rects = dirty.size();
+			if (rects == 0) {
+				return;
+			}
+			uploadBuffer.limit(uploadBuffer.capacity());
+			for (int i = 0; i < rects; i++) {
+				bounds[i * 4] = dirty.getMinX(i);
+				bounds[i * 4 + 1] = dirty.getMinY(i);
+				bounds[i * 4 + 2] = dirty.getMaxX(i);
+				bounds[i * 4 + 3] = dirty.getMaxY(i);
+				for (int y = bounds[i * 4 + 1]; y < bounds[i * 4 + 3]; y++) {
+					int index = y * width + bounds[i * 4];
+					uploadBuffer.position(index);
+					uploadBuffer.put(pixels, index, bounds[i * 4 + 2] - bounds[i * 4]);
+				}
+			}
+			dirty.clear();
+		}
+		GL11.glPixelStorei(GL11.GL_UNPACK_ROW_LENGTH, width);
+		for (int i = 0; i < rects; i++) {
+			int minX = bounds[i * 4];
+			int minY = bounds[i * 4 + 1];
+			uploadBuffer.position(minY * width + minX);
+			GL11.glTexSubImage2D(GL11.GL_TEXTURE_2D, 0, minX, minY, bounds[i * 4 + 2] - minX, bounds[i * 4 + 3] - minY, GL12.GL_BGRA, GL12.GL_UNSIGNED_INT_8_8_8_8_REV, uploadBuffer);
 		}
+		GL11.glPixelStorei(GL11.GL_UNPACK_ROW_LENGTH, 0);
 	}
 }
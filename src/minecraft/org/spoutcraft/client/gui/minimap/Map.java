@@ -70,6 +70,12 @@ public class Map {
 
 	public int timer = 0;
 
+	/**
+	 * World coordinates of the top left corner of the area in the scrolling map images
+	 */
+	private int windowX = 0;
+	private int windowZ = 0;
+
 	public int imageSize = 276 * 2;
 
 	public int updatedist = 4;
@@ -128,6 +134,43 @@ public class Map {
 		return worldx;//return wrapIndex( (int) ((worldx - playerX) + originOffsetY), imageSize);
 	}
 
+	/**
+	 * Column of a world z coordinate in the scrolling map images. Unlike toImageX, the images
+	 * are used as a ring buffer, so a column keeps its pixel while the player moves.
+	 */
+	public final int toRingX(int worldz) {
+		return wrapIndex(-worldz, imageSize);
+	}
+
+	/**
+	 * Row of a world x coordinate in the scrolling map images.
+	 */
+	public final int toRingY(int worldx) {
+		return wrapIndex(worldx, imageSize);
+	}
+
+	/**
+	 * Sets the world coordinates of the top left corner of the rendered area.
+	 */
+	public void setWindow(int startX, int startZ) {
+		windowX = startX;
+		windowZ = startZ;
+	}
+
+	/**
+	 * @return texture coordinate offset of the rendered area along the u axis (world z)
+	 */
+	public float getTextureOffsetU() {
+		return wrapIndex(-(windowZ + renderSize), imageSize) / (float) imageSize;
+	}
+
+	/**
+	 * @return texture coordinate offset of the rendered area along the v axis (world x)
+	 */
+	public float getTextureOffsetV() {
+		return wrapIndex(windowX, imageSize) / (float) imageSize;
+	}
+
 	public void setColorPixel(int worldx, int worldz, int color24) {
 		colorimg.setRGB(toImageX(worldz), toImageY(worldx), color24);
 	}
@@ -161,13 +204,9 @@ public class Map {
 	}
 
 	public void clear() {
-		for (int i = 0; i < imageSize; i++) {
-			for (int j = 0; j < imageSize; j++) {
-				colorimg.setARGB(i, j, 0);
-				lightimg.setARGB(i, j, 0);
-				heightimg.setARGB(i, j, 0);
-			}
-		}
+		colorimg.fill(0);
+		lightimg.fill(0);
+		heightimg.fill(0);
 	}
 
 	public void update(double playerx, double playerz) {
@@ -16,6 +16,9 @@
  */
 package org.spoutcraft.client.gui.minimap;
 
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.set.hash.TLongHashSet;
+
 import java.util.Random;
 
 import org.spoutcraft.client.SpoutClient;
@@ -24,6 +27,7 @@ import org.spoutcraft.spoutcraftapi.Spoutcraft;
 
 import net.minecraft.client.Minecraft;
 import net.minecraft.src.AxisAlignedBB;
+import net.minecraft.src.Block;
 import net.minecraft.src.Chunk;
 import net.minecraft.src.Entity;
 import net.minecraft.src.EntityLiving;
@@ -128,21 +132,19 @@ public class MapCalculator implements Runnable {
 		// return -1;
 	}
 
-	private int getBlockColor(World world, int x, int y, int z) {
+	private int getBlockColor(Chunk chunk, int x, int y, int z) {
 		int color24 = 0;
 
 		try {
 			if (MinimapConfig.getInstance().isColor()
 					&& !MinimapConfig.getInstance().isCavemap()) {
-				if (x == (int) map.getPlayerX() && z == (int) map.getPlayerZ())
-					return 0xff0000;
-				if ((world.getBlockMaterial(x, y + 1, z) == Material.ice)
-						|| (world.getBlockMaterial(x, y + 1, z) == Material.snow))
+				Material above = getBlockMaterial(chunk, x, y + 1, z);
+				if ((above == Material.ice) || (above == Material.snow))
 					color24 = 0xffffff;
-				else {
+				else if (y >= 0 && y < 256) {
 					BlockColor col = BlockColor.getBlockColor(
-							world.getBlockId(x, y, z),
-							world.getBlockMetadata(x, y, z));
+							chunk.getBlockID(x, y, z),
+							chunk.getBlockMetadata(x, y, z));
 					color24 = col.color;
 				}
 			}
@@ -153,6 +155,11 @@ public class MapCalculator implements Runnable {
 		return color24;
 	}
 
+	private Material getBlockMaterial(Chunk chunk, int x, int y, int z) {
+		int id = y >= 0 && y < 256 ? chunk.getBlockID(x, y, z) : 0;
+		return id == 0 ? Material.air : Block.blocksList[id].blockMaterial;
+	}
+
 	private int getBlockHeightMap(World world, int x, int y, int z) {
 		int height = y - 128;
 		double sc = Math.log10(Math.abs(height) / 8.0D + 1.0D) / 1.3D;
@@ -167,8 +174,11 @@ public class MapCalculator implements Runnable {
 		return result;
 	}
 
-	private int getBlockLight(World world, int x, int y, int z) {
-		int light = world.getBlockLightValue_do(x, y + 1, z, false) * 17;
+	private int getBlockLight(World world, Chunk chunk, int x, int y, int z) {
+		int light = 0;
+		if (y + 1 >= 0) {
+			light = chunk.getBlockLightValue(x, Math.min(y + 1, 255), z, world.skylightSubtracted) * 17;
+		}
 		int min = 32;
 		if (light < min) {
 			light = min;
@@ -188,7 +198,7 @@ public class MapCalculator implements Runnable {
 		return light;
 	}
 
-	private void mapCalc() {
+	private void mapCalc(boolean forceFull) {
 		if (Minecraft.theMinecraft.thePlayer == null || Minecraft.theMinecraft.theWorld == null)
 			return;
 		try {
@@ -219,6 +229,7 @@ public class MapCalculator implements Runnable {
 					}
 					map.renderOff = map.renderSize / 2;
 					map.clear();
+					lastRenderSize = -1;
 				}
 				map.square = square;
 
@@ -228,41 +239,71 @@ public class MapCalculator implements Runnable {
 				startZ = (int) (map.getPlayerZ() - map.renderOff);
 			}
 
-			for (int worldX = startX; worldX < startX + renderSize; worldX++) {
-				for (int worldZ = startZ; worldZ < startZ + renderSize; worldZ++) {
-					int worldY = getBlockHeight(data, worldX, worldZ);
+			MinimapConfig config = MinimapConfig.getInstance();
+			int settings = (config.isColor() ? 1 : 0) | (config.isCavemap() ? 2 : 0) | (config.isLightmap() ? 4 : 0) | (square ? 8 : 0);
+			int size = map.imageSize;
+			if (colorData == null || colorData.length != size * size) {
+				colorData = new int[size * size];
+				heightData = new int[size * size];
+				lightData = new int[size * size];
+				lastRenderSize = -1;
+			}
 
-					int pixelX = worldX - startX;
-					if (pixelX >= renderSize)
-						pixelX -= renderSize;
+			long[] dirty = takeDirtyChunks();
+			boolean full = forceFull || dirty == null || config.isCavemap() || data != lastWorld || settings != lastSettings || renderSize != lastRenderSize
+					|| Math.abs(startX - lastStartX) >= renderSize || Math.abs(startZ - lastStartZ) >= renderSize;
+
+			restoreMarkers(startX, startZ, renderSize, square);
+			if (full) {
+				computeArea(data, startX, startZ, renderSize, renderSize, startX, startZ, renderSize, square);
+			} else {
+				// Only the strips scrolled into view, the rest of the ring is still valid
+				int dx = startX - lastStartX;
+				if (dx > 0) {
+					computeArea(data, lastStartX + renderSize, startZ, dx, renderSize, startX, startZ, renderSize, square);
+				} else if (dx < 0) {
+					computeArea(data, startX, startZ, -dx, renderSize, startX, startZ, renderSize, square);
+				}
+				int dz = startZ - lastStartZ;
+				if (dz > 0) {
+					computeArea(data, startX, lastStartZ + renderSize, renderSize, dz, startX, startZ, renderSize, square);
+				} else if (dz < 0) {
+					computeArea(data, startX, startZ, renderSize, -dz, startX, startZ, renderSize, square);
+				}
 
-					int pixelZ = worldZ - startZ;
-					pixelZ = renderSize - pixelZ;
-					if (pixelZ >= renderSize)
-						pixelZ -= renderSize;
+				for (int i = 0; i < dirty.length; i++) {
+					int minX = Math.max(startX, (int) (dirty[i] >> 32) << 4);
+					int minZ = Math.max(startZ, (int) dirty[i] << 4);
+					int maxX = Math.min(startX + renderSize, ((int) (dirty[i] >> 32) << 4) + 16);
+					int maxZ = Math.min(startZ + renderSize, ((int) dirty[i] << 4) + 16);
+					if (minX < maxX && minZ < maxZ) {
+						computeArea(data, minX, minZ, maxX - minX, maxZ - minZ, startX, startZ, renderSize, square);
+					}
+				}
 
-					if (square || MinimapUtils.insideCircle(startX + renderSize / 2, startZ + renderSize / 2, renderSize / 2, worldX, worldZ)) {
-						int color = getBlockColor(data, worldX, worldY, worldZ);
-						if (color == 0) {
-							map.clearColorPixel(pixelX, pixelZ);
-						} else {
-							map.setColorPixel(pixelX, pixelZ, color);
+				if (!square && (dx != 0 || dz != 0)) {
+					// The circle moved with the player, fix up the pixels that crossed its edge
+					int radius = renderSize / 2;
+					for (int x = startX; x < startX + renderSize; x++) {
+						for (int z = startZ; z < startZ + renderSize; z++) {
+							boolean inside = MinimapUtils.insideCircle(startX + radius, startZ + radius, radius, x, z);
+							if (inside != MinimapUtils.insideCircle(lastStartX + radius, lastStartZ + radius, radius, x, z)) {
+								present(x, z, inside);
+							}
 						}
-
-						short height = (short) data.getHeightValue(worldX, worldZ);
-						short reference = (short) data.getHeightValue(worldX + 1, worldZ + 1);
-						map.heightimg.setARGB(pixelZ, pixelX, getHeightColor(height, reference));
-						map.setLightPixel(pixelX, pixelZ, getBlockLight(data, worldX, worldY, worldZ));								
-
-					} else {
-						map.clearColorPixel(pixelX, pixelZ);
-						map.heightimg.setARGB(pixelX, pixelZ, 0);
-						map.setLightPixel(pixelX, pixelZ, 255);
 					}
 				}
 			}
+			lastWorld = data;
+			lastSettings = settings;
+			lastRenderSize = renderSize;
+			lastStartX = startX;
+			lastStartZ = startZ;
 
 			synchronized (map) {
+				if (config.isColor() && !config.isCavemap()) {
+					drawCircle((int) map.getPlayerX(), (int) map.getPlayerZ(), 0, 0xff0000);
+				}
 				for (Waypoint pt : MinimapConfig.getInstance().getWaypoints(MinimapUtils.getWorldName())) {
 					if (pt.enabled) {
 						boolean render = false;
@@ -275,11 +316,6 @@ public class MapCalculator implements Runnable {
 							render = false;
 						}
 						if (render) {
-							int pixelX = pt.x - startX;
-
-							int pixelZ = pt.z - startZ;
-							pixelZ = map.renderSize - pixelZ;
-
 							int scale = map.zoom + 2;
 							if (map.zoom > 2) {
 								scale += 2;
@@ -292,8 +328,8 @@ public class MapCalculator implements Runnable {
 							if(pt == MinimapConfig.getInstance().getFocussedWaypoint()) {
 								color = 0xff00ffff;
 							}
-							drawCircle(pixelX, pixelZ, scale + map.zoom + 1, pt.deathpoint ? color : 0);
-							drawCircle(pixelX, pixelZ, scale, pt.deathpoint ? 0 : color);
+							drawCircle(pt.x, pt.z, scale + map.zoom + 1, pt.deathpoint ? color : 0);
+							drawCircle(pt.x, pt.z, scale, pt.deathpoint ? 0 : color);
 						}
 					}
 				}
@@ -305,11 +341,6 @@ public class MapCalculator implements Runnable {
 						render = MinimapUtils.insideCircle(startX + map.renderSize / 2, startZ + map.renderSize / 2, map.renderSize / 2, pt.x, pt.z);
 					}
 					if (render) {
-						int pixelX = pt.x - startX;
-
-						int pixelZ = pt.z - startZ;
-						pixelZ = map.renderSize - pixelZ;
-
 						int scale = map.zoom + 2;
 						if (map.zoom > 2) {
 							scale += 2;
@@ -322,29 +353,156 @@ public class MapCalculator implements Runnable {
 						if(pt == MinimapConfig.getInstance().getFocussedWaypoint()) {
 							color = 0xff00ffff;
 						}
-						drawCircle(pixelX, pixelZ, scale + map.zoom + 1, 0);
-						drawCircle(pixelX, pixelZ, scale, color);
+						drawCircle(pt.x, pt.z, scale + map.zoom + 1, 0);
+						drawCircle(pt.x, pt.z, scale, color);
 					}
 				}
+				map.setWindow(startX, startZ);
 			}
-		} catch (Throwable whatever) {	}
+		} catch (Throwable whatever) {
+			lastRenderSize = -1;
+		}
 	}
 
-	private void drawCircle(int x, int y, int radius, int color) {
-		try {
-			for (int dx = -radius; dx <= radius; dx++) {
-				for (int dy = -radius; dy <= radius; dy++) {
-					if (x + dx < map.renderSize && x + dx > 0
-							&& y + dy < map.renderSize && y + dy > 0) {
-						if (MinimapUtils.insideCircle(x, y, radius, x + dx, y
-								+ dy)) {
-							map.setColorPixel(x + dx, y + dy, color);
+	/**
+	 * Computes colour, height and light for every column of an area, one chunk at a time, and
+	 * presents them if they lie inside the current window.
+	 */
+	private void computeArea(World world, int areaX, int areaZ, int width, int depth, int startX, int startZ, int renderSize, boolean square) {
+		int radius = renderSize / 2;
+		int size = map.imageSize;
+		for (int cx = areaX >> 4; cx <= (areaX + width - 1) >> 4; cx++) {
+			for (int cz = areaZ >> 4; cz <= (areaZ + depth - 1) >> 4; cz++) {
+				Chunk chunk = world.getChunkFromChunkCoords(cx, cz);
+				boolean loaded = world.blockExists(cx << 4, 0, cz << 4);
+				int minX = Math.max(areaX, cx << 4);
+				int maxX = Math.min(areaX + width, (cx << 4) + 16);
+				int minZ = Math.max(areaZ, cz << 4);
+				int maxZ = Math.min(areaZ + depth, (cz << 4) + 16);
+				for (int x = minX; x < maxX; x++) {
+					for (int z = minZ; z < maxZ; z++) {
+						int lx = x & 15;
+						int lz = z & 15;
+						int height = loaded ? chunk.getHeightValue(lx, lz) : 0;
+						int worldY = MinimapConfig.getInstance().isCavemap() ? getBlockHeight(world, x, z) : height - 1;
+						int reference;
+						if (lx < 15 && lz < 15) {
+							reference = loaded ? chunk.getHeightValue(lx + 1, lz + 1) : 0;
+						} else {
+							reference = world.getHeightValue(x + 1, z + 1);
 						}
+
+						int index = map.toRingY(x) * size + map.toRingX(z);
+						int color = getBlockColor(chunk, lx, worldY, lz);
+						colorData[index] = color == 0 ? 0 : 0xff000000 | color;
+						heightData[index] = getHeightColor((short) height, (short) reference);
+						int light = getBlockLight(world, chunk, lx, worldY, lz);
+						lightData[index] = 0xff000000 | light | light << 8 | light << 16;
+
+						present(x, z, square || MinimapUtils.insideCircle(startX + radius, startZ + radius, radius, x, z));
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Copies the cached values of a column into the map images, or clears it if it lies outside the round map.
+	 */
+	private void present(int x, int z, boolean inside) {
+		int imageX = map.toRingX(z);
+		int imageY = map.toRingY(x);
+		if (inside) {
+			int index = imageY * map.imageSize + imageX;
+			map.colorimg.setARGB(imageX, imageY, colorData[index]);
+			map.heightimg.setARGB(imageX, imageY, heightData[index]);
+			map.lightimg.setARGB(imageX, imageY, lightData[index]);
+		} else {
+			map.colorimg.setARGB(imageX, imageY, 0);
+			map.heightimg.setARGB(imageX, imageY, 0);
+			map.lightimg.setARGB(imageX, imageY, 0xffffffff);
+		}
+	}
+
+	/**
+	 * Puts back the cached pixels under the markers drawn by the previous render.
+	 */
+	private void restoreMarkers(int startX, int startZ, int renderSize, boolean square) {
+		int radius = renderSize / 2;
+		for (int i = 0; i < markers.size(); i += 3) {
+			int mx = markers.get(i);
+			int mz = markers.get(i + 1);
+			int r = markers.get(i + 2);
+			for (int x = mx - r; x <= mx + r; x++) {
+				for (int z = mz - r; z <= mz + r; z++) {
+					if (x >= startX && x < startX + renderSize && z >= startZ && z < startZ + renderSize) {
+						present(x, z, square || MinimapUtils.insideCircle(startX + radius, startZ + radius, radius, x, z));
 					}
 				}
 			}
-		} catch (ArrayIndexOutOfBoundsException ignore) {
-		} // happens with fast movement
+		}
+		markers.resetQuick();
+	}
+
+	/**
+	 * Chunks changed since the last render, or null if too much changed to track them one by one.
+	 */
+	private static long[] takeDirtyChunks() {
+		synchronized (dirtyChunks) {
+			if (dirtyOverflow) {
+				dirtyOverflow = false;
+				dirtyChunks.clear();
+				return null;
+			}
+			long[] chunks = dirtyChunks.toArray();
+			dirtyChunks.clear();
+			return chunks;
+		}
+	}
+
+	private static boolean hasDirtyChunks() {
+		synchronized (dirtyChunks) {
+			return dirtyOverflow || !dirtyChunks.isEmpty();
+		}
+	}
+
+	/**
+	 * Marks the chunks touching a block area as changed, so their columns are computed again on the next render.
+	 */
+	public static void markDirty(int minX, int minZ, int maxX, int maxZ) {
+		synchronized (dirtyChunks) {
+			if (dirtyOverflow) {
+				return;
+			}
+			if ((maxX >> 4) - (minX >> 4) > 32 || (maxZ >> 4) - (minZ >> 4) > 32 || dirtyChunks.size() > 4096) {
+				dirtyOverflow = true;
+				return;
+			}
+			for (int cx = minX >> 4; cx <= maxX >> 4; cx++) {
+				for (int cz = minZ >> 4; cz <= maxZ >> 4; cz++) {
+					dirtyChunks.add((long) cx << 32 | cz & 0xFFFFFFFFL);
+				}
+			}
+		}
+	}
+
+	private void drawCircle(int x, int z, int radius, int color) {
+		int startX = (int) (map.getPlayerX() - map.renderOff);
+		int startZ = (int) (map.getPlayerZ() - map.renderOff);
+		for (int dx = -radius; dx <= radius; dx++) {
+			for (int dz = -radius; dz <= radius; dz++) {
+				if (x + dx > startX && x + dx < startX + map.renderSize
+						&& z + dz > startZ && z + dz < startZ + map.renderSize) {
+					if (MinimapUtils.insideCircle(x, z, radius, x + dx, z
+							+ dz)) {
+						map.colorimg.setARGB(map.toRingX(z + dz), map.toRingY(x + dx), 0xff000000 | color);
+					}
+				}
+			}
+		}
+		markers.add(x);
+		markers.add(z);
+		markers.add(radius);
 	}
 
 	/**
@@ -356,7 +514,7 @@ public class MapCalculator implements Runnable {
 		try {
 			double x = Minecraft.theMinecraft.thePlayer.posX;
 			double z = Minecraft.theMinecraft.thePlayer.posZ;
-			if (MinimapConfig.getInstance().isEnabled() && map.isDirty(x, z)) {
+			if (MinimapConfig.getInstance().isEnabled() && (map.isDirty(x, z) || hasDirtyChunks())) {
 //				long start = System.currentTimeMillis();
 				if (MinimapConfig.getInstance().getScanRadius() > 0) {
 					int radius = MinimapConfig.getInstance().getScanRadius() << 4;
@@ -370,7 +528,7 @@ public class MapCalculator implements Runnable {
 //				long dur = System.currentTimeMillis() - start;
 //				int chunks = (int) Math.pow(MinimapConfig.getInstance().getScanRadius() * 2, 2);
 //				System.out.println("Took "+dur+"ms to scan "+chunks+" chunks.\nThat is "+(float) (dur/(float)chunks)+" per chunk!");
-				mapCalc();
+				mapCalc(map.timer > 300);
 				
 				entityCalc();
 				map.timer = 1;
@@ -465,6 +623,27 @@ public class MapCalculator implements Runnable {
 
 	private Map map;
 
+	/**
+	 * Colour, height and light of each column, laid out like the map images. Only touched by the
+	 * calculating thread.
+	 */
+	private int[] colorData;
+	private int[] heightData;
+	private int[] lightData;
+	private World lastWorld;
+	private int lastSettings;
+	private int lastRenderSize = -1;
+	private int lastStartX;
+	private int lastStartZ;
+
+	/**
+	 * x, z and radius of every marker drawn over the map by the last render
+	 */
+	private final TIntArrayList markers = new TIntArrayList();
+
+	private static final TLongHashSet dirtyChunks = new TLongHashSet();
+	private static boolean dirtyOverflow = false;
+
 	/**
 	 * This constructor inits state, but does not start the thread.
 	 * 
@@ -126,14 +126,14 @@ public class MapRenderer {
 
 				map.loadColorImage();
 
-				drawOnMap();
+				drawMapImage();
 				
 				if(MinimapConfig.getInstance().isHeightmap()) {
 					GL11.glBlendFunc(GL11.GL_SRC_ALPHA, GL11.GL_DST_COLOR);
 					
 					map.loadHeightImage();
 					
-					drawOnMap();
+					drawMapImage();
 				}
 				
 				GL11.glPopMatrix();
@@ -213,14 +213,14 @@ public class MapRenderer {
 					break;
 				}
 
-				drawOnMap();
+				drawMapImage();
 				
 				if(MinimapConfig.getInstance().isHeightmap()) {
 					GL11.glBlendFunc(GL11.GL_SRC_ALPHA, GL11.GL_DST_COLOR);
 					
 					map.loadHeightImage();
 					
-					drawOnMap();
+					drawMapImage();
 				}
 
 				GL11.glPopMatrix();
@@ -501,6 +501,24 @@ public class MapRenderer {
 		}
 	}
 
+	/**
+	 * Draws one of the scrolling map images, shifting the texture coordinates to the rendered area.
+	 */
+	private void drawMapImage() {
+		float u;
+		float v;
+		synchronized (map) {
+			u = map.getTextureOffsetU();
+			v = map.getTextureOffsetV();
+		}
+		GL11.glMatrixMode(GL11.GL_TEXTURE);
+		GL11.glPushMatrix();
+		GL11.glTranslatef(u, v, 0F);
+		drawOnMap();
+		GL11.glPopMatrix();
+		GL11.glMatrixMode(GL11.GL_MODELVIEW);
+	}
+
 	private void drawOnMap() {
 		Tessellator.instance.startDrawingQuads();
 		Tessellator.instance.addVertexWithUV(-64.0D, 64.0D, 1.0D, 0.0D, 1.0D);
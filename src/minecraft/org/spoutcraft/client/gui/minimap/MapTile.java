@@ -0,0 +1,75 @@
+/*
+ * This file is part of Spoutcraft (http://www.spout.org/).
+ *
+ * Spoutcraft is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Spoutcraft is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.spoutcraft.client.gui.minimap;
+
+/**
+ * A square piece of the overview map at one level of the tile pyramid. At level 0 a pixel is one
+ * block, every level above halves the resolution. Tiles without any explored block have no pixels.
+ */
+public class MapTile {
+	final int level;
+	final int x;
+	final int z;
+	final int generation;
+	private final int[] color;
+	private final int[] height;
+
+	/**
+	 * Index of the atlas slot holding the tile, or -1. Guarded by the tile cache.
+	 */
+	int slot = -1;
+	boolean uploaded = false;
+
+	MapTile(int level, int x, int z, int generation, int[] color, int[] height) {
+		this.level = level;
+		this.x = x;
+		this.z = z;
+		this.generation = generation;
+		this.color = color;
+		this.height = height;
+	}
+
+	public int getLevel() {
+		return level;
+	}
+
+	public int getX() {
+		return x;
+	}
+
+	public int getZ() {
+		return z;
+	}
+
+	public boolean isEmpty() {
+		return color == null;
+	}
+
+	/**
+	 * @return ARGB colors, row by row along z, or null for an empty tile
+	 */
+	public int[] getColor() {
+		return color;
+	}
+
+	/**
+	 * @return ARGB height shading, laid out like getColor()
+	 */
+	public int[] getHeight() {
+		return height;
+	}
+}
@@ -0,0 +1,390 @@
+/*
+ * This file is part of Spoutcraft (http://www.spout.org/).
+ *
+ * Spoutcraft is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Spoutcraft is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.spoutcraft.client.gui.minimap;
+
+import gnu.trove.list.array.TIntArrayList;
+
+import java.nio.IntBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import net.minecraft.src.GLAllocation;
+
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL12;
+import org.spoutcraft.client.chunkcache.HeightMap;
+
+/**
+ * Pyramid of overview map tiles. Level 0 tiles are rendered from the height map, the next few levels are
+ * downsampled from the four tiles below them and the coarsest levels are sampled from the height map
+ * again. Tiles are kept in least recently used order and dropped once they exceed the memory budget;
+ * their pixels are packed into a few shared atlas textures.
+ */
+public class MapTileCache {
+	public static final int TILE_SIZE = 256;
+	public static final int TILE_SHIFT = 8;
+	public static final int MAX_LEVEL = 6;
+	/**
+	 * Highest level built from the tiles below it. A tile at this level needs 4^level level 0 tiles, which
+	 * have to fit in the cache next to the visible tiles, or zooming out evicts and renders them over and over.
+	 */
+	private static final int MAX_DOWNSAMPLE_LEVEL = 2;
+	public static final int ATLAS_SIZE = 2048;
+	private static final int ATLAS_TILES = ATLAS_SIZE / TILE_SIZE;
+	private static final int TILES_PER_ATLAS = ATLAS_TILES * ATLAS_TILES;
+	/**
+	 * Bytes the pixels of the cached tiles may use, the atlases take the same again on the GPU
+	 */
+	public static final long MEMORY_BUDGET = 96L << 20;
+	private static final int TILE_BYTES = TILE_SIZE * TILE_SIZE * 4 * 2;
+	private static final int MAX_TILES = (int) (MEMORY_BUDGET / TILE_BYTES);
+	/**
+	 * Empty tiles are cheap, but should not pile up forever either
+	 */
+	private static final int MAX_ENTRIES = MAX_TILES * 16;
+	private static final int UPLOADS_PER_FRAME = 4;
+
+	private final HeightMap heightMap;
+	private final LinkedHashMap<Long, MapTile> tiles = new LinkedHashMap<Long, MapTile>(256, 0.75f, true);
+	private final TIntArrayList freeSlots = new TIntArrayList(MAX_TILES);
+	private int tilesWithPixels = 0;
+	private volatile int generation = 0;
+
+	// Only used by the render thread
+	private final int[] colorAtlases = new int[(MAX_TILES + TILES_PER_ATLAS - 1) / TILES_PER_ATLAS];
+	private final int[] heightAtlases = new int[colorAtlases.length];
+	private IntBuffer uploadBuffer = null;
+	private int uploadsLeft = 0;
+
+	public MapTileCache(HeightMap heightMap) {
+		this.heightMap = heightMap;
+		for (int i = MAX_TILES - 1; i >= 0; i--) {
+			freeSlots.add(i);
+		}
+	}
+
+	public HeightMap getHeightMap() {
+		return heightMap;
+	}
+
+	public static long getKey(int level, int x, int z) {
+		return (long) level << 60 | (long) (x & 0x3FFFFFFF) << 30 | z & 0x3FFFFFFF;
+	}
+
+	public static int getLevel(long key) {
+		return (int) (key >>> 60);
+	}
+
+	public static int getX(long key) {
+		return (int) (key >> 30) << 2 >> 2;
+	}
+
+	public static int getZ(long key) {
+		return (int) key << 2 >> 2;
+	}
+
+	/**
+	 * Marks every cached tile as out of date. They are still drawn until they have been built again.
+	 */
+	public void invalidate() {
+		generation++;
+	}
+
+	public boolean isCurrent(MapTile tile) {
+		return tile.generation == generation;
+	}
+
+	public MapTile get(int level, int x, int z) {
+		synchronized (tiles) {
+			return tiles.get(getKey(level, x, z));
+		}
+	}
+
+	/**
+	 * Returns the up to date tile, building it and any of the tiles below it that are missing or out of date.
+	 */
+	public MapTile build(int level, int x, int z) {
+		int gen = generation;
+		MapTile tile = get(level, x, z);
+		if (tile != null && tile.generation == gen) {
+			return tile;
+		}
+		int shift = TILE_SHIFT + level;
+		if (((x + 1) << shift) <= heightMap.getMinX() << 4 || x << shift > (heightMap.getMaxX() << 4) + 15
+				|| ((z + 1) << shift) <= heightMap.getMinZ() << 4 || z << shift > (heightMap.getMaxZ() << 4) + 15) {
+			tile = new MapTile(level, x, z, gen, null, null);
+		} else if (level == 0) {
+			tile = render(x, z, gen);
+		} else if (level <= MAX_DOWNSAMPLE_LEVEL) {
+			tile = downsample(level, x, z, gen);
+		} else {
+			tile = sample(level, x, z, gen);
+		}
+		put(tile);
+		return tile;
+	}
+
+	private MapTile render(int tileX, int tileZ, int gen) {
+		int[] color = new int[TILE_SIZE * TILE_SIZE];
+		int[] height = new int[TILE_SIZE * TILE_SIZE];
+		boolean pixelSet = false;
+		int baseX = tileX << TILE_SHIFT;
+		int baseZ = tileZ << TILE_SHIFT;
+		for (int pz = 0; pz < TILE_SIZE; pz++) {
+			for (int px = 0; px < TILE_SIZE; px++) {
+				int aX = baseX + px;
+				int aZ = baseZ + pz;
+				short h = heightMap.getHeight(aX, aZ);
+				byte id = heightMap.getBlockId(aX, aZ);
+				if (id == -1 || h == -1) {
+					continue;
+				}
+				pixelSet = true;
+				short reference = heightMap.getHeight(aX + 1, aZ + 1);
+				height[pz * TILE_SIZE + px] = MapCalculator.getHeightColor(h, reference);
+				color[pz * TILE_SIZE + px] = BlockColor.getBlockColor(id, 0).color | 0xff000000;
+			}
+		}
+		if (!pixelSet) {
+			return new MapTile(0, tileX, tileZ, gen, null, null);
+		}
+		return new MapTile(0, tileX, tileZ, gen, color, height);
+	}
+
+	private MapTile downsample(int level, int tileX, int tileZ, int gen) {
+		int[] color = null;
+		int[] height = null;
+		int half = TILE_SIZE / 2;
+		for (int i = 0; i < 4; i++) {
+			MapTile child = build(level - 1, tileX * 2 + (i & 1), tileZ * 2 + (i >> 1));
+			if (child.isEmpty()) {
+				continue;
+			}
+			if (color == null) {
+				color = new int[TILE_SIZE * TILE_SIZE];
+				height = new int[TILE_SIZE * TILE_SIZE];
+			}
+			int offset = (i >> 1) * half * TILE_SIZE + (i & 1) * half;
+			shrink(child.getColor(), color, offset);
+			shrink(child.getHeight(), height, offset);
+		}
+		return new MapTile(level, tileX, tileZ, gen, color, height);
+	}
+
+	/**
+	 * Builds a coarse tile straight from the height map, each pixel averages four blocks spread over its area.
+	 */
+	private MapTile sample(int level, int tileX, int tileZ, int gen) {
+		int[] color = new int[TILE_SIZE * TILE_SIZE];
+		int[] height = new int[TILE_SIZE * TILE_SIZE];
+		boolean pixelSet = false;
+		int step = 1 << level;
+		int quarter = step / 4;
+		int baseX = tileX << (TILE_SHIFT + level);
+		int baseZ = tileZ << (TILE_SHIFT + level);
+		int[] colors = new int[4];
+		int[] heights = new int[4];
+		for (int pz = 0; pz < TILE_SIZE; pz++) {
+			for (int px = 0; px < TILE_SIZE; px++) {
+				for (int i = 0; i < 4; i++) {
+					int aX = baseX + px * step + quarter + (i & 1) * quarter * 2;
+					int aZ = baseZ + pz * step + quarter + (i >> 1) * quarter * 2;
+					short h = heightMap.getHeight(aX, aZ);
+					byte id = heightMap.getBlockId(aX, aZ);
+					if (id == -1 || h == -1) {
+						colors[i] = 0;
+						heights[i] = 0;
+						continue;
+					}
+					pixelSet = true;
+					heights[i] = MapCalculator.getHeightColor(h, heightMap.getHeight(aX + 1, aZ + 1));
+					colors[i] = BlockColor.getBlockColor(id, 0).color | 0xff000000;
+				}
+				color[pz * TILE_SIZE + px] = average(colors[0], colors[1], colors[2], colors[3]);
+				height[pz * TILE_SIZE + px] = average(heights[0], heights[1], heights[2], heights[3]);
+			}
+		}
+		if (!pixelSet) {
+			return new MapTile(level, tileX, tileZ, gen, null, null);
+		}
+		return new MapTile(level, tileX, tileZ, gen, color, height);
+	}
+
+	/**
+	 * Averages each 2x2 block of a tile into one pixel of a quarter of the target tile.
+	 */
+	private static void shrink(int[] source, int[] target, int offset) {
+		int half = TILE_SIZE / 2;
+		for (int z = 0; z < half; z++) {
+			for (int x = 0; x < half; x++) {
+				int index = z * 2 * TILE_SIZE + x * 2;
+				target[offset + z * TILE_SIZE + x] = average(source[index], source[index + 1], source[index + TILE_SIZE], source[index + TILE_SIZE + 1]);
+			}
+		}
+	}
+
+	/**
+	 * Averages the channels of the pixels that are not fully transparent.
+	 */
+	static int average(int c1, int c2, int c3, int c4) {
+		int count = (c1 >>> 24 != 0 ? 1 : 0) + (c2 >>> 24 != 0 ? 1 : 0) + (c3 >>> 24 != 0 ? 1 : 0) + (c4 >>> 24 != 0 ? 1 : 0);
+		if (count == 0) {
+			return 0;
+		}
+		int result = 0;
+		for (int shift = 0; shift < 32; shift += 8) {
+			int sum = (c1 >>> shift & 0xff) + (c2 >>> shift & 0xff) + (c3 >>> shift & 0xff) + (c4 >>> shift & 0xff);
+			result |= sum / count << shift;
+		}
+		return result;
+	}
+
+	private void put(MapTile tile) {
+		synchronized (tiles) {
+			Long key = getKey(tile.level, tile.x, tile.z);
+			MapTile old = tiles.remove(key);
+			if (old != null && !old.isEmpty()) {
+				tilesWithPixels--;
+				if (tile.isEmpty()) {
+					freeSlots.add(old.slot);
+				} else {
+					tile.slot = old.slot;
+				}
+			}
+			if (!tile.isEmpty()) {
+				tilesWithPixels++;
+			}
+			tiles.put(key, tile);
+
+			Iterator<MapTile> i = tiles.values().iterator();
+			while ((tilesWithPixels > MAX_TILES || tiles.size() > MAX_ENTRIES) && i.hasNext()) {
+				MapTile eldest = i.next();
+				if (eldest == tile) {
+					continue;
+				}
+				if (!eldest.isEmpty()) {
+					tilesWithPixels--;
+					if (eldest.slot != -1) {
+						freeSlots.add(eldest.slot);
+					}
+				}
+				i.remove();
+			}
+
+			if (!tile.isEmpty() && tile.slot == -1) {
+				tile.slot = freeSlots.removeAt(freeSlots.size() - 1);
+			}
+		}
+	}
+
+	/**
+	 * Lets the next frame upload a few more tiles to the atlases.
+	 */
+	public void beginFrame() {
+		uploadsLeft = UPLOADS_PER_FRAME;
+	}
+
+	/**
+	 * Binds the atlas that holds a layer of the tile, uploading the tile first if needed.
+	 *
+	 * @return false if the tile is empty or could not be uploaded this frame
+	 */
+	public boolean bind(MapTile tile, boolean heightLayer) {
+		synchronized (tiles) {
+			if (tile.isEmpty() || tile.slot == -1 || tiles.get(getKey(tile.level, tile.x, tile.z)) != tile) {
+				return false;
+			}
+			int page = tile.slot / TILES_PER_ATLAS;
+			if (!tile.uploaded) {
+				if (uploadsLeft <= 0) {
+					return false;
+				}
+				uploadsLeft--;
+				int col = tile.slot % ATLAS_TILES * TILE_SIZE;
+				int row = tile.slot % TILES_PER_ATLAS / ATLAS_TILES * TILE_SIZE;
+				upload(getAtlas(colorAtlases, page), tile.getColor(), col, row);
+				upload(getAtlas(heightAtlases, page), tile.getHeight(), col, row);
+				tile.uploaded = true;
+			}
+			GL11.glBindTexture(GL11.GL_TEXTURE_2D, heightLayer ? heightAtlases[page] : colorAtlases[page]);
+			return true;
+		}
+	}
+
+	/**
+	 * @return the texture coordinate of the left (or top) edge of the slot of a tile
+	 */
+	public static float getU(MapTile tile) {
+		return (tile.slot % ATLAS_TILES) / (float) ATLAS_TILES;
+	}
+
+	public static float getV(MapTile tile) {
+		return (tile.slot % TILES_PER_ATLAS / ATLAS_TILES) / (float) ATLAS_TILES;
+	}
+
+	/**
+	 * @return the size of a tile in texture coordinates
+	 */
+	public static float getTileUV() {
+		return 1f / ATLAS_TILES;
+	}
+
+	private int getAtlas(int[] atlases, int page) {
+		if (atlases[page] == 0) {
+			atlases[page] = GL11.glGenTextures();
+			GL11.glBindTexture(GL11.GL_TEXTURE_2D, atlases[page]);
+			GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MIN_FILTER, GL11.GL_NEAREST);
+			GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MAG_FILTER, GL11.GL_NEAREST);
+			GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_WRAP_S, GL11.GL_CLAMP);
+			GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_WRAP_T, GL11.GL_CLAMP);
+			GL11.glTexImage2D(GL11.GL_TEXTURE_2D, 0, GL11.GL_RGBA, ATLAS_SIZE, ATLAS_SIZE, 0, GL12.GL_BGRA, GL12.GL_UNSIGNED_INT_8_8_8_8_REV, (IntBuffer) null);
+		}
+		return atlases[page];
+	}
+
+	private void upload(int texture, int[] pixels, int x, int y) {
+		if (uploadBuffer == null) {
+			uploadBuffer = GLAllocation.createDirectIntBuffer(TILE_SIZE * TILE_SIZE);
+		}
+		uploadBuffer.clear();
+		uploadBuffer.put(pixels);
+		uploadBuffer.flip();
+		GL11.glBindTexture(GL11.GL_TEXTURE_2D, texture);
+		GL11.glTexSubImage2D(GL11.GL_TEXTURE_2D, 0, x, y, TILE_SIZE, TILE_SIZE, GL12.GL_BGRA, GL12.GL_UNSIGNED_INT_8_8_8_8_REV, uploadBuffer);
+	}
+
+	/**
+	 * Deletes the atlas textures, must be called from the render thread.
+	 */
+	public void release() {
+		synchronized (tiles) {
+			for (int i = 0; i < colorAtlases.length; i++) {
+				if (colorAtlases[i] != 0) {
+					GL11.glDeleteTextures(colorAtlases[i]);
+					colorAtlases[i] = 0;
+				}
+				if (heightAtlases[i] != 0) {
+					GL11.glDeleteTextures(heightAtlases[i]);
+					heightAtlases[i] = 0;
+				}
+			}
+			for (MapTile tile : tiles.values()) {
+				tile.uploaded = false;
+			}
+		}
+	}
+}
@@ -16,22 +16,17 @@
  */
 package org.spoutcraft.client.gui.minimap;
 
-import gnu.trove.map.hash.TIntObjectHashMap;
-
 import java.awt.image.BufferedImage;
-import java.awt.image.Raster;
 import java.io.File;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.Random;
 
 import javax.imageio.ImageIO;
 
 import net.minecraft.client.Minecraft;
 import net.minecraft.src.GuiScreen;
 
-import org.spoutcraft.spoutcraftapi.util.map.TIntPairObjectHashMap;
 import org.lwjgl.opengl.GL11;
 import org.spoutcraft.client.SpoutClient;
 import org.spoutcraft.client.chunkcache.HeightMap;
@@ -47,33 +42,36 @@ import org.spoutcraft.spoutcraftapi.gui.WidgetType;
 import org.spoutcraft.spoutcraftapi.property.Property;
 
 public class MapWidget extends GenericScrollable {
-	static TIntObjectHashMap<TIntPairObjectHashMap<Map>> chunks = new TIntObjectHashMap<TIntPairObjectHashMap<Map>>(250);
-	static int levelOfDetail = 1;
-	static final int MIN_LOD = 1;
+	static MapTileCache tiles = null;
+	static int levelOfDetail = 0; //level of the tile pyramid, a pixel covers 2^levelOfDetail blocks
+	static final int MIN_LOD = 0;
 	static HeightMap heightMap;
-	static Map blankMap = new Map(1); //singleton instance used to indicate no pixels to draw in a chunk
 	double scale = 1f;
-	boolean dirty = true;
 	GuiScreen parent = null;
 	BufferedImage imageBuffer = null;
 		
 	private static MapWidgetRenderer renderer = null;
 	
 	private Point lastPlayerPos = new Point((int) Minecraft.theMinecraft.thePlayer.posX, (int) Minecraft.theMinecraft.thePlayer.posZ);
-	private static Random random = new Random();
 	
 	public MapWidget(GuiScreen parent) {
 		if(renderer == null) {
 			renderer = new MapWidgetRenderer();
 			renderer.start();
 		}
-		levelOfDetail = 1;
+		levelOfDetail = 0;
 		this.parent = parent;
 		HeightMap newheightMap = HeightMap.getHeightMap(MinimapUtils.getWorldName());
-		if(newheightMap != heightMap) {
-			chunks.clear();
+		if(newheightMap != heightMap || tiles == null) {
+			renderer.clearQueue();
+			if (tiles != null) {
+				tiles.release();
+			}
 			heightMap = newheightMap;
+			tiles = new MapTileCache(heightMap);
 		}
+		//The world has been explored further since the map was last open
+		tiles.invalidate();
 
 		addProperty("scale", new Property() {
 
@@ -107,13 +105,12 @@ public class MapWidget extends GenericScrollable {
 	}
 	
 	private void updateLOD() {
-		int newlod = levelOfDetail;
-		newlod = (int) (1 / scale);
-		if(newlod < MIN_LOD) {
-			newlod = MIN_LOD;
+		int newlod = MIN_LOD;
+		while (newlod < MapTileCache.MAX_LEVEL && scale * (1 << (newlod + 1)) <= 1) {
+			newlod++;
 		}
 		if(newlod != levelOfDetail) {
-			renderer.renderQueue.clear();
+			renderer.clearQueue();
 		}
 		levelOfDetail = newlod;
 	}
@@ -127,65 +124,16 @@ public class MapWidget extends GenericScrollable {
 		}
 	}
 
-	public static Map drawChunk(int x, int z, boolean force) {
-		synchronized(chunks) {
-			Map map = chunks.get(levelOfDetail).get(x, z);
-			if (map == null || (force && map == blankMap)) {
-				map = new Map(16);
-				map.originOffsetX = 0;
-				map.originOffsetY = 0;
-				map.renderSize = 16;
-			} else if (!force) {
-				return map;
-			}
-			boolean pixelSet = false;
-			try {
-				for (int cx = 0; cx < 16; cx++) {
-					for (int cz = 0; cz < 16; cz++) {
-						
-						int aX = x * 16 + cx * levelOfDetail;
-						int aZ = z * 16 + cz * levelOfDetail;
-						
-						short height = heightMap.getHeight(aX, aZ);
-						byte id = heightMap.getBlockId(aX, aZ);
-						if(id == -1 || height == -1) {
-							continue;
-						} else {
-							pixelSet = true;
-						}
-						
-						if(levelOfDetail <= 2) {
-							short reference = heightMap.getHeight(aX + levelOfDetail, aZ + levelOfDetail);
-							int color = MapCalculator.getHeightColor(height, reference);
-							map.heightimg.setARGB(cx, cz, color);
-						}
-						
-						map.setColorPixel(cz, cx, BlockColor.getBlockColor(id, 0).color | 0xff000000);
-					}
-				}
-			}
-			catch (Exception e) {
-				pixelSet = false;
-			}
-			if(pixelSet) {
-				getChunkMap(levelOfDetail).put(x, z, map);
-			}
-			else {
-				getChunkMap(levelOfDetail).put(x, z, blankMap);
-			}
-			return map;
+	/**
+	 * Builds a tile requested by the widget, called from the renderer thread.
+	 */
+	public static void buildTile(long key) {
+		MapTileCache cache = tiles;
+		if (cache != null) {
+			cache.build(MapTileCache.getLevel(key), MapTileCache.getX(key), MapTileCache.getZ(key));
 		}
 	}
-	
-	public static TIntPairObjectHashMap<Map> getChunkMap(int levelOfDetail) {
-		TIntPairObjectHashMap<Map> chunkmap = chunks.get(levelOfDetail);
-		if(chunkmap == null) {
-			chunkmap = new TIntPairObjectHashMap<Map>(500);
-			chunks.put(levelOfDetail, chunkmap);
-		}
-		return chunkmap;
-	}
-	
+
 	public Point mapOutsideToCoords(Point outside) {
 		int x = outside.getX() + scrollX;
 		int y = outside.getY() + scrollY;
@@ -249,35 +197,26 @@ public class MapWidget extends GenericScrollable {
 	}
 	
 	public BufferedImage renderFullImage() {
-		int scrollX = (int) (getScrollPosition(Orientation.HORIZONTAL) / scale);
-		int scrollY = (int) (getScrollPosition(Orientation.VERTICAL) / scale);
-		
-		int 	minChunkX = heightMap.getMinX() + scrollX / 16, 
-				minChunkZ = heightMap.getMinZ() + scrollY / 16, 
-				maxChunkX = 0, 
-				maxChunkZ = 0;
-		int horiz = (int) (getWidth() / 16 / scale) + 1;
-		int vert = (int) (getHeight() / 16 / scale) + 1;
-		maxChunkX = minChunkX + horiz;
-		maxChunkZ = minChunkZ + vert;
-		
-		minChunkX++;
-		minChunkZ++;
-		BufferedImage fullImage = new BufferedImage((maxChunkX - minChunkX) * 16 + 32, (maxChunkZ - minChunkZ) * 16 + 32, BufferedImage.TYPE_INT_ARGB);
-		for (int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++) {
-			for (int chunkZ = minChunkZ; chunkZ <= maxChunkZ; chunkZ++) {
-				Map map = drawChunk(chunkX, chunkZ, dirty);
-				if(map != null && map != blankMap) {
-					Raster raster = map.getColorRaster();
-					int startX = (chunkX - minChunkX) * 16;
-					int startZ = (chunkZ - minChunkZ) * 16;
-					java.awt.image.DataBufferInt buf = (java.awt.image.DataBufferInt)raster.getDataBuffer();
-					int[] srcbuf = buf.getData();
-					fullImage.setRGB(startX, startZ, 16, 16, srcbuf, 0, 16);
+		int shift = MapTileCache.TILE_SHIFT + levelOfDetail;
+		Point min = mapOutsideToCoords(new Point(0, 0));
+		Point max = mapOutsideToCoords(new Point((int) getWidth(), (int) getHeight()));
+		int minTileX = min.getX() >> shift, minTileZ = min.getY() >> shift;
+		int maxTileX = max.getX() >> shift, maxTileZ = max.getY() >> shift;
+
+		BufferedImage fullImage = new BufferedImage((maxTileX - minTileX + 1) * MapTileCache.TILE_SIZE, (maxTileZ - minTileZ + 1) * MapTileCache.TILE_SIZE, BufferedImage.TYPE_INT_ARGB);
+		for (int tileX = minTileX; tileX <= maxTileX; tileX++) {
+			for (int tileZ = minTileZ; tileZ <= maxTileZ; tileZ++) {
+				MapTile tile = tiles.build(levelOfDetail, tileX, tileZ);
+				if (!tile.isEmpty()) {
+					fullImage.setRGB((tileX - minTileX) * MapTileCache.TILE_SIZE, (tileZ - minTileZ) * MapTileCache.TILE_SIZE, MapTileCache.TILE_SIZE, MapTileCache.TILE_SIZE, tile.getColor(), 0, MapTileCache.TILE_SIZE);
 				}
 			}
 		}
-		return fullImage;
+		int startX = (min.getX() - (minTileX << shift)) >> levelOfDetail;
+		int startZ = (min.getY() - (minTileZ << shift)) >> levelOfDetail;
+		int width = Math.max(1, Math.min(fullImage.getWidth() - startX, (max.getX() - min.getX()) >> levelOfDetail));
+		int height = Math.max(1, Math.min(fullImage.getHeight() - startZ, (max.getY() - min.getY()) >> levelOfDetail));
+		return fullImage.getSubimage(startX, startZ, width, height);
 	}
 	
 	public boolean saveToDesktop() {
@@ -333,59 +272,32 @@ public class MapWidget extends GenericScrollable {
 		GL11.glScaled(scale, scale, scale);
 		GL11.glTranslatef(-heightMap.getMinX() * 16, -heightMap.getMinZ() * 16, 0);
 
-		int 	minChunkX = heightMap.getMinX() + scrollX / 16, 
-				minChunkZ = heightMap.getMinZ() + scrollY / 16, 
-				maxChunkX = 0, 
-				maxChunkZ = 0;
-		int horiz = (int) (getWidth() / 16 / scale) + 1;
-		int vert = (int) (getHeight() / 16 / scale) + 1;
-		maxChunkX = minChunkX + horiz;
-		maxChunkZ = minChunkZ + vert;
-		
-		minChunkX = Math.max(minChunkX, heightMap.getMinX());
-		minChunkZ = Math.max(minChunkZ, heightMap.getMinZ());
-		maxChunkX = Math.min(maxChunkX, heightMap.getMaxX());
-		maxChunkZ = Math.min(maxChunkZ, heightMap.getMaxZ());
-				
+		int minX = Math.max(heightMap.getMinX() * 16 + scrollX, heightMap.getMinX() * 16);
+		int minZ = Math.max(heightMap.getMinZ() * 16 + scrollY, heightMap.getMinZ() * 16);
+		int maxX = Math.min(minX + (int) (getWidth() / scale) + 1, heightMap.getMaxX() * 16 + 15);
+		int maxZ = Math.min(minZ + (int) (getHeight() / scale) + 1, heightMap.getMaxZ() * 16 + 15);
+		int shift = MapTileCache.TILE_SHIFT + levelOfDetail;
+
 		GL11.glPushMatrix();
-		synchronized(chunks) {
-			for (int chunkX = minChunkX; chunkX <= maxChunkX; chunkX+=levelOfDetail) {
-				for (int chunkZ = minChunkZ; chunkZ <= maxChunkZ; chunkZ+=levelOfDetail) {
-					Map map = getChunkMap(levelOfDetail).get(chunkX, chunkZ);
-					if(dirty || map == null || random .nextInt(10000) == 0) {
-						renderer.renderQueue.add(new Point(chunkX, chunkZ));
-					}
-					if(map != null && map != blankMap) {
-						GL11.glPushMatrix();
-						int x = chunkX * 16;
-						int y = chunkZ * 16;
-						int width = x + 16 * levelOfDetail;
-						int height = y + 16 * levelOfDetail;
-						map.loadColorImage();
-						MinecraftTessellator tessellator = Spoutcraft.getTessellator();
-						tessellator.startDrawingQuads();
-						tessellator.addVertexWithUV((double) width, (double) height, -90, 1, 1);
-						tessellator.addVertexWithUV((double) width, (double) y, -90, 1, 0);
-						tessellator.addVertexWithUV((double) x, (double) y, -90, 0, 0);
-						tessellator.addVertexWithUV((double) x, (double) height, -90, 0, 1);
-						tessellator.draw();
-	//					GL11.glBlendFunc(GL11.GL_SRC_ALPHA, GL11.GL_ONE_MINUS_SRC_ALPHA);
-	//					RenderUtil.drawRectangle(x, y, width, height, 0x88ffffff);
-						if(MinimapConfig.getInstance().isHeightmap()) {
-							GL11.glBlendFunc(GL11.GL_SRC_ALPHA, GL11.GL_DST_COLOR);
-							map.loadHeightImage();
-							tessellator.startDrawingQuads();
-							tessellator.addVertexWithUV((double) width, (double) height, -90, 1, 1);
-							tessellator.addVertexWithUV((double) width, (double) y, -90, 1, 0);
-							tessellator.addVertexWithUV((double) x, (double) y, -90, 0, 0);
-							tessellator.addVertexWithUV((double) x, (double) height, -90, 0, 1);
-							tessellator.draw();
-						}
-						GL11.glPopMatrix();
-					}
+		tiles.beginFrame();
+		for (int tileX = minX >> shift; tileX <= maxX >> shift; tileX++) {
+			for (int tileZ = minZ >> shift; tileZ <= maxZ >> shift; tileZ++) {
+				MapTile tile = tiles.get(levelOfDetail, tileX, tileZ);
+				if (tile == null || !tiles.isCurrent(tile)) {
+					renderer.queue(MapTileCache.getKey(levelOfDetail, tileX, tileZ));
 				}
+				drawTile(tileX, tileZ, false);
 			}
 		}
+		if(MinimapConfig.getInstance().isHeightmap() && levelOfDetail <= 1) {
+			GL11.glBlendFunc(GL11.GL_SRC_ALPHA, GL11.GL_DST_COLOR);
+			for (int tileX = minX >> shift; tileX <= maxX >> shift; tileX++) {
+				for (int tileZ = minZ >> shift; tileZ <= maxZ >> shift; tileZ++) {
+					drawTile(tileX, tileZ, true);
+				}
+			}
+			GL11.glBlendFunc(GL11.GL_SRC_ALPHA, GL11.GL_ONE_MINUS_SRC_ALPHA);
+		}
 		int x = (int) SpoutClient.getHandle().thePlayer.posX;
 		int z = (int) SpoutClient.getHandle().thePlayer.posZ;
 		
@@ -407,7 +319,6 @@ public class MapWidget extends GenericScrollable {
 
 		GL11.glEnable(2929);
 		GL11.glDisable(3042);
-		dirty = false;
 		
 		Point newpos = getPlayerPosition();
 		if(lastPlayerPos.getX() != newpos.getX() || lastPlayerPos.getY() != newpos.getY()) {
@@ -416,6 +327,39 @@ public class MapWidget extends GenericScrollable {
 		}
 	}
 	
+	/**
+	 * Draws a tile of the current level, or the matching part of a coarser tile while it is not available yet.
+	 */
+	private void drawTile(int tileX, int tileZ, boolean heightLayer) {
+		for (int up = 0; levelOfDetail + up <= MapTileCache.MAX_LEVEL; up++) {
+			MapTile tile = tiles.get(levelOfDetail + up, tileX >> up, tileZ >> up);
+			if (tile == null) {
+				continue;
+			}
+			if (tile.isEmpty()) {
+				return;
+			}
+			if (tiles.bind(tile, heightLayer)) {
+				int size = MapTileCache.TILE_SIZE << levelOfDetail;
+				int x = tileX * size;
+				int y = tileZ * size;
+				int width = x + size;
+				int height = y + size;
+				float part = MapTileCache.getTileUV() / (1 << up);
+				float u = MapTileCache.getU(tile) + (tileX & ((1 << up) - 1)) * part;
+				float v = MapTileCache.getV(tile) + (tileZ & ((1 << up) - 1)) * part;
+				MinecraftTessellator tessellator = Spoutcraft.getTessellator();
+				tessellator.startDrawingQuads();
+				tessellator.addVertexWithUV((double) width, (double) height, -90, u + part, v + part);
+				tessellator.addVertexWithUV((double) width, (double) y, -90, u + part, v);
+				tessellator.addVertexWithUV((double) x, (double) y, -90, u, v);
+				tessellator.addVertexWithUV((double) x, (double) height, -90, u, v + part);
+				tessellator.draw();
+				return;
+			}
+		}
+	}
+
 	private void drawPOI(String name, int x, int z, int color) {
 		int mouseX = (int) ((getScreen().getMouseX() - getX() + scrollX) / scale + heightMap.getMinX() * 16);
 		int mouseY = (int) ((getScreen().getMouseY() - getY() + scrollY) / scale + heightMap.getMinZ() * 16);
@@ -16,27 +16,49 @@
  */
 package org.spoutcraft.client.gui.minimap;
 
+import java.util.Collections;
 import java.util.NoSuchElementException;
 import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
 
-import org.apache.commons.lang3.tuple.Pair;
-import org.spoutcraft.spoutcraftapi.gui.Point;
-
 public class MapWidgetRenderer extends Thread {
-	public Queue<Point> renderQueue = new LinkedBlockingQueue<Point>();
+	/**
+	 * Keys of the tiles to build, see MapTileCache.getKey
+	 */
+	private final Queue<Long> renderQueue = new LinkedBlockingQueue<Long>();
+	/**
+	 * The keys in renderQueue, so the widget can check every visible tile each frame
+	 */
+	private final Set<Long> queued = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
 
 	public MapWidgetRenderer() {
 		super();
 	}
 
+	/**
+	 * Queues a tile to be built, unless it is queued already
+	 */
+	public void queue(long key) {
+		if (queued.add(key)) {
+			renderQueue.add(key);
+		}
+	}
+
+	public void clearQueue() {
+		renderQueue.clear();
+		queued.clear();
+	}
+
 	@Override
 	public void run() {
 		while(true) {
 			while (!renderQueue.isEmpty()) {
 				try {
-					Point coords = renderQueue.remove();
-					MapWidget.drawChunk(coords.getX(), coords.getY(), true);
+					Long key = renderQueue.remove();
+					queued.remove(key);
+					MapWidget.buildTile(key);
 				} catch(NoSuchElementException e) {
 					break;
 				} catch(Exception e) {
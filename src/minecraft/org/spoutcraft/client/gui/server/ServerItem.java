@@ -116,7 +116,7 @@ public class ServerItem implements ListWidgetItem {
 
 		if (databaseId != -1) {
 			String iconUrl = "http://static.spout.org/server/thumb/"+databaseId+".png";
-			Texture icon = CustomTextureManager.getTextureFromUrl(iconUrl);
+			Texture icon = CustomTextureManager.getTextureFromUrlAsync(iconUrl);
 			if (icon == null) {
 				CustomTextureManager.downloadTexture(iconUrl, true);
 				icon = CustomTextureManager.getTextureFromJar("/res/unknown_server_icon.png");
@@ -221,7 +221,7 @@ public class ServerItem implements ListWidgetItem {
 
 		if (country != null) {
 			String url = "http://cdn.spout.org/img/flag/"+country.toLowerCase()+".png";
-			Texture icon = CustomTextureManager.getTextureFromUrl("Spoutcraft", url);
+			Texture icon = CustomTextureManager.getTextureFromUrlAsync("Spoutcraft", url);
 			if (icon != null) {
 				GL11.glPushMatrix();
 				GL11.glTranslatef(x + width - iconMargin - 16, y + 20, 0);
@@ -134,7 +134,7 @@ public class TextureItem implements ListWidgetItem {
 		}
 
 		String iconUrl = getIconUrl();
-		Texture icon = CustomTextureManager.getTextureFromUrl(iconUrl);
+		Texture icon = CustomTextureManager.getTextureFromUrlAsync(iconUrl);
 		if (icon == null) {
 			CustomTextureManager.downloadTexture(iconUrl, true);
 		} else {
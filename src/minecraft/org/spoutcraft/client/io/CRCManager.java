@@ -16,10 +16,27 @@
  */
 package org.spoutcraft.client.io;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
 
+/**
+ * Keeps the CRCs servers expect for the files they cache, and the CRCs of the files on disk.
+ *
+ * The CRC of a file on disk is kept together with its size and modification time, and is computed again only when
+ * either changed. These entries are saved in the cache directory when leaving a world, so the files of a server are
+ * not read again the next time it is joined.
+ */
 public class CRCManager {
+	private static final String FILE_CRCS = "crc.properties";
 	private static HashMap<String, Long> fileNameToCRC = new HashMap<String, Long>();
+	private static Properties fileCRCs = null;
+	private static boolean fileCRCsChanged = false;
 
 	public static long getCRC(String fileName) {
 		Long result = fileNameToCRC.get(fileName);
@@ -35,5 +52,93 @@ public class CRCManager {
 
 	public static void clear() {
 		fileNameToCRC.clear();
+		saveFileCRCs();
+	}
+
+	/**
+	 * Gets the CRC of the file, reading the file only if it changed since its CRC was last computed
+	 * @return the CRC, or 0 if the file could not be read
+	 */
+	public static synchronized long getFileCRC(File file, byte[] buffer) {
+		String value = getFileCRCs().getProperty(file.getAbsolutePath());
+		if (value != null) {
+			String[] split = value.split("\t");
+			if (split.length == 3) {
+				try {
+					if (Long.parseLong(split[0]) == file.length() && Long.parseLong(split[1]) == file.lastModified()) {
+						return Long.parseLong(split[2]);
+					}
+				} catch (NumberFormatException e) {
+				}
+			}
+		}
+		long crc = FileUtil.getCRC(file, buffer);
+		setFileCRC(file, crc);
+		return crc;
+	}
+
+	/**
+	 * Records the CRC of a file that was just written, so it is not read again to compute it
+	 */
+	public static synchronized void setFileCRC(File file, long crc) {
+		if (crc == 0 || !file.exists()) {
+			getFileCRCs().remove(file.getAbsolutePath());
+		} else {
+			getFileCRCs().setProperty(file.getAbsolutePath(), file.length() + "\t" + file.lastModified() + "\t" + crc);
+		}
+		fileCRCsChanged = true;
+	}
+
+	private static Properties getFileCRCs() {
+		if (fileCRCs == null) {
+			fileCRCs = new Properties();
+			File file = new File(FileUtil.getCacheDirectory(), FILE_CRCS);
+			if (file.exists()) {
+				FileInputStream in = null;
+				try {
+					in = new FileInputStream(file);
+					fileCRCs.load(in);
+				} catch (IOException e) {
+					fileCRCs.clear();
+				} finally {
+					if (in != null) {
+						try {
+							in.close();
+						} catch (IOException e) {
+						}
+					}
+				}
+			}
+		}
+		return fileCRCs;
+	}
+
+	/**
+	 * Saves the CRCs of the files on disk, leaving out files that no longer exist
+	 */
+	private static synchronized void saveFileCRCs() {
+		if (!fileCRCsChanged) {
+			return;
+		}
+		Iterator<Map.Entry<Object, Object>> i = getFileCRCs().entrySet().iterator();
+		while (i.hasNext()) {
+			if (!new File((String) i.next().getKey()).exists()) {
+				i.remove();
+			}
+		}
+		FileOutputStream out = null;
+		try {
+			out = new FileOutputStream(new File(FileUtil.getCacheDirectory(), FILE_CRCS));
+			fileCRCs.store(out, null);
+			fileCRCsChanged = false;
+		} catch (IOException e) {
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+				}
+			}
+		}
 	}
 }
@@ -16,13 +16,26 @@
  */
 package org.spoutcraft.client.io;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.lwjgl.opengl.GL11;
+import org.newdawn.slick.opengl.ImageDataFactory;
+import org.newdawn.slick.opengl.InternalTextureLoader;
+import org.newdawn.slick.opengl.LoadableImageData;
 import org.newdawn.slick.opengl.Texture;
 import org.newdawn.slick.opengl.TextureLoader;
 
@@ -31,9 +44,93 @@ import net.minecraft.client.Minecraft;
 import org.spoutcraft.client.SpoutClient;
 import org.spoutcraft.client.gui.minimap.ZanMinimap;
 
+/**
+ * Loads the textures of addons and plugins.
+ *
+ * The getTextureFrom methods load a texture on the calling thread and keep it until resetTextures, because their
+ * callers may hold on to the texture or its id. The getTextureFromUrlAsync and getTextureFromPathAsync methods are for
+ * callers that ask for their texture every frame, such as widgets. They decode the image on a worker thread and return
+ * null until it is uploaded by uploadTextures, and release the textures that were used least recently once the textures
+ * loaded this way use more than the texture budget.
+ *
+ * Apart from the decoding, everything here runs on the render thread.
+ */
 public class CustomTextureManager {
+	private static final int DECODE_THREADS = 2;
+	/**
+	 * Time uploadTextures may spend per frame, it always uploads at least one texture
+	 */
+	private static final long UPLOAD_BUDGET_NANOS = 4000000L;
 	static HashMap<String, Texture> textures = new HashMap<String, Texture>();
 	static HashMap<String, File> cacheTextureFiles = new HashMap<String, File>();
+	/**
+	 * Textures loaded by getTextureFromPathAsync, least recently used first
+	 */
+	static LinkedHashMap<String, Texture> recentTextures = new LinkedHashMap<String, Texture>(16, 0.75F, true);
+	private static long recentTextureBytes = 0L;
+	private static long textureBudget = 64L * 1024L * 1024L;
+	private static final HashSet<String> decoding = new HashSet<String>();
+	/**
+	 * Modification time of the files that could not be decoded, they are tried again once they change
+	 */
+	private static final HashMap<String, Long> failedDecodes = new HashMap<String, Long>();
+	private static final ConcurrentLinkedQueue<DecodedTexture> decoded = new ConcurrentLinkedQueue<DecodedTexture>();
+	private static int generation = 0;
+	private static final ExecutorService decoder = Executors.newFixedThreadPool(DECODE_THREADS, new ThreadFactory() {
+		private final AtomicInteger count = new AtomicInteger();
+
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "Texture Decode Thread " + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	private static class DecodedTexture {
+		final String path;
+		final int generation;
+		final long modified;
+		final LoadableImageData data;
+
+		DecodedTexture(String path, int generation, long modified, LoadableImageData data) {
+			this.path = path;
+			this.generation = generation;
+			this.modified = modified;
+			this.data = data;
+		}
+	}
+
+	private static class DecodeTask implements Runnable {
+		private final String path;
+		private final int generation;
+
+		DecodeTask(String path, int generation) {
+			this.path = path;
+			this.generation = generation;
+		}
+
+		public void run() {
+			File file = new File(path);
+			long modified = file.lastModified();
+			LoadableImageData data = null;
+			InputStream stream = null;
+			try {
+				stream = new BufferedInputStream(new FileInputStream(file));
+				data = ImageDataFactory.getImageDataFor(getFormat(path));
+				data.loadImage(stream, true, null);
+			} catch (Exception e) {
+				data = null;
+			} finally {
+				if (stream != null) {
+					try {
+						stream.close();
+					} catch (IOException e) {
+					}
+				}
+			}
+			decoded.add(new DecodedTexture(path, generation, modified, data));
+		}
+	}
 
 	public static void downloadTexture(String url) {
 		downloadTexture(null, url, false);
@@ -121,11 +218,17 @@ public class CustomTextureManager {
 			if (textures.containsKey(path)) {
 				return textures.get(path);
 			}
-			Texture texture = null;
+			Texture texture = recentTextures.remove(path);
+			if (texture != null) {
+				// The caller may keep it, so it must not be released any more
+				recentTextureBytes -= getSize(texture);
+				textures.put(path, texture);
+				return texture;
+			}
 			try {
 				FileInputStream stream = new FileInputStream(path);
 				if (stream.available() > 0) {
-					texture = TextureLoader.getTexture(path.toLowerCase().endsWith(".png") ? "PNG" : "JPG", stream, true,  GL11.GL_NEAREST);
+					texture = TextureLoader.getTexture(getFormat(path), stream, true,  GL11.GL_NEAREST);
 				}
 				stream.close();
 			} catch (IOException e) { }
@@ -172,12 +275,113 @@ public class CustomTextureManager {
 		}
 	}
 
+	/**
+	 * Gets the texture of the image file without waiting for it to be decoded
+	 * @return the texture, or null while it is being loaded or if the file is not an image
+	 */
+	public static Texture getTextureFromPathAsync(String path) {
+		Texture texture = textures.get(path);
+		if (texture == null) {
+			texture = recentTextures.get(path);
+		}
+		if (texture == null && !decoding.contains(path)) {
+			boolean wasSandboxed = SpoutClient.isSandboxed();
+			SpoutClient.disableSandbox();
+			try {
+				Long failed = failedDecodes.get(path);
+				if (failed == null || failed != new File(path).lastModified()) {
+					decoding.add(path);
+					decoder.execute(new DecodeTask(path, generation));
+				}
+			} finally {
+				SpoutClient.enableSandbox(wasSandboxed);
+			}
+		}
+		return texture;
+	}
+
+	/**
+	 * Uploads the textures decoded since the last frame, until the upload budget of this frame is used up
+	 */
+	public static void uploadTextures() {
+		long start = System.nanoTime();
+		DecodedTexture next;
+		while ((next = decoded.poll()) != null) {
+			if (next.generation != generation) {
+				continue;
+			}
+			decoding.remove(next.path);
+			if (next.data == null) {
+				failedDecodes.put(next.path, next.modified);
+				continue;
+			}
+			if (textures.containsKey(next.path) || recentTextures.containsKey(next.path)) {
+				continue;
+			}
+			try {
+				Texture texture = InternalTextureLoader.get().getTexture(next.data, GL11.GL_NEAREST);
+				recentTextures.put(next.path, texture);
+				recentTextureBytes += getSize(texture);
+				trimTextures(next.path);
+			} catch (IOException e) {
+				failedDecodes.put(next.path, next.modified);
+			}
+			if (System.nanoTime() - start > UPLOAD_BUDGET_NANOS) {
+				break;
+			}
+		}
+	}
+
+	public static void setTextureBudget(long bytes) {
+		textureBudget = Math.max(0L, bytes);
+		trimTextures(null);
+	}
+
+	public static long getTextureBudget() {
+		return textureBudget;
+	}
+
+	/**
+	 * Releases the least recently used textures loaded by getTextureFromPathAsync until they fit in the texture budget
+	 * @param keep the path of the texture that was just loaded, it is never released
+	 */
+	private static void trimTextures(String keep) {
+		Iterator<Map.Entry<String, Texture>> i = recentTextures.entrySet().iterator();
+		while (recentTextureBytes > textureBudget && i.hasNext()) {
+			Map.Entry<String, Texture> entry = i.next();
+			if (entry.getKey().equals(keep)) {
+				continue;
+			}
+			recentTextureBytes -= getSize(entry.getValue());
+			entry.getValue().release();
+			i.remove();
+		}
+	}
+
+	private static long getSize(Texture texture) {
+		return 4L * texture.getTextureWidth() * texture.getTextureHeight();
+	}
+
+	private static String getFormat(String path) {
+		return path.toLowerCase().endsWith(".png") ? "PNG" : "JPG";
+	}
+
 	public static void resetTextures() {
 		for (Texture texture : textures.values()) {
 			texture.release();
 		}
+		for (Texture texture : recentTextures.values()) {
+			texture.release();
+		}
 		cacheTextureFiles.clear();
 		textures.clear();
+		recentTextures.clear();
+		recentTextureBytes = 0L;
+		// Decodes still running belong to the old generation and are dropped by uploadTextures
+		generation++;
+		decoding.clear();
+		decoded.clear();
+		failedDecodes.clear();
 		ZanMinimap.instance.texman.reset();
 	}
 
@@ -212,6 +416,33 @@ public class CustomTextureManager {
 		}
 	}
 
+	public static Texture getTextureFromUrlAsync(String url) {
+		return getTextureFromUrlAsync(null, url);
+	}
+
+	/**
+	 * Gets the texture of a downloaded file without waiting for it to be decoded, see getTextureFromPathAsync
+	 * @return the texture, or null while it is being downloaded or loaded
+	 */
+	public static Texture getTextureFromUrlAsync(String plugin, String url) {
+		boolean wasSandboxed = SpoutClient.isSandboxed();
+		SpoutClient.disableSandbox();
+		try {
+			File texture = getTextureFile(plugin, url);
+			if (!texture.exists()) {
+				return null;
+			}
+			try {
+				return getTextureFromPathAsync(texture.getCanonicalPath());
+			} catch (IOException e) {
+				e.printStackTrace();
+				return null;
+			}
+		} finally {
+			SpoutClient.enableSandbox(wasSandboxed);
+		}
+	}
+
 	public static String getTexturePathFromUrl(String url) {
 		return getTexturePathFromUrl(null, url);
 	}
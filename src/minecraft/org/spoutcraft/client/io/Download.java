@@ -41,8 +41,12 @@ public class Download {
 		return new File(downloading, filename);
 	}
 
+	public File getFile() {
+		return new File(directory, filename);
+	}
+
 	public boolean isDownloaded() {
-		return (new File(directory, filename)).exists();
+		return getFile().exists();
 	}
 
 	public void move() {
@@ -17,51 +17,134 @@
 package org.spoutcraft.client.io;
 
 import java.io.BufferedOutputStream;
+import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.spoutcraft.client.SpoutClient;
 
-public class FileDownloadThread extends Thread{
+/**
+ * Downloads files on a small pool of worker threads, with at most MAX_PER_HOST downloads from the same host
+ * at a time. Downloads of a host that has no free connection wait in that host's queue.
+ *
+ * Downloaded files go through the shared {@link FileStore}, see transfer.
+ * The completed actions of downloads run on the main thread, see onTick.
+ */
+public class FileDownloadThread {
+	private static final int WORKERS = 4;
+	private static final int MAX_PER_HOST = 2;
+	private static final int BUFFER_SIZE = 64 * 1024;
 	private static FileDownloadThread instance = null;
-	private final ConcurrentLinkedQueue<Download> downloads = new ConcurrentLinkedQueue<Download>();
+	private final ExecutorService pool = Executors.newFixedThreadPool(WORKERS, new ThreadFactory() {
+		private final AtomicInteger count = new AtomicInteger();
+
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "File Download Thread " + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	});
+	private static final ThreadLocal<byte[]> buffers = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[BUFFER_SIZE];
+		}
+	};
+	/**
+	 * Urls that are queued or being downloaded, and every download of the url that was added meanwhile. Only the first
+	 * one is queued, the others share its transfer. Guarded by pending
+	 */
+	private final HashMap<String, LinkedList<Download>> pending = new HashMap<String, LinkedList<Download>>();
+	/**
+	 * Downloads waiting for a connection to their host, and the number of connections in use per host. Guarded by hosts
+	 */
+	private final HashMap<String, LinkedList<Download>> hosts = new HashMap<String, LinkedList<Download>>();
+	private final HashMap<String, Integer> connections = new HashMap<String, Integer>();
 	private final ConcurrentLinkedQueue<Runnable> actions = new ConcurrentLinkedQueue<Runnable>();
-	private final HashSet<String> failedUrls = new HashSet<String>();
-	private final byte[] buffer = new byte[1024*1024];
+	private final Set<String> failedUrls = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private final AtomicInteger remaining = new AtomicInteger();
 	private volatile String activeDownload = null;
 	public static AtomicLong preCacheCompleted = new AtomicLong(0L);
 
+	/**
+	 * Bytes per second all downloads together may use, 0 for no limit
+	 */
+	private static volatile long bandwidthLimit = 0L;
+	private static final Object budgetLock = new Object();
+	private static long budget = 0L;
+	private static long budgetTime = System.nanoTime();
+
 	protected FileDownloadThread() {
-		super("File Download Thread");
 	}
 
 	public static FileDownloadThread getInstance() {
 		if (instance == null) {
 			instance = new FileDownloadThread();
-			instance.start();
 		}
 		return instance;
 	}
 
+	public static void setBandwidthLimit(long bytesPerSecond) {
+		bandwidthLimit = Math.max(0L, bytesPerSecond);
+	}
+
+	public static long getBandwidthLimit() {
+		return bandwidthLimit;
+	}
+
 	public void addToDownloadQueue(Download download) {
-		downloads.add(download);
+		String url = download.getDownloadUrl();
+		if (failedUrls.contains(url)) {
+			return;
+		}
+		synchronized (pending) {
+			LinkedList<Download> attached = pending.get(url);
+			if (attached != null) {
+				attached.add(download);
+				return;
+			}
+			attached = new LinkedList<Download>();
+			attached.add(download);
+			pending.put(url, attached);
+		}
+		remaining.incrementAndGet();
+		String host = getHost(url);
+		synchronized (hosts) {
+			Integer used = connections.get(host);
+			if (used != null && used >= MAX_PER_HOST) {
+				LinkedList<Download> queue = hosts.get(host);
+				if (queue == null) {
+					queue = new LinkedList<Download>();
+					hosts.put(host, queue);
+				}
+				queue.add(download);
+				return;
+			}
+			connections.put(host, used == null ? 1 : used + 1);
+		}
+		submit(host, download);
 	}
 
 	public boolean isDownloading(String url) {
-		Iterator<Download> i = downloads.iterator();
-		while (i.hasNext()) {
-			Download download = i.next();
-			if (download.getDownloadUrl().equals(url)) {
-				return true;
-			}
+		synchronized (pending) {
+			return pending.containsKey(url);
 		}
-		return false;
 	}
 
 	public void onTick() {
@@ -83,9 +166,21 @@ public class FileDownloadThread extends Thread{
 		}
 	}
 
+	/**
+	 * Drops the downloads that wait for a connection, downloads already running finish.
+	 */
 	public void abort() {
-		this.interrupt();
-		downloads.clear();
+		synchronized (hosts) {
+			for (LinkedList<Download> queue : hosts.values()) {
+				for (Download download : queue) {
+					synchronized (pending) {
+						pending.remove(download.getDownloadUrl());
+					}
+					remaining.decrementAndGet();
+				}
+			}
+			hosts.clear();
+		}
 		actions.clear();
 		failedUrls.clear();
 	}
@@ -95,68 +190,226 @@ public class FileDownloadThread extends Thread{
 	}
 
 	public int getDownloadsRemaining() {
-		return downloads.size();
+		return remaining.get();
+	}
+
+	private void submit(final String host, final Download download) {
+		pool.execute(new Runnable() {
+			public void run() {
+				Download next = download;
+				while (next != null) {
+					download(next);
+					next = finished(host);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Frees the connection of a finished download
+	 * @return the next download waiting for the host, which takes over the connection
+	 */
+	private Download finished(String host) {
+		synchronized (hosts) {
+			LinkedList<Download> queue = hosts.get(host);
+			if (queue != null) {
+				Download next = queue.poll();
+				if (queue.isEmpty()) {
+					hosts.remove(host);
+				}
+				if (next != null) {
+					return next;
+				}
+			}
+			Integer used = connections.get(host);
+			if (used == null || used <= 1) {
+				connections.remove(host);
+			} else {
+				connections.put(host, used - 1);
+			}
+			return null;
+		}
 	}
 
-	public void run() {
+	/**
+	 * Downloads the url once and copies the file to every download of the url, including the ones added while it runs
+	 */
+	private void download(Download next) {
+		String url = next.getDownloadUrl();
+		boolean failed = failedUrls.contains(url);
+		FileStore.Entry stored = null;
+		int done = 0;
 		while (true) {
-			Download next = downloads.poll();
-			if (next != null && !failedUrls.contains(next.getDownloadUrl())) {
-				try {
-					if (!next.isDownloaded()) {
+			Download download;
+			synchronized (pending) {
+				LinkedList<Download> attached = pending.get(url);
+				if (attached == null || done >= attached.size()) {
+					pending.remove(url);
+					break;
+				}
+				download = attached.get(done++);
+			}
+			if (failed) {
+				continue;
+			}
+			try {
+				if (!download.isDownloaded()) {
+					if (stored == null) {
 						//System.out.println("Downloading File: " + next.getDownloadUrl());
-						activeDownload = FileUtil.getFileName(next.getDownloadUrl());
-						URL url = new URL(next.getDownloadUrl());
-						URLConnection conn = url.openConnection();
-						conn.setRequestProperty("User-Agent", "Mozilla/5.0 (Macintosh; U; Intel Mac OS X 10.4; en-US; rv:1.9.2.2) Gecko/20100316 Firefox/3.6.2");
-						conn.setReadTimeout(2000); //2s timeout
-						InputStream in = conn.getInputStream();
-
-						FileOutputStream fos = new FileOutputStream(next.getTempFile());
-						BufferedOutputStream bos = new BufferedOutputStream(fos);
-
-						long length = conn.getContentLength();
-						int bytes;
-						long totalBytes = 0;
-						long last = 0;
-
-						long step = Math.max(1024*1024, length / 8);
-
-						while ((bytes = in.read(buffer)) >= 0) {
-							bos.write(buffer, 0, bytes);
-							totalBytes += bytes;
-							next.setProgress((int) (((double)totalBytes / (double)length) * 100));
-							if (length > 0 && totalBytes > (last + step)) {
-								last = totalBytes;
-								long mb = totalBytes/(1024*1024);
-								System.out.println("Downloading: " + next.getDownloadUrl() + " " + mb + "MB/" + (length/(1024*1024)));
-							}
-							try {
-								Thread.sleep(25);
-							} catch (InterruptedException e) {
-
-							}
-						}
-						in.close();
-						bos.close();
-						next.move();
-						//System.out.println("File moved to: " + next.directory.getCanonicalPath());
+						activeDownload = FileUtil.getFileName(url);
 						try {
-							sleep(10); //cool off after heavy network useage
-						} catch (InterruptedException e) {}
+							stored = transfer(download);
+						} finally {
+							activeDownload = null;
+						}
 					}
-					if (next.getCompletedAction() != null) {
-						actions.add(next.getCompletedAction());
+					if (!FileStore.copy(stored, download.getFile())) {
+						throw new IOException("Could not copy " + url + " from the file store");
 					}
-				} catch (Exception e) {
-					failedUrls.add(next.getDownloadUrl());
-					//System.out.println("Download of " + next.getDownloadUrl() + " Failed!");
+					CRCManager.setFileCRC(download.getFile(), stored.getCRC());
+					//System.out.println("File copied to: " + next.directory.getCanonicalPath());
 				}
-				activeDownload = null;
-			} else {
-				try {
-					sleep(100);
-				} catch (InterruptedException e) {}
+				if (download.getCompletedAction() != null) {
+					actions.add(download.getCompletedAction());
+				}
+			} catch (Exception e) {
+				failed = true;
+				failedUrls.add(url);
+				//System.out.println("Download of " + next.getDownloadUrl() + " Failed!");
+			}
+		}
+		remaining.decrementAndGet();
+	}
+
+	/**
+	 * Downloads the url of the download into the file store. The copy of an earlier download is revalidated with its
+	 * ETag and Last-Modified, and a partial download from an earlier attempt is resumed if the file did not change.
+	 * @return what the url resolves to in the file store
+	 */
+	private FileStore.Entry transfer(Download next) throws IOException {
+		String address = next.getDownloadUrl();
+		FileStore.Entry cached = FileStore.getEntry(address);
+		FileStore.Entry partial = FileStore.getPartial(address);
+		File part = FileStore.getPartialFile(address);
+		long offset = partial != null ? part.length() : 0L;
+
+		URLConnection conn = openConnection(address, cached, partial, offset);
+		int status = conn instanceof HttpURLConnection ? ((HttpURLConnection) conn).getResponseCode() : HttpURLConnection.HTTP_OK;
+		if (status == 416) { //Range Not Satisfiable, the partial file does not belong to the current file
+			((HttpURLConnection) conn).disconnect();
+			part.delete();
+			FileStore.setPartial(address, null, null);
+			offset = 0L;
+			conn = openConnection(address, cached, null, offset);
+			status = conn instanceof HttpURLConnection ? ((HttpURLConnection) conn).getResponseCode() : HttpURLConnection.HTTP_OK;
+		}
+		if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+			((HttpURLConnection) conn).disconnect();
+			if (cached == null) {
+				throw new IOException(address + " answered a request without validators with 304 Not Modified");
+			}
+			return cached;
+		}
+		if (status != HttpURLConnection.HTTP_PARTIAL) {
+			offset = 0L;
+		}
+		// The CRC of the part downloaded before is where the CRC of the rest continues
+		long crc = offset > 0L ? FileUtil.getCRC(part, buffers.get()) : FileUtil.CRC_SEED;
+		String etag = conn.getHeaderField("ETag");
+		String modified = conn.getHeaderField("Last-Modified");
+
+		InputStream in = conn.getInputStream();
+		BufferedOutputStream bos = null;
+		try {
+			bos = new BufferedOutputStream(new FileOutputStream(part, offset > 0L));
+			FileStore.setPartial(address, etag, modified);
+			byte[] buffer = buffers.get();
+
+			long length = conn.getContentLength();
+			if (length >= 0L) {
+				length += offset;
+			}
+			int bytes;
+			long totalBytes = offset;
+			long last = offset;
+
+			long step = Math.max(1024*1024, length / 8);
+
+			while ((bytes = in.read(buffer)) >= 0) {
+				bos.write(buffer, 0, bytes);
+				crc = FileUtil.updateCRC(crc, buffer, 0, bytes);
+				totalBytes += bytes;
+				next.setProgress((int) (((double)totalBytes / (double)length) * 100));
+				if (length > 0 && totalBytes > (last + step)) {
+					last = totalBytes;
+					long mb = totalBytes/(1024*1024);
+					System.out.println("Downloading: " + next.getDownloadUrl() + " " + mb + "MB/" + (length/(1024*1024)));
+				}
+				throttle(bytes);
+			}
+		} finally {
+			in.close();
+			if (bos != null) {
+				bos.close();
+			}
+		}
+		return FileStore.complete(address, etag, modified, crc);
+	}
+
+	/**
+	 * Opens a connection to the url, revalidating the cached copy and resuming the partial file from the offset if given
+	 */
+	private static URLConnection openConnection(String address, FileStore.Entry cached, FileStore.Entry partial, long offset) throws IOException {
+		URL url = new URL(address);
+		URLConnection conn = url.openConnection();
+		conn.setRequestProperty("User-Agent", "Mozilla/5.0 (Macintosh; U; Intel Mac OS X 10.4; en-US; rv:1.9.2.2) Gecko/20100316 Firefox/3.6.2");
+		conn.setReadTimeout(2000); //2s timeout
+		if (cached != null) {
+			if (cached.getETag() != null) {
+				conn.setRequestProperty("If-None-Match", cached.getETag());
+			}
+			if (cached.getLastModified() != null) {
+				conn.setRequestProperty("If-Modified-Since", cached.getLastModified());
+			}
+		}
+		if (partial != null && offset > 0L) {
+			conn.setRequestProperty("Range", "bytes=" + offset + "-");
+			conn.setRequestProperty("If-Range", partial.getETag() != null ? partial.getETag() : partial.getLastModified());
+		}
+		return conn;
+	}
+
+	private static String getHost(String url) {
+		try {
+			return new URL(url).getHost();
+		} catch (IOException e) {
+			return "";
+		}
+	}
+
+	/**
+	 * Takes bytes from the shared budget, which refills with bandwidthLimit bytes per second, and waits while it is
+	 * used up. The budget holds at most one second worth of bytes.
+	 */
+	private static void throttle(int bytes) {
+		long limit = bandwidthLimit;
+		if (limit <= 0L) {
+			return;
+		}
+		long wait;
+		synchronized (budgetLock) {
+			long now = System.nanoTime();
+			long elapsed = Math.min(now - budgetTime, 1000000000L);
+			budget = Math.min(limit, budget + elapsed * limit / 1000000000L);
+			budgetTime = now;
+			budget -= bytes;
+			wait = budget < 0L ? -budget * 1000L / limit : 0L;
+		}
+		if (wait > 0L) {
+			try {
+				Thread.sleep(wait);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
 			}
 		}
 	}
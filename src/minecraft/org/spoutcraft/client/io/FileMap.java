@@ -16,70 +16,98 @@
  */
 package org.spoutcraft.client.io;
 
+import gnu.trove.map.hash.TLongIntHashMap;
+
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicLong;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 
 import org.spoutcraft.client.util.ChunkHash;
 
+/**
+ * Fixed size ring of hashed records, backed by memory mapped data, FAT and index files.
+ *
+ * Lookups and writes only touch the mapped buffers, they never seek or issue a syscall.
+ * The maps are forced to disk every {@link #FLUSH_INTERVAL} writes and on {@link #close()}.
+ * A FileMap has no locks, callers must not use it from more than one thread at a time.
+ */
 public class FileMap {
-	private final long size;
+	private static final int FLUSH_INTERVAL = 256;
+	private static final int NO_INDEX = -1;
+
+	private final int size;
 	private final int entries;
 	private int index;
+	private int unflushed = 0;
 	private final RandomAccessFile dataFile;
 	private final RandomAccessFile FATFile;
 	private final RandomAccessFile indexFile;
-	private final AtomicLong[] hashes;
-	private final ConcurrentHashMap<Long,Integer> FAT = new ConcurrentHashMap<Long,Integer>();
+	private final MappedByteBuffer data;
+	private final MappedByteBuffer FAT;
+	private final MappedByteBuffer indexBuffer;
+	private final TLongIntHashMap hashToIndex;
 
 	public FileMap(File dir, String filename, long size, int entries) throws IOException {
-		this.size = size;
+		this.size = (int) size;
 		this.entries = entries;
 
 		dataFile = new RandomAccessFile(new File(dir, filename + ".dat"), "rw");
 		FATFile = new RandomAccessFile(new File(dir, filename + ".fat"), "rw");
 		indexFile = new RandomAccessFile(new File(dir, filename + ".index"), "rw");
 
-		if (dataFile.length() < size*entries) {
-			dataFile.setLength(this.size * this.entries);
-		}
-
-		if (FATFile.length() < entries*8) {
-			FATFile.setLength(entries*8);
-			FATFile.seek(0);
-			FATFile.write(new byte[entries*8]);
+		long dataLength = size * entries;
+		if (dataFile.length() < dataLength) {
+			dataFile.setLength(dataLength);
 		}
 
-		hashes = new AtomicLong[entries];
-		FATFile.seek(0);
-		for (int i = 0; i < entries; i++) {
-			long hash = FATFile.readLong();
-			hashes[i] = new AtomicLong(hash);
-			FAT.put(hash, i);
+		// setLength zero fills the extended region, so an empty FAT needs no explicit write
+		if (FATFile.length() < entries * 8) {
+			FATFile.setLength(entries * 8);
 		}
 
 		if (indexFile.length() < 4) {
 			indexFile.setLength(4);
-			indexFile.seek(0);
-			indexFile.writeInt(0);
+		}
+
+		data = dataFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, dataLength);
+		FAT = FATFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, entries * 8);
+		indexBuffer = indexFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, 4);
+
+		hashToIndex = new TLongIntHashMap(entries * 2, 0.5F, 0, NO_INDEX);
+		for (int i = 0; i < entries; i++) {
+			long hash = FAT.getLong(i << 3);
+			if (hash != 0) {
+				hashToIndex.put(hash, i);
+			}
 		}
 
 		index = readIndex();
 	}
 
 	public void close() throws IOException {
+		flush();
 		dataFile.close();
 		FATFile.close();
 		indexFile.close();
 	}
 
+	public void flush() {
+		writeIndex(index);
+		data.force();
+		FAT.force();
+		indexBuffer.force();
+		unflushed = 0;
+	}
+
 	public void wipe() throws IOException {
 		for (int i = 0; i < entries; i++) {
-			FATFile.seek(0);
-			FATFile.write(new byte[entries*8]);
+			FAT.putLong(i << 3, 0L);
 		}
+		hashToIndex.clear();
+		flush();
 	}
 
 	public void write(int index, long hash, byte[] data) throws IOException {
@@ -96,11 +124,13 @@ public class FileMap {
 			throw new IllegalArgumentException("negative index");
 		}
 		index = index % entries;
-		long oldHash = hashes[index].get();
-		FAT.remove(oldHash, index);
 
 		writeFAT(index, hash);
 		writeData(index, data);
+
+		if (++unflushed >= FLUSH_INTERVAL) {
+			flush();
+		}
 	}
 
 	public byte[] readByIndex(int index, byte[] data) throws IOException {
@@ -119,11 +149,10 @@ public class FileMap {
 	}
 
 	public byte[] readByHash(long hash, byte[] data) throws IOException {
-		Integer index = hashToIndex(hash);
-		if (index == null || index < 0) {
+		int index = hashToIndex(hash);
+		if (index < 0) {
 			return null;
 		}
-		index = index % entries;
 		data = readData(index, data);
 		long dataHash = ChunkHash.hash(data);
 		if (dataHash != hash) {
@@ -134,8 +163,13 @@ public class FileMap {
 		}
 	}
 
-	public Integer hashToIndex(long hash) {
-		return FAT.get(hash);
+	/**
+	 * Gets the index a hash is stored at
+	 * @param hash to look up
+	 * @return index of the hash, or -1 if it is not stored
+	 */
+	public int hashToIndex(long hash) {
+		return hashToIndex.get(hash);
 	}
 
 	public int getIndex() {
@@ -150,7 +184,7 @@ public class FileMap {
 			index = index % entries;
 		}
 		index = index % entries;
-		return hashes[index].get();
+		return readFAT(index);
 	}
 
 	public void setIndex(int index) throws IOException {
@@ -160,54 +194,52 @@ public class FileMap {
 
 	public void incrementIndex() throws IOException {
 		setIndex(index + 1);
-		writeIndex(index);
 	}
 
 	public int readIndex() throws IOException {
-		indexFile.seek(0);
-		return indexFile.readInt();
+		return indexBuffer.getInt(0) % entries;
 	}
 
-	public void writeIndex(int index) throws IOException {
-		indexFile.seek(0);
-		indexFile.writeInt(index % entries);
+	public void writeIndex(int index) {
+		indexBuffer.putInt(0, index % entries);
 	}
 
-	private long readFAT(int index) throws IOException {
-		FATFile.seek((index % entries)*8);
-		return FATFile.readLong();
+	private long readFAT(int index) {
+		return FAT.getLong((index % entries) << 3);
 	}
 
-	private void writeFAT(int index, long hash) throws IOException {
+	private void writeFAT(int index, long hash) {
 		index = index % entries;
-		Long oldHash = hashes[index].get();
-		FAT.remove(oldHash);
-		hashes[index].set(hash);
+		long oldHash = FAT.getLong(index << 3);
+		if (oldHash != 0 && hashToIndex.get(oldHash) == index) {
+			hashToIndex.remove(oldHash);
+		}
 		if (hash != 0) {
-			FAT.put(hash, index);
+			hashToIndex.put(hash, index);
 		}
 
-		FATFile.seek(index*8);
-		FATFile.writeLong(hash);
+		FAT.putLong(index << 3, hash);
 	}
 
-	private byte[] readData(int index, byte[] data) throws IOException {
+	private byte[] readData(int index, byte[] data) {
 		index = index % entries;
-		dataFile.seek(size*index);
 		if (data == null || data.length != size) {
-			data = new byte[(int)size];
+			data = new byte[size];
 		}
-		dataFile.readFully(data);
+		ByteBuffer view = this.data.duplicate();
+		view.position(size * index);
+		view.get(data);
 		return data;
 	}
 
-	private void writeData(int index, byte[] data) throws IOException {
+	private void writeData(int index, byte[] data) {
 		index = index % entries;
-		dataFile.seek(size*index);
 		if (data == null || data.length != size) {
 			throw new IllegalArgumentException("Incorrect byte array length");
 		} else {
-			dataFile.write(data);
+			ByteBuffer view = this.data.duplicate();
+			view.position(size * index);
+			view.put(data);
 		}
 	}
 
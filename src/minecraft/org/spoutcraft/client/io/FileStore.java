@@ -0,0 +1,370 @@
+/*
+ * This file is part of Spoutcraft (http://www.spout.org/).
+ *
+ * Spoutcraft is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Spoutcraft is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.spoutcraft.client.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Cache of downloaded and received files, stored under the SHA-256 of their content so a file that is used in several
+ * places is only kept once. The digest is always computed here, never taken from a server.
+ *
+ * Files are only found again through the index, under the url they were downloaded from or the server and name they
+ * were received as (see {@link #put(String, long, File)}). A server can only claim a CRC, which is easy to collide,
+ * so a file a server sent is never handed to another server because their CRCs match.
+ *
+ * The index remembers which file a url last resolved to, together with the ETag and Last-Modified of the response,
+ * so the next download of the url can be revalidated instead of fetched again. Unfinished downloads stay in the
+ * store as partial files and are resumed with a range request.
+ *
+ * The files that were used least recently are removed once the store grows past its size limit.
+ */
+public class FileStore {
+	private static final String INDEX = "index.properties";
+	private static final String PARTIAL = ".part";
+	/**
+	 * Partial files written to more recently than this are still being downloaded and are never removed
+	 */
+	private static final long PARTIAL_TIMEOUT = 60 * 1000L;
+	private static long sizeLimit = 256L * 1024L * 1024L;
+	private static Properties index = null;
+	private static boolean indexChanged = false;
+
+	public static class Entry {
+		private final String digest;
+		private final long crc;
+		private final String etag;
+		private final String modified;
+
+		public Entry(String digest, long crc, String etag, String modified) {
+			this.digest = digest;
+			this.crc = crc;
+			this.etag = etag;
+			this.modified = modified;
+		}
+
+		/**
+		 * The SHA-256 of the file, in hex
+		 */
+		public String getDigest() {
+			return digest;
+		}
+
+		public long getCRC() {
+			return crc;
+		}
+
+		public String getETag() {
+			return etag;
+		}
+
+		public String getLastModified() {
+			return modified;
+		}
+
+		private String encode() {
+			return digest + "\t" + crc + "\t" + (etag != null ? etag : "") + "\t" + (modified != null ? modified : "");
+		}
+
+		private static Entry decode(String value) {
+			if (value == null) {
+				return null;
+			}
+			String[] split = value.split("\t", -1);
+			if (split.length != 4) {
+				return null;
+			}
+			try {
+				return new Entry(split[0], Long.parseLong(split[1]), split[2].length() > 0 ? split[2] : null, split[3].length() > 0 ? split[3] : null);
+			} catch (NumberFormatException e) {
+				return null;
+			}
+		}
+	}
+
+	public static synchronized void setSizeLimit(long bytes) {
+		sizeLimit = Math.max(0L, bytes);
+		trim(null);
+	}
+
+	public static synchronized long getSizeLimit() {
+		return sizeLimit;
+	}
+
+	public static File getDirectory() {
+		File directory = new File(FileUtil.getCacheDirectory(), "store");
+		if (!directory.exists()) {
+			directory.mkdir();
+		}
+		return directory;
+	}
+
+	/**
+	 * Copies the file of the entry to the destination and marks it as recently used
+	 * @return false if the store does not have the file anymore
+	 */
+	public static synchronized boolean copy(Entry entry, File destination) {
+		File file = getFile(entry.getDigest());
+		if (!file.exists()) {
+			return false;
+		}
+		file.setLastModified(System.currentTimeMillis());
+		try {
+			FileUtils.copyFile(file, destination, false);
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Adds a copy of a file received from a server to the store
+	 * @param key the server and name the file was received as, it can only be found again under the same key
+	 * @param crc the CRC of the file, see {@link FileUtil#getCRC(File, byte[])}
+	 */
+	public static synchronized void put(String key, long crc, File source) {
+		if (crc == 0) {
+			return;
+		}
+		try {
+			String digest = getDigest(source);
+			File file = getFile(digest);
+			if (!file.exists()) {
+				FileUtils.copyFile(source, file, false);
+			}
+			file.setLastModified(System.currentTimeMillis());
+			getIndex().setProperty("cache " + key, new Entry(digest, crc, null, null).encode());
+			indexChanged = true;
+			trim(file);
+		} catch (IOException e) {
+		}
+	}
+
+	/**
+	 * Gets the file last put in the store under the key
+	 * @return the entry, or null if nothing was put under the key or its file was removed from the store
+	 */
+	public static synchronized Entry getCached(String key) {
+		return getExisting("cache " + key);
+	}
+
+	/**
+	 * Gets what the url resolved to the last time it was downloaded completely
+	 * @return the entry, or null if the url was not downloaded before or its file was removed from the store
+	 */
+	public static synchronized Entry getEntry(String url) {
+		return getExisting("file " + url);
+	}
+
+	private static Entry getExisting(String key) {
+		Entry entry = Entry.decode(getIndex().getProperty(key));
+		if (entry != null && !getFile(entry.getDigest()).exists()) {
+			return null;
+		}
+		return entry;
+	}
+
+	/**
+	 * Gets the validators of the response the partial file of the url was written from
+	 * @return the entry, or null if there is no partial download of the url
+	 */
+	public static synchronized Entry getPartial(String url) {
+		Entry entry = Entry.decode(getIndex().getProperty("part " + url));
+		if (entry != null && !getPartialFile(url).exists()) {
+			return null;
+		}
+		return entry;
+	}
+
+	/**
+	 * Remembers the validators of the response the partial file of the url is being written from. A response
+	 * without validators can not be resumed safely, so its partial file is started over the next time.
+	 *
+	 * The index is only written with the next completed file or {@link #flush()}, so an unfinished download that
+	 * was never flushed starts over after a restart.
+	 */
+	public static synchronized void setPartial(String url, String etag, String modified) {
+		if (etag == null && modified == null) {
+			getIndex().remove("part " + url);
+		} else {
+			getIndex().setProperty("part " + url, new Entry("", 0, etag, modified).encode());
+		}
+		indexChanged = true;
+	}
+
+	public static File getPartialFile(String url) {
+		long hash = FileUtil.getCRC(new ByteArrayInputStream(url.getBytes()), new byte[256]);
+		return new File(getDirectory(), Long.toHexString(hash) + PARTIAL);
+	}
+
+	/**
+	 * Moves the finished partial file of the url into the store
+	 * @param crc the CRC of the partial file, computed while it was downloaded
+	 * @return the entry the url resolves to now
+	 */
+	public static synchronized Entry complete(String url, String etag, String modified, long crc) throws IOException {
+		File partial = getPartialFile(url);
+		String digest = getDigest(partial);
+		File file = getFile(digest);
+		if (file.exists()) {
+			partial.delete();
+		} else {
+			FileUtils.moveFile(partial, file);
+		}
+		file.setLastModified(System.currentTimeMillis());
+		Entry entry = new Entry(digest, crc, etag, modified);
+		getIndex().remove("part " + url);
+		getIndex().setProperty("file " + url, entry.encode());
+		indexChanged = true;
+		trim(file);
+		return entry;
+	}
+
+	/**
+	 * Writes the index if it changed since it was last written
+	 */
+	public static synchronized void flush() {
+		if (indexChanged) {
+			saveIndex();
+		}
+	}
+
+	private static File getFile(String digest) {
+		return new File(getDirectory(), digest);
+	}
+
+	private static String getDigest(File file) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e.getMessage());
+		}
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] buffer = new byte[16384];
+			int read;
+			while ((read = in.read(buffer)) >= 0) {
+				digest.update(buffer, 0, read);
+			}
+		} finally {
+			in.close();
+		}
+		StringBuilder hex = new StringBuilder(64);
+		for (byte b : digest.digest()) {
+			hex.append(Character.forDigit(b >> 4 & 15, 16)).append(Character.forDigit(b & 15, 16));
+		}
+		return hex.toString();
+	}
+
+	/**
+	 * Removes the least recently used files until the store fits in the size limit, then saves the index
+	 * @param keep the file that was just added, it is never removed
+	 */
+	private static void trim(File keep) {
+		File[] files = getDirectory().listFiles();
+		if (files != null) {
+			long active = System.currentTimeMillis() - PARTIAL_TIMEOUT;
+			long size = 0L;
+			for (File file : files) {
+				size += file.length();
+			}
+			Arrays.sort(files, new Comparator<File>() {
+				public int compare(File a, File b) {
+					long diff = a.lastModified() - b.lastModified();
+					return diff < 0 ? -1 : diff > 0 ? 1 : 0;
+				}
+			});
+			for (int i = 0; i < files.length && size > sizeLimit; i++) {
+				File file = files[i];
+				if (file.getName().equals(INDEX) || file.equals(keep) || file.getName().endsWith(PARTIAL) && file.lastModified() > active) {
+					continue;
+				}
+				long length = file.length();
+				if (file.delete()) {
+					size -= length;
+				}
+			}
+		}
+
+		Iterator<Map.Entry<Object, Object>> i = getIndex().entrySet().iterator();
+		while (i.hasNext()) {
+			Map.Entry<Object, Object> property = i.next();
+			String key = (String) property.getKey();
+			Entry entry = Entry.decode((String) property.getValue());
+			boolean exists = entry != null && (key.startsWith("part ") ? getPartialFile(key.substring(5)).exists() : getFile(entry.getDigest()).exists());
+			if (!exists) {
+				i.remove();
+			}
+		}
+		saveIndex();
+	}
+
+	private static Properties getIndex() {
+		if (index == null) {
+			index = new Properties();
+			File file = new File(getDirectory(), INDEX);
+			if (file.exists()) {
+				FileInputStream in = null;
+				try {
+					in = new FileInputStream(file);
+					index.load(in);
+				} catch (IOException e) {
+					index.clear();
+				} finally {
+					if (in != null) {
+						try {
+							in.close();
+						} catch (IOException e) {
+						}
+					}
+				}
+			}
+		}
+		return index;
+	}
+
+	private static void saveIndex() {
+		indexChanged = false;
+		FileOutputStream out = null;
+		try {
+			out = new FileOutputStream(new File(getDirectory(), INDEX));
+			getIndex().store(out, null);
+		} catch (IOException e) {
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+}
@@ -35,6 +35,7 @@ import org.spoutcraft.client.SpoutClient;
 public class FileUtil {
 	private static final String[] validExtensions = {"txt", "yml", "xml", "png", "jpg", "ogg", "midi", "wav", "zip"};
 	private static final HashMap<String, String> fileNameCache = new HashMap<String, String>();
+	public static final long CRC_SEED = 1L;
 	public static File getCacheDirectory() {
 		boolean wasSandboxed = SpoutClient.isSandboxed();
 		if (wasSandboxed) {
@@ -264,15 +265,14 @@ public class FileUtil {
 	}
 
 	public static long getCRC(InputStream in, byte[] buffer) {
-		long hash = 1;
+		long hash = CRC_SEED;
 
 		int read = 0;
-		int i;
 		while (read >= 0) {
 			try {
 				read = in.read(buffer);
-				for (i=0; i < read; i++) {
-					hash += (hash << 5) + (long)buffer[i];
+				if (read > 0) {
+					hash = updateCRC(hash, buffer, 0, read);
 				}
 			} catch (IOException ioe) {
 				return 0;
@@ -282,6 +282,23 @@ public class FileUtil {
 		return hash;
 	}
 
+	/**
+	 * Adds bytes to a CRC, so the CRC of data can be computed while it is written or received.
+	 * Start with {@link #CRC_SEED}, the result after the last bytes is what getCRC returns for the same data.
+	 */
+	public static long updateCRC(long hash, byte[] buffer, int offset, int length) {
+		// hash = hash * 33 + b for each byte, four bytes at a time so the multiplies do not wait on each other
+		int i = offset;
+		int end = offset + length;
+		for (int unrolled = end - 3; i < unrolled; i += 4) {
+			hash = hash * 1185921L + buffer[i] * 35937L + buffer[i + 1] * 1089L + buffer[i + 2] * 33L + buffer[i + 3];
+		}
+		for (; i < end; i++) {
+			hash += (hash << 5) + (long)buffer[i];
+		}
+		return hash;
+	}
+
 	public static boolean canCache(File file) {
 		String filename = FileUtil.getFileName(file.getPath());
 		return FilenameUtils.isExtension(filename, validExtensions);
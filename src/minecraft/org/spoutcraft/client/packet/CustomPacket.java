@@ -36,8 +36,19 @@ public class CustomPacket extends Packet{
 	protected static final int NAG_MSG_AMT = 10;
 	protected static boolean outdated = false;
 
+	/**
+	 * Payloads up to this size are read into a buffer of the reader thread, larger ones get their own array
+	 */
+	private static final int MAX_REUSED_PAYLOAD = 64 * 1024;
+	private static final ThreadLocal<byte[]> readBuffer = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[4096];
+		}
+	};
+
 	static {
-		int packets = PacketType.values()[PacketType.values().length - 1].getId();
+		int packets = PacketType.getMaxId() + 1;
 		nags = new int[packets];
 		for (int i = 0; i < packets; i++) {
 			nags[i] = NAG_MSG_AMT;
@@ -68,11 +79,11 @@ public class CustomPacket extends Packet{
 		int length = input.readInt(); //packet size
 		//System.out.println("Reading Packet: " + PacketType.getPacketFromId(packetId) + " Size: " + length + " bytes, version: " + version);
 		if (packetId > -1 && version > -1) {
-			try {
-				this.packet = PacketType.getPacketFromId(packetId).getPacketClass().newInstance();
-			} catch (Exception e) {
+			PacketType type = PacketType.getPacketFromId(packetId);
+			if (type != null) {
+				this.packet = type.newPacket();
+			} else {
 				System.out.println("Failed to identify packet id: " + packetId);
-				//e.printStackTrace();
 			}
 		}
 		try {
@@ -88,10 +99,19 @@ public class CustomPacket extends Packet{
 				}
 				outdated = outdated ? true : version > packet.getVersion();
 			} else {
-				byte[] data = new byte[length];
-				input.readFully(data);
-				
-				SpoutInputStream stream = new SpoutInputStream(ByteBuffer.wrap(data));
+				byte[] data = readBuffer.get();
+				if (length > data.length) {
+					if (length <= MAX_REUSED_PAYLOAD) {
+						data = new byte[Math.min(Integer.highestOneBit(length) << 1, MAX_REUSED_PAYLOAD)];
+						readBuffer.set(data);
+					} else {
+						data = new byte[length];
+					}
+				}
+				input.readFully(data, 0, length);
+
+				//Packets copy what they read, so the buffer can be reused for the next packet
+				SpoutInputStream stream = new SpoutInputStream(ByteBuffer.wrap(data, 0, length));
 				packet.readData(stream);
 				success = true;
 			}
@@ -106,8 +126,16 @@ public class CustomPacket extends Packet{
 		}
 	}
 
-	SpoutOutputStream stream = new SpoutOutputStream();
-	
+	/**
+	 * Packets are only written by the network writer thread, so its buffer is reused for every packet
+	 */
+	private static final ThreadLocal<SpoutOutputStream> writeStream = new ThreadLocal<SpoutOutputStream>() {
+		@Override
+		protected SpoutOutputStream initialValue() {
+			return new SpoutOutputStream();
+		}
+	};
+
 	public void writePacketData(DataOutputStream output) throws IOException {
 		if (packet == null) {
 			output.writeShort(-1);
@@ -119,14 +147,15 @@ public class CustomPacket extends Packet{
 		output.writeShort(packet.getPacketType().getId());
 		output.writeShort(packet.getVersion());
 		
+		SpoutOutputStream stream = writeStream.get();
 		stream.getRawBuffer().clear();
 		packet.writeData(stream);
+		//The buffer may have been replaced by a larger one while writing
 		ByteBuffer buffer = stream.getRawBuffer();
-		byte[] data = new byte[buffer.capacity() - buffer.remaining()];
-		System.arraycopy(buffer.array(), 0, data, 0, data.length);
+		int length = buffer.position();
 
-		output.writeInt(data.length);
-		output.write(data, 0, data.length);
+		output.writeInt(length);
+		output.write(buffer.array(), buffer.arrayOffset(), length);
 	}
 
 	public void processPacket(NetHandler netHandler) {
@@ -19,9 +19,7 @@ package org.spoutcraft.client.packet;
 import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.nio.ByteBuffer;
-import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
-import java.util.zip.Inflater;
 
 import org.apache.commons.io.output.ByteArrayOutputStream;
 
@@ -156,27 +154,7 @@ public class PacketAddonData implements CompressablePacket {
 
 	public void decompress() {
 		if (compressed) {
-			Inflater decompressor = new Inflater();
-			decompressor.setInput(data);
-
-			ByteArrayOutputStream bos = new ByteArrayOutputStream(data.length);
-
-			byte[] buf = new byte[1024];
-			while (!decompressor.finished()) {
-				try {
-					int count = decompressor.inflate(buf);
-					bos.write(buf, 0, count);
-				} catch (DataFormatException e) {
-
-				}
-			}
-			try {
-				bos.close();
-			} catch (IOException e) {
-
-			}
-
-			data = bos.toByteArray();
+			data = PacketCompression.decompress(data);
 			compressed = false;
 		}
 	}
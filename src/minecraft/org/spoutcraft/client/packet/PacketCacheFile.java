@@ -17,13 +17,10 @@
 package org.spoutcraft.client.packet;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.zip.DataFormatException;
-import java.util.zip.Deflater;
-import java.util.zip.Inflater;
 
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.output.ByteArrayOutputStream;
 
 import net.minecraft.src.*;
 import net.minecraft.client.Minecraft;
@@ -31,11 +28,13 @@ import net.minecraft.client.Minecraft;
 import org.spoutcraft.client.SpoutClient;
 import org.spoutcraft.client.io.CRCManager;
 import org.spoutcraft.client.io.CustomTextureManager;
+import org.spoutcraft.client.io.FileStore;
 import org.spoutcraft.client.io.FileUtil;
 import org.spoutcraft.spoutcraftapi.io.SpoutInputStream;
 import org.spoutcraft.spoutcraftapi.io.SpoutOutputStream;
 
 public class PacketCacheFile implements CompressablePacket {
+	private static final int WRITE_CHUNK = 64 * 1024;
 	private String plugin;
 	private byte[] fileData;
 	private String fileName;
@@ -58,22 +57,7 @@ public class PacketCacheFile implements CompressablePacket {
 	//TODO move to separate thread?
 	public void compress() {
 		if (!compressed) {
-			Deflater deflater = new Deflater();
-			deflater.setInput(fileData);
-			deflater.setLevel(Deflater.BEST_COMPRESSION);
-			deflater.finish();
-			ByteArrayOutputStream bos = new ByteArrayOutputStream(fileData.length);
-			byte[] buffer = new byte[1024];
-			while (!deflater.finished()) {
-				int bytesCompressed = deflater.deflate(buffer);
-				bos.write(buffer, 0, bytesCompressed);
-			}
-			try {
-				bos.close();
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-			fileData = bos.toByteArray();
+			fileData = PacketCompression.compress(fileData);
 			compressed = true;
 		}
 	}
@@ -84,27 +68,8 @@ public class PacketCacheFile implements CompressablePacket {
 
 	public void decompress() {
 		if (compressed) {
-			Inflater decompressor = new Inflater();
-			decompressor.setInput(fileData);
-
-			ByteArrayOutputStream bos = new ByteArrayOutputStream(fileData.length);
-
-			byte[] buf = new byte[1024];
-			while (!decompressor.finished()) {
-				try {
-					int count = decompressor.inflate(buf);
-					bos.write(buf, 0, count);
-				} catch (DataFormatException e) {
-
-				}
-			}
-			try {
-				bos.close();
-			} catch (IOException e) {
-
-			}
-
-			fileData = bos.toByteArray();
+			fileData = PacketCompression.decompress(fileData);
+			compressed = false;
 		}
 	}
 
@@ -136,23 +101,50 @@ public class PacketCacheFile implements CompressablePacket {
 			directory.mkdir();
 		}
 		File cache = new File(directory, fileName);
-		try {
-			FileUtils.writeByteArrayToFile(cache, fileData);
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+		long calculatedCRC = write(cache, fileData);
+		CRCManager.setFileCRC(cache, calculatedCRC);
 		long expectedCRC = CRCManager.getCRC(fileName);
-		long calculatedCRC = FileUtil.getCRC(cache, new byte[16384]);
 		if (expectedCRC != calculatedCRC) {
 			System.out.println("WARNING, Downloaded File " + fileName + "'s CRC " + calculatedCRC + " did not match the expected CRC: " + expectedCRC);
 			SpoutClient.getInstance().getPacketManager().sendSpoutPacket(new PacketPreCacheFile(plugin, fileName, expectedCRC, false));
 			System.out.println("Requesting re-downloaded of File " + fileName);
-		} else if (cache.exists() && FileUtil.isImageFile(fileName)) {
-			CustomTextureManager.getTextureFromUrl(plugin, fileName);
+		} else {
+			FileStore.put(PacketPreCacheFile.getStoreKey(plugin, fileName), calculatedCRC, cache);
+			if (cache.exists() && FileUtil.isImageFile(fileName)) {
+				CustomTextureManager.getTextureFromUrlAsync(plugin, fileName);
+			}
 		}
 		((EntityClientPlayerMP)Minecraft.theMinecraft.thePlayer).sendQueue.addToSendQueue(new Packet0KeepAlive());
 	}
 
+	/**
+	 * Writes the data to the file, computing its CRC on the way
+	 * @return the CRC of the data, or 0 if it could not be written
+	 */
+	private static long write(File file, byte[] data) {
+		long crc = FileUtil.CRC_SEED;
+		FileOutputStream out = null;
+		try {
+			out = new FileOutputStream(file);
+			for (int i = 0; i < data.length; i += WRITE_CHUNK) {
+				int length = Math.min(WRITE_CHUNK, data.length - i);
+				crc = FileUtil.updateCRC(crc, data, i, length);
+				out.write(data, i, length);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			return 0;
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+		return crc;
+	}
+
 	public void failure(int playerId) {
 		// TODO Auto-generated method stub
 	}
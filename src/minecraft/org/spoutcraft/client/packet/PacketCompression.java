@@ -0,0 +1,117 @@
+/*
+ * This file is part of Spoutcraft (http://www.spout.org/).
+ *
+ * Spoutcraft is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Spoutcraft is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.spoutcraft.client.packet;
+
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compression shared by the {@link CompressablePacket}s.
+ *
+ * Each thread reuses one Inflater and one Deflater, so no native zlib memory is leaked per packet.
+ * Corrupt or truncated input throws an {@link IllegalArgumentException} instead of looping.
+ */
+public final class PacketCompression {
+	private static final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>() {
+		@Override
+		protected Inflater initialValue() {
+			return new Inflater();
+		}
+	};
+
+	private static final ThreadLocal<Deflater> deflaters = new ThreadLocal<Deflater>() {
+		@Override
+		protected Deflater initialValue() {
+			return new Deflater(Deflater.BEST_COMPRESSION);
+		}
+	};
+
+	private PacketCompression() {
+	}
+
+	public static byte[] compress(byte[] data) {
+		Deflater deflater = deflaters.get();
+		deflater.reset();
+		deflater.setInput(data);
+		deflater.finish();
+		byte[] out = new byte[data.length + (data.length >> 8) + 64];
+		int length = 0;
+		while (!deflater.finished()) {
+			if (length == out.length) {
+				out = Arrays.copyOf(out, out.length << 1);
+			}
+			length += deflater.deflate(out, length, out.length - length);
+		}
+		return length == out.length ? out : Arrays.copyOf(out, length);
+	}
+
+	public static byte[] decompress(byte[] data) {
+		return decompress(data, 0);
+	}
+
+	/**
+	 * Decompresses data
+	 * @param data to decompress
+	 * @param expectedSize of the decompressed data, or 0 if unknown
+	 * @return the decompressed data, in an array of exactly its length
+	 */
+	public static byte[] decompress(byte[] data, int expectedSize) {
+		Inflater inflater = inflaters.get();
+		inflater.reset();
+		inflater.setInput(data);
+		byte[] out = new byte[expectedSize > 0 ? expectedSize : Math.max(64, data.length << 2)];
+		int length = 0;
+		try {
+			while (!inflater.finished()) {
+				if (length == out.length) {
+					// Inflating exactly up to the end of the buffer may leave the end of the stream unread, so only grow it for more data
+					int next = inflateByte(inflater);
+					if (next < 0) {
+						break;
+					}
+					out = Arrays.copyOf(out, out.length << 1);
+					out[length++] = (byte) next;
+					continue;
+				}
+				int count = inflater.inflate(out, length, out.length - length);
+				if (count == 0 && !inflater.finished() && (inflater.needsInput() || inflater.needsDictionary())) {
+					throw new IllegalArgumentException("Truncated compressed data");
+				}
+				length += count;
+			}
+		} catch (DataFormatException e) {
+			throw new IllegalArgumentException("Corrupt compressed data", e);
+		}
+		return length == out.length ? out : Arrays.copyOf(out, length);
+	}
+
+	/**
+	 * @return the next inflated byte, or -1 at the end of the stream
+	 */
+	private static int inflateByte(Inflater inflater) throws DataFormatException {
+		byte[] next = new byte[1];
+		if (inflater.inflate(next) == 1) {
+			return next[0] & 0xFF;
+		}
+		if (!inflater.finished()) {
+			throw new IllegalArgumentException("Truncated compressed data");
+		}
+		return -1;
+	}
+}
@@ -34,12 +34,14 @@ public class PacketControlAction implements SpoutPacket{
 	}
 
 	public PacketControlAction(Screen screen, Widget widget, float state) {
+		PacketWidget.forget(widget.getId());
 		this.screen = screen.getId();
 		this.widget = widget.getId();
 		this.state = state;
 	}
 
 	public PacketControlAction(Screen screen, Widget widget, String data, float position) {
+		PacketWidget.forget(widget.getId());
 		this.screen = screen.getId();
 		this.widget = widget.getId();
 		this.state = position;
@@ -17,17 +17,18 @@
 package org.spoutcraft.client.packet;
 
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.util.zip.DataFormatException;
-import java.util.zip.Deflater;
-import java.util.zip.Inflater;
 
-import org.apache.commons.io.output.ByteArrayOutputStream;
+import org.spoutcraft.client.block.SpoutcraftChunk;
 import org.spoutcraft.spoutcraftapi.Spoutcraft;
+import org.spoutcraft.spoutcraftapi.block.Chunk;
 import org.spoutcraft.spoutcraftapi.io.SpoutInputStream;
 import org.spoutcraft.spoutcraftapi.io.SpoutOutputStream;
 
 public class PacketCustomBlockChunkOverride implements CompressablePacket{
+	/**
+	 * Size of the data of a chunk of the tallest world, decompress runs on a worker thread and can not ask the world
+	 */
+	private static final int MAX_DATA_SIZE = 16 * 16 * 256 * 3;
 	private int chunkX;
 	private int chunkZ;
 	private boolean hasData = false;
@@ -67,16 +68,10 @@ public class PacketCustomBlockChunkOverride implements CompressablePacket{
 
 	public void run(int playerId) {
 		if (hasData) {
-			ByteBuffer buffer = ByteBuffer.allocate(data.length);
-			buffer.put(data);
-			short[] customIds = new short[16*16*Spoutcraft.getWorld().getMaxHeight()];
-			byte[] customData = new byte[16*16*Spoutcraft.getWorld().getMaxHeight()];
-			for (int i = 0; i < customIds.length; i++) {
-				customIds[i] = buffer.getShort(i * 3);
-				customData[i] = buffer.get((i * 3) + 2);
+			Chunk chunk = Spoutcraft.getWorld().getChunkAt(chunkX, chunkZ);
+			if (chunk instanceof SpoutcraftChunk) {
+				((SpoutcraftChunk) chunk).setCustomBlocks(data);
 			}
-			Spoutcraft.getWorld().getChunkAt(chunkX, chunkZ).setCustomBlockIds(customIds);
-			Spoutcraft.getWorld().getChunkAt(chunkX, chunkZ).setCustomBlockData(customData);
 		}
 	}
 
@@ -95,22 +90,7 @@ public class PacketCustomBlockChunkOverride implements CompressablePacket{
 	public void compress() {
 		if (!compressed && hasData) {
 			if (data != null) {
-				Deflater deflater = new Deflater();
-				deflater.setInput(data);
-				deflater.setLevel(Deflater.BEST_COMPRESSION);
-				deflater.finish();
-				ByteArrayOutputStream bos = new ByteArrayOutputStream(data.length);
-				byte[] buffer = new byte[1024];
-				while (!deflater.finished()) {
-					int bytesCompressed = deflater.deflate(buffer);
-					bos.write(buffer, 0, bytesCompressed);
-				}
-				try {
-					bos.close();
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-				data = bos.toByteArray();
+				data = PacketCompression.compress(data);
 			}
 			compressed = true;
 		}
@@ -118,27 +98,8 @@ public class PacketCustomBlockChunkOverride implements CompressablePacket{
 
 	public void decompress() {
 		if (compressed && hasData) {
-			Inflater decompressor = new Inflater();
-			decompressor.setInput(data);
-
-			ByteArrayOutputStream bos = new ByteArrayOutputStream(data.length);
-
-			byte[] buf = new byte[1024];
-			while (!decompressor.finished()) {
-				try {
-					int count = decompressor.inflate(buf);
-					bos.write(buf, 0, count);
-				} catch (DataFormatException e) {
-
-				}
-			}
-			try {
-				bos.close();
-			} catch (IOException e) {
-
-			}
-
-			data = bos.toByteArray();
+			data = PacketCompression.decompress(data, MAX_DATA_SIZE);
+			compressed = false;
 		}
 	}
 
@@ -20,11 +20,6 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.UUID;
-import java.util.zip.DataFormatException;
-import java.util.zip.Deflater;
-import java.util.zip.Inflater;
-
-import org.apache.commons.io.output.ByteArrayOutputStream;
 
 import net.minecraft.client.Minecraft;
 import net.minecraft.src.WorldClient;
@@ -103,23 +98,7 @@ public class PacketEntityInformation implements CompressablePacket{
 	public void compress() {
 		if (!compressed) {
 			if (data != null) {
-				Deflater deflater = new Deflater();
-				deflater.setInput(data);
-				deflater.setLevel(Deflater.BEST_COMPRESSION);
-				deflater.finish();
-				ByteArrayOutputStream bos = new ByteArrayOutputStream(data.length);
-				byte[] buffer = new byte[1024];
-				while (!deflater.finished())
-				{
-					int bytesCompressed = deflater.deflate(buffer);
-					bos.write(buffer, 0, bytesCompressed);
-				}
-				try {
-					bos.close();
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-				data = bos.toByteArray();
+				data = PacketCompression.compress(data);
 			}
 			compressed = true;
 		}
@@ -127,27 +106,8 @@ public class PacketEntityInformation implements CompressablePacket{
 
 	public void decompress() {
 		if (compressed) {
-			Inflater decompressor = new Inflater();
-			decompressor.setInput(data);
-
-			ByteArrayOutputStream bos = new ByteArrayOutputStream(data.length);
-
-			byte[] buf = new byte[1024];
-			while (!decompressor.finished()) {
-				try {
-					int count = decompressor.inflate(buf);
-					bos.write(buf, 0, count);
-				} catch (DataFormatException e) {
-
-				}
-			}
-			try {
-				bos.close();
-			} catch (IOException e) {
-
-			}
-
-			data = bos.toByteArray();
+			data = PacketCompression.decompress(data);
+			compressed = false;
 		}
 	}
 
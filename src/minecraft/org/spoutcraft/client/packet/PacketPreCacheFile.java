@@ -20,10 +20,12 @@ import java.io.File;
 import java.io.IOException;
 
 import org.spoutcraft.client.SpoutClient;
+import org.spoutcraft.client.gui.error.GuiConnectionLost;
 import org.spoutcraft.client.io.CRCManager;
 import org.spoutcraft.client.io.CustomTextureManager;
 import org.spoutcraft.client.io.Download;
 import org.spoutcraft.client.io.FileDownloadThread;
+import org.spoutcraft.client.io.FileStore;
 import org.spoutcraft.client.io.FileUtil;
 import org.spoutcraft.spoutcraftapi.io.SpoutInputStream;
 import org.spoutcraft.spoutcraftapi.io.SpoutOutputStream;
@@ -75,8 +77,19 @@ public class PacketPreCacheFile implements SpoutPacket{
 		final String fileName = FileUtil.getFileName(file);
 		final File expected = new File(directory, fileName);
 		if (expected.exists()) {
-			long crc = FileUtil.getCRC(expected, downloadBuffer);
+			long crc = CRCManager.getFileCRC(expected, downloadBuffer);
 			this.cached = expectedCRC != 0 && crc == expectedCRC;
+			if (cached) {
+				FileStore.put(getStoreKey(plugin, fileName), crc, expected);
+			}
+		}
+		if (!cached && expectedCRC != 0) {
+			// This server sent the same file before, and another server has overwritten it since
+			FileStore.Entry entry = FileStore.getCached(getStoreKey(plugin, fileName));
+			if (entry != null && entry.getCRC() == expectedCRC && FileStore.copy(entry, expected)) {
+				CRCManager.setFileCRC(expected, expectedCRC);
+				this.cached = true;
+			}
 		}
 		if (!cached) {
 			final long finalCRC = expectedCRC;
@@ -92,10 +105,10 @@ public class PacketPreCacheFile implements SpoutPacket{
 				if (FileUtil.isImageFile(fileName)) {
 					queued = new Runnable() {
 						public void run() {
-							long crc = FileUtil.getCRC(expected, new byte[16384]);
+							long crc = CRCManager.getFileCRC(expected, new byte[16384]);
 							System.out.println("Downloaded File " + fileName + "'s CRC " + crc + ", expected CRC: " + expectedCRC);
 							if (crc == finalCRC) {
-								CustomTextureManager.getTextureFromUrl(plugin, fileName);
+								CustomTextureManager.getTextureFromUrlAsync(plugin, fileName);
 							} else {
 								System.out.println("WARNING, Downloaded File " + fileName + "'s CRC " + crc + " did not match the expected CRC: " + finalCRC);
 							}
@@ -107,11 +120,19 @@ public class PacketPreCacheFile implements SpoutPacket{
 			}
 		} else {
 			if (FileUtil.isImageFile(fileName)) {
-				CustomTextureManager.getTextureFromUrl(plugin, fileName);
+				CustomTextureManager.getTextureFromUrlAsync(plugin, fileName);
 			}
 		}
 	}
 
+	/**
+	 * Gets the key a file of the current server is kept under in the {@link FileStore}. The key includes the server,
+	 * so a file one server sent is never used for another server that claims the same CRC.
+	 */
+	static String getStoreKey(String plugin, String fileName) {
+		return GuiConnectionLost.lastServerIp + ":" + GuiConnectionLost.lastServerPort + "/" + plugin + "/" + fileName;
+	}
+
 	public void failure(int playerId) {
 
 	}
@@ -22,6 +22,7 @@ import java.io.File;
 import net.minecraft.src.RenderEngine;
 
 import org.spoutcraft.client.SpoutClient;
+import org.spoutcraft.client.io.CRCManager;
 import org.spoutcraft.client.io.Download;
 import org.spoutcraft.client.io.FileDownloadThread;
 import org.spoutcraft.client.io.FileUtil;
@@ -68,7 +69,7 @@ public class PacketTexturePack implements SpoutPacket{
 				return;
 			}
 			File texturePack = new File(FileUtil.getTexturePackDirectory(), fileName);
-			if (FileUtil.getCRC(texturePack, downloadBuffer) != expectedCRC && expectedCRC != 0) {
+			if (expectedCRC != 0 && CRCManager.getFileCRC(texturePack, downloadBuffer) != expectedCRC) {
 				texturePack.delete();
 			}
 			Download download = new Download(fileName, FileUtil.getTexturePackDirectory(), url, new TexturePackAction(fileName, FileUtil.getTexturePackDirectory()));
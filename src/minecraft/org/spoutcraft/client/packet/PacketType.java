@@ -16,76 +16,294 @@
  */
 package org.spoutcraft.client.packet;
 
-import java.util.HashMap;
-
 public enum PacketType {
-	PacketKeyPress(0, PacketKeyPress.class),
-	PacketAirTime(1, PacketAirTime.class),
-	PacketSkinURL(2, PacketSkinURL.class),
-	PacketEntityTitle(3, PacketEntityTitle.class),
+	PacketKeyPress(0, PacketKeyPress.class) {
+		public SpoutPacket newPacket() {
+			return new PacketKeyPress();
+		}
+	},
+	PacketAirTime(1, PacketAirTime.class) {
+		public SpoutPacket newPacket() {
+			return new PacketAirTime();
+		}
+	},
+	PacketSkinURL(2, PacketSkinURL.class) {
+		public SpoutPacket newPacket() {
+			return new PacketSkinURL();
+		}
+	},
+	PacketEntityTitle(3, PacketEntityTitle.class) {
+		public SpoutPacket newPacket() {
+			return new PacketEntityTitle();
+		}
+	},
 	//PacketPluginReload(4, PacketPluginReload.class),
-	PacketRenderDistance(5, PacketRenderDistance.class),
-	PacketAlert(6, PacketAlert.class),
-	PacketPlaySound(7, PacketPlaySound.class),
-	PacketDownloadMusic(8, PacketDownloadMusic.class),
-	PacketClipboardText(9, PacketClipboardText.class),
-	PacketMusicChange(10, PacketMusicChange.class),
-	PacketWidget(11, PacketWidget.class),
-	PacketStopMusic(12, PacketStopMusic.class),
-	PacketItemName(13, PacketItemName.class),
-	PacketSky(14, PacketSky.class),
-	PacketTexturePack(15, PacketTexturePack.class),
+	PacketRenderDistance(5, PacketRenderDistance.class) {
+		public SpoutPacket newPacket() {
+			return new PacketRenderDistance();
+		}
+	},
+	PacketAlert(6, PacketAlert.class) {
+		public SpoutPacket newPacket() {
+			return new PacketAlert();
+		}
+	},
+	PacketPlaySound(7, PacketPlaySound.class) {
+		public SpoutPacket newPacket() {
+			return new PacketPlaySound();
+		}
+	},
+	PacketDownloadMusic(8, PacketDownloadMusic.class) {
+		public SpoutPacket newPacket() {
+			return new PacketDownloadMusic();
+		}
+	},
+	PacketClipboardText(9, PacketClipboardText.class) {
+		public SpoutPacket newPacket() {
+			return new PacketClipboardText();
+		}
+	},
+	PacketMusicChange(10, PacketMusicChange.class) {
+		public SpoutPacket newPacket() {
+			return new PacketMusicChange();
+		}
+	},
+	PacketWidget(11, PacketWidget.class) {
+		public SpoutPacket newPacket() {
+			return new PacketWidget();
+		}
+	},
+	PacketStopMusic(12, PacketStopMusic.class) {
+		public SpoutPacket newPacket() {
+			return new PacketStopMusic();
+		}
+	},
+	PacketItemName(13, PacketItemName.class) {
+		public SpoutPacket newPacket() {
+			return new PacketItemName();
+		}
+	},
+	PacketSky(14, PacketSky.class) {
+		public SpoutPacket newPacket() {
+			return new PacketSky();
+		}
+	},
+	PacketTexturePack(15, PacketTexturePack.class) {
+		public SpoutPacket newPacket() {
+			return new PacketTexturePack();
+		}
+	},
 	//PacketWorldSeed(16, PacketWorldSeed.class),
-	PacketNotification(17, PacketNotification.class),
-	PacketScreenAction(18, PacketScreenAction.class),
-	PacketControlAction(19, PacketControlAction.class),
-	PacketCacheHashUpdate(20, PacketCacheHashUpdate.class),
-	PacketAllowVisualCheats(21, PacketAllowVisualCheats.class),
-	PacketWidgetRemove(22, PacketWidgetRemove.class),
-	PacketEntitySkin(23, PacketEntitySkin.class),
-	PacketBiomeWeather(24, PacketBiomeWeather.class),
-	PacketChunkRefresh(25, PacketChunkRefresh.class),
-	PacketOpenScreen(26, PacketOpenScreen.class),
-	PacketPreCacheFile(27, PacketPreCacheFile.class),
-	PacketCacheFile(28, PacketCacheFile.class),
-	PacketCacheDeleteFile(29, PacketCacheDeleteFile.class),
-	PacketPreCacheCompleted(30, PacketPreCacheCompleted.class),
-	PacketMovementModifiers(31, PacketMovementModifiers.class),
-	PacketSetVelocity(32, PacketSetVelocity.class),
-	PacketFullVersion(33, PacketFullVersion.class),
+	PacketNotification(17, PacketNotification.class) {
+		public SpoutPacket newPacket() {
+			return new PacketNotification();
+		}
+	},
+	PacketScreenAction(18, PacketScreenAction.class) {
+		public SpoutPacket newPacket() {
+			return new PacketScreenAction();
+		}
+	},
+	PacketControlAction(19, PacketControlAction.class) {
+		public SpoutPacket newPacket() {
+			return new PacketControlAction();
+		}
+	},
+	PacketCacheHashUpdate(20, PacketCacheHashUpdate.class) {
+		public SpoutPacket newPacket() {
+			return new PacketCacheHashUpdate();
+		}
+	},
+	PacketAllowVisualCheats(21, PacketAllowVisualCheats.class) {
+		public SpoutPacket newPacket() {
+			return new PacketAllowVisualCheats();
+		}
+	},
+	PacketWidgetRemove(22, PacketWidgetRemove.class) {
+		public SpoutPacket newPacket() {
+			return new PacketWidgetRemove();
+		}
+	},
+	PacketEntitySkin(23, PacketEntitySkin.class) {
+		public SpoutPacket newPacket() {
+			return new PacketEntitySkin();
+		}
+	},
+	PacketBiomeWeather(24, PacketBiomeWeather.class) {
+		public SpoutPacket newPacket() {
+			return new PacketBiomeWeather();
+		}
+	},
+	PacketChunkRefresh(25, PacketChunkRefresh.class) {
+		public SpoutPacket newPacket() {
+			return new PacketChunkRefresh();
+		}
+	},
+	PacketOpenScreen(26, PacketOpenScreen.class) {
+		public SpoutPacket newPacket() {
+			return new PacketOpenScreen();
+		}
+	},
+	PacketPreCacheFile(27, PacketPreCacheFile.class) {
+		public SpoutPacket newPacket() {
+			return new PacketPreCacheFile();
+		}
+	},
+	PacketCacheFile(28, PacketCacheFile.class) {
+		public SpoutPacket newPacket() {
+			return new PacketCacheFile();
+		}
+	},
+	PacketCacheDeleteFile(29, PacketCacheDeleteFile.class) {
+		public SpoutPacket newPacket() {
+			return new PacketCacheDeleteFile();
+		}
+	},
+	PacketPreCacheCompleted(30, PacketPreCacheCompleted.class) {
+		public SpoutPacket newPacket() {
+			return new PacketPreCacheCompleted();
+		}
+	},
+	PacketMovementModifiers(31, PacketMovementModifiers.class) {
+		public SpoutPacket newPacket() {
+			return new PacketMovementModifiers();
+		}
+	},
+	PacketSetVelocity(32, PacketSetVelocity.class) {
+		public SpoutPacket newPacket() {
+			return new PacketSetVelocity();
+		}
+	},
+	PacketFullVersion(33, PacketFullVersion.class) {
+		public SpoutPacket newPacket() {
+			return new PacketFullVersion();
+		}
+	},
 	//PacketCustomId(34, PacketCustomId.class),
 	//PacketItemTexture(35, PacketItemTexture.class),
 	//PacketBlockHardness(36, PacketBlockHardness.class),
-	PacketOpenSignGUI(37, PacketOpenSignGUI.class),
-	PacketCustomBlockOverride(38, PacketCustomBlockOverride.class),
-	PacketCustomBlockDesign(39, PacketCustomBlockDesign.class),
+	PacketOpenSignGUI(37, PacketOpenSignGUI.class) {
+		public SpoutPacket newPacket() {
+			return new PacketOpenSignGUI();
+		}
+	},
+	PacketCustomBlockOverride(38, PacketCustomBlockOverride.class) {
+		public SpoutPacket newPacket() {
+			return new PacketCustomBlockOverride();
+		}
+	},
+	PacketCustomBlockDesign(39, PacketCustomBlockDesign.class) {
+		public SpoutPacket newPacket() {
+			return new PacketCustomBlockDesign();
+		}
+	},
 	//PacketUniqueId(40, PacketUniqueId.class),
-	PacketKeyBinding(41, PacketKeyBinding.class),
-	PacketBlockData(42, PacketBlockData.class),
-	PacketCustomMultiBlockOverride(43, PacketCustomMultiBlockOverride.class),
-	PacketServerPlugins(44, PacketServerPlugins.class),
-	PacketAddonData(45, PacketAddonData.class),
+	PacketKeyBinding(41, PacketKeyBinding.class) {
+		public SpoutPacket newPacket() {
+			return new PacketKeyBinding();
+		}
+	},
+	PacketBlockData(42, PacketBlockData.class) {
+		public SpoutPacket newPacket() {
+			return new PacketBlockData();
+		}
+	},
+	PacketCustomMultiBlockOverride(43, PacketCustomMultiBlockOverride.class) {
+		public SpoutPacket newPacket() {
+			return new PacketCustomMultiBlockOverride();
+		}
+	},
+	PacketServerPlugins(44, PacketServerPlugins.class) {
+		public SpoutPacket newPacket() {
+			return new PacketServerPlugins();
+		}
+	},
+	PacketAddonData(45, PacketAddonData.class) {
+		public SpoutPacket newPacket() {
+			return new PacketAddonData();
+		}
+	},
 	//PacketCustomMaterial(46, PacketCustomMaterial.class),
-	PacketScreenshot(47, PacketScreenshot.class),
-	PacketGenericItem(48, PacketGenericItem.class),
-	PacketGenericTool(49, PacketGenericTool.class),
-	PacketGenericBlock(50, PacketGenericBlock.class),
-	PacketCustomBlockChunkOverride(51, PacketCustomBlockChunkOverride.class),
-	PacketGenericFood(52, PacketGenericFood.class),
-	PacketEntityInformation(53, PacketEntityInformation.class),
-	PacketComboBox(54, PacketComboBox.class),
-	PacketFocusUpdate(55, PacketFocusUpdate.class),
-	PacketClientAddons(56, PacketClientAddons.class),
-	PacketPermissionUpdate(57, PacketPermissionUpdate.class),
-	PacketSpawnTextEntity(58, PacketSpawnTextEntity.class),
-	PacketSlotClick(59, PacketSlotClick.class),
-	PacketWaypoint(60, PacketWaypoint.class),
-	PacketParticle(61, PacketParticle.class),
+	PacketScreenshot(47, PacketScreenshot.class) {
+		public SpoutPacket newPacket() {
+			return new PacketScreenshot();
+		}
+	},
+	PacketGenericItem(48, PacketGenericItem.class) {
+		public SpoutPacket newPacket() {
+			return new PacketGenericItem();
+		}
+	},
+	PacketGenericTool(49, PacketGenericTool.class) {
+		public SpoutPacket newPacket() {
+			return new PacketGenericTool();
+		}
+	},
+	PacketGenericBlock(50, PacketGenericBlock.class) {
+		public SpoutPacket newPacket() {
+			return new PacketGenericBlock();
+		}
+	},
+	PacketCustomBlockChunkOverride(51, PacketCustomBlockChunkOverride.class) {
+		public SpoutPacket newPacket() {
+			return new PacketCustomBlockChunkOverride();
+		}
+	},
+	PacketGenericFood(52, PacketGenericFood.class) {
+		public SpoutPacket newPacket() {
+			return new PacketGenericFood();
+		}
+	},
+	PacketEntityInformation(53, PacketEntityInformation.class) {
+		public SpoutPacket newPacket() {
+			return new PacketEntityInformation();
+		}
+	},
+	PacketComboBox(54, PacketComboBox.class) {
+		public SpoutPacket newPacket() {
+			return new PacketComboBox();
+		}
+	},
+	PacketFocusUpdate(55, PacketFocusUpdate.class) {
+		public SpoutPacket newPacket() {
+			return new PacketFocusUpdate();
+		}
+	},
+	PacketClientAddons(56, PacketClientAddons.class) {
+		public SpoutPacket newPacket() {
+			return new PacketClientAddons();
+		}
+	},
+	PacketPermissionUpdate(57, PacketPermissionUpdate.class) {
+		public SpoutPacket newPacket() {
+			return new PacketPermissionUpdate();
+		}
+	},
+	PacketSpawnTextEntity(58, PacketSpawnTextEntity.class) {
+		public SpoutPacket newPacket() {
+			return new PacketSpawnTextEntity();
+		}
+	},
+	PacketSlotClick(59, PacketSlotClick.class) {
+		public SpoutPacket newPacket() {
+			return new PacketSlotClick();
+		}
+	},
+	PacketWaypoint(60, PacketWaypoint.class) {
+		public SpoutPacket newPacket() {
+			return new PacketWaypoint();
+		}
+	},
+	PacketParticle(61, PacketParticle.class) {
+		public SpoutPacket newPacket() {
+			return new PacketParticle();
+		}
+	},
 	;
 
 	private final int id;
 	private final Class<? extends SpoutPacket> packetClass;
-	private static final HashMap<Integer, PacketType> lookupId = new HashMap<Integer, PacketType>();
+	private static final PacketType[] lookupId;
 	PacketType(final int type, final Class<? extends SpoutPacket> packetClass) {
 		this.id = type;
 		this.packetClass = packetClass;
@@ -99,13 +317,33 @@ public enum PacketType {
 		return packetClass;
 	}
 
+	/**
+	 * Creates an empty packet of this type, to read the packet data into
+	 */
+	public abstract SpoutPacket newPacket();
+
+	/**
+	 * @return the highest id of any packet type
+	 */
+	public static int getMaxId() {
+		return lookupId.length - 1;
+	}
+
 	public static PacketType getPacketFromId(int id) {
-		return lookupId.get(id);
+		if (id < 0 || id >= lookupId.length) {
+			return null;
+		}
+		return lookupId[id];
 	}
 
 	static {
+		int max = 0;
+		for (PacketType packet : values()) {
+			max = Math.max(max, packet.getId());
+		}
+		lookupId = new PacketType[max + 1];
 		for (PacketType packet : values()) {
-			lookupId.put(packet.getId(), packet);
+			lookupId[packet.getId()] = packet;
 		}
 	}
 }
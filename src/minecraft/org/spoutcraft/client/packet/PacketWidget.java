@@ -18,7 +18,9 @@ package org.spoutcraft.client.packet;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.spoutcraft.client.SpoutClient;
 import org.spoutcraft.client.gui.*;
@@ -34,7 +36,14 @@ import org.spoutcraft.spoutcraftapi.io.SpoutOutputStream;
 public class PacketWidget implements SpoutPacket {
 	protected Widget widget;
 	protected UUID screen;
+	protected byte[] payload;
 	private static final int[] nags;
+	/**
+	 * Length and hash of the payload each attached widget was last updated from. Plugins often resend widgets
+	 * that did not change, those updates are skipped instead of replacing the widget. Anything that changes a
+	 * widget on the client has to {@link #forget(UUID)} it, so the server can still set it back.
+	 */
+	private static final ConcurrentHashMap<UUID, Long> applied = new ConcurrentHashMap<UUID, Long>();
 
 	static {
 		nags = new int[WidgetType.getNumWidgetTypes()];
@@ -62,6 +71,7 @@ public class PacketWidget implements SpoutPacket {
 		byte[] widgetData = new byte[size];
 		input.read(widgetData);
 		SpoutInputStream data = new SpoutInputStream(ByteBuffer.wrap(widgetData));
+		payload = widgetData;
 
 		screen = new UUID(msb, lsb);
 		WidgetType widgetType = WidgetType.getWidgetFromId(id);
@@ -88,11 +98,7 @@ public class PacketWidget implements SpoutPacket {
 		output.writeLong(screen.getMostSignificantBits());
 		output.writeLong(screen.getLeastSignificantBits());
 		
-		SpoutOutputStream data = new SpoutOutputStream();
-		widget.writeData(data);
-		ByteBuffer buffer = data.getRawBuffer();
-		byte[] widgetData = new byte[buffer.capacity() - buffer.remaining()];
-		System.arraycopy(buffer.array(), 0, widgetData, 0, widgetData.length);
+		byte[] widgetData = getPayload(widget);
 		
 		output.writeInt(widgetData.length);
 		output.writeShort((short) widget.getVersion());
@@ -126,6 +132,9 @@ public class PacketWidget implements SpoutPacket {
 				}
 			} else if (screen.equals(mainScreen.getId())) { //Determine if this is a widget on the main screen
 				if (mainScreen.containsWidget(widget.getId())) {
+					if (isUnchanged()) {
+						return;
+					}
 					mainScreen.updateWidget(widget);
 					widget.setScreen(mainScreen);
 				}
@@ -135,6 +144,9 @@ public class PacketWidget implements SpoutPacket {
 				}
 			} else if (popup != null && screen.equals(popup.getId())) { //Determine if this is a widget on the popup screen
 				if (popup.containsWidget(widget.getId())) {
+					if (isUnchanged()) {
+						return;
+					}
 					popup.updateWidget(widget);
 					widget.setScreen(popup);
 				}
@@ -144,6 +156,9 @@ public class PacketWidget implements SpoutPacket {
 				}
 			} else if (overlay != null && screen.equals(overlay.getId())) { //Determine if this is a widget on an overlay screen
 				if (overlay.containsWidget(widget.getId())) {
+					if (isUnchanged()) {
+						return;
+					}
 					overlay.updateWidget(widget);
 					widget.setScreen(overlay);
 				} else {
@@ -151,9 +166,45 @@ public class PacketWidget implements SpoutPacket {
 					overlay.attachWidget(widget.getAddon(), widget);
 				}
 			}
+			if (payload != null) {
+				applied.put(widget.getId(), getHash(payload));
+			}
 		}
 	}
 
+	/**
+	 * @return true if the attached widget was last updated from the same payload and not changed on the client since
+	 */
+	private boolean isUnchanged() {
+		Long hash = applied.get(widget.getId());
+		return hash != null && payload != null && hash.longValue() == getHash(payload);
+	}
+
+	private static long getHash(byte[] payload) {
+		return (long) payload.length << 32 | Arrays.hashCode(payload) & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * Makes the next update of the widget apply even if its payload did not change, for when the widget was
+	 * changed on the client or removed
+	 */
+	public static void forget(UUID widget) {
+		applied.remove(widget);
+	}
+
+	public static void reset() {
+		applied.clear();
+	}
+
+	private static byte[] getPayload(Widget widget) throws IOException {
+		SpoutOutputStream data = new SpoutOutputStream();
+		widget.writeData(data);
+		ByteBuffer buffer = data.getRawBuffer();
+		byte[] widgetData = new byte[buffer.capacity() - buffer.remaining()];
+		System.arraycopy(buffer.array(), 0, widgetData, 0, widgetData.length);
+		return widgetData;
+	}
+
 	public PacketType getPacketType() {
 		return PacketType.PacketWidget;
 	}
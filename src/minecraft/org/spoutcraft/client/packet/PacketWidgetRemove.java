@@ -64,6 +64,10 @@ public class PacketWidgetRemove implements SpoutPacket {
 	}
 
 	public void run(int playerId) {
+		if (widget == null) {
+			return;
+		}
+		PacketWidget.forget(widget.getId());
 		InGameHUD mainScreen = SpoutClient.getInstance().getActivePlayer().getMainScreen();
 		PopupScreen popup = mainScreen.getActivePopup();
 		Screen overlay = null;
@@ -0,0 +1,105 @@
+/*
+ * This file is part of Spoutcraft (http://www.spout.org/).
+ *
+ * Spoutcraft is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Spoutcraft is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.spoutcraft.client.texture;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+/**
+ * The CPU side of uploading textures, on ARGB int pixels as they are stored in a BufferedImage.
+ *
+ * The pixels are uploaded as GL_BGRA and GL_UNSIGNED_INT_8_8_8_8_REV, which reads an ARGB int as is, so they need no
+ * conversion to bytes. Nothing here uses OpenGL.
+ */
+public class TexturePixels {
+	/**
+	 * Gets the pixels of a TYPE_INT_ARGB image without copying them. They are the raster of the image, so they must
+	 * not be modified.
+	 * @return the pixels, or null if the image stores its pixels in another way
+	 */
+	public static int[] getRaster(BufferedImage image) {
+		if (image.getType() == BufferedImage.TYPE_INT_ARGB && image.getRaster().getDataBuffer() instanceof DataBufferInt) {
+			int[] data = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+			if (data.length == image.getWidth() * image.getHeight()) {
+				return data;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Copies the pixels with the colors changed for the anaglyph 3d mode, dst may be the same array as src
+	 */
+	public static void anaglyph(int[] src, int[] dst, int length) {
+		for (int i = 0; i < length; i++) {
+			int pixel = src[i];
+			int r = pixel >> 16 & 255;
+			int g = pixel >> 8 & 255;
+			int b = pixel & 255;
+			int red = (r * 30 + g * 59 + b * 11) / 100;
+			int green = (r * 30 + g * 70) / 100;
+			int blue = (r * 30 + b * 70) / 100;
+			dst[i] = pixel & 0xFF000000 | red << 16 | green << 8 | blue;
+		}
+	}
+
+	/**
+	 * Writes the next mipmap level of the pixels into dst, each pixel blended from the 2x2 pixels it covers.
+	 * dst may be the same array as src.
+	 * @param srcWidth the width of the level in src, which is twice the width of the level written to dst
+	 */
+	public static void downsample(int[] src, int srcWidth, int[] dst, int width, int height) {
+		for (int y = 0; y < height; y++) {
+			int top = y * 2 * srcWidth;
+			int bottom = top + srcWidth;
+			int row = y * width;
+			for (int x = 0; x < width; x++) {
+				int left = x * 2;
+				dst[row + x] = alphaBlend(alphaBlend(src[top + left], src[top + left + 1]), alphaBlend(src[bottom + left + 1], src[bottom + left]));
+			}
+		}
+	}
+
+	/**
+	 * Averages two ARGB pixels. The result is transparent if both together are less than opaque, otherwise it is opaque
+	 * with the color of the more opaque pixel.
+	 */
+	public static int alphaBlend(int a, int b) {
+		int alphaA = a >>> 24;
+		int alphaB = b >>> 24;
+		int alpha = 255;
+		int weightA;
+		int weightB;
+		if (alphaA + alphaB < 255) {
+			alpha = 0;
+			weightA = 1;
+			weightB = 1;
+		} else if (alphaA > alphaB) {
+			weightA = 255;
+			weightB = 1;
+		} else {
+			weightA = 1;
+			weightB = 255;
+		}
+
+		int weight = weightA + weightB;
+		int red = ((a >> 16 & 255) * weightA + (b >> 16 & 255) * weightB) / weight;
+		int green = ((a >> 8 & 255) * weightA + (b >> 8 & 255) * weightB) / weight;
+		int blue = ((a & 255) * weightA + (b & 255) * weightB) / weight;
+		return alpha << 24 | red << 16 | green << 8 | blue;
+	}
+}
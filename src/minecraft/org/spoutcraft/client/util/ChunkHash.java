@@ -17,10 +17,31 @@
 package org.spoutcraft.client.util;
 
 public class ChunkHash {
+	// h = 33 * h + b, unrolled 8 bytes at a time using the powers of 33 (mod 2^64)
+	private static final long P1 = 33L;
+	private static final long P2 = P1 * 33L;
+	private static final long P3 = P2 * 33L;
+	private static final long P4 = P3 * 33L;
+	private static final long P5 = P4 * 33L;
+	private static final long P6 = P5 * 33L;
+	private static final long P7 = P6 * 33L;
+	private static final long P8 = P7 * 33L;
+
 	public static long hash(byte[] a) {
+		return hash(a, 0, a.length);
+	}
+
+	public static long hash(byte[] a, int off, int len) {
 		long h = 1;
-		for (byte b : a) {
-			h += (h<<5) + (long)b;
+		int i = off;
+		int end = off + len;
+		for (int words = end - 7; i < words; i += 8) {
+			h = h * P8
+				+ a[i] * P7 + a[i + 1] * P6 + a[i + 2] * P5 + a[i + 3] * P4
+				+ a[i + 4] * P3 + a[i + 5] * P2 + a[i + 6] * P1 + a[i + 7];
+		}
+		for (; i < end; i++) {
+			h += (h<<5) + (long)a[i];
 		}
 		return h;
 	}
@@ -25,7 +25,6 @@ import org.spoutcraft.client.io.FileMap;
 
 public class PersistentMap {
 	private final FileMap f;
-	private final CacheMap<Long, byte[]> cache = new CacheMap<Long, byte[]>();
 	private final HashMap<Long, byte[]> overwriteBackup = new HashMap<Long, byte[]>();
 	private final ConcurrentLinkedQueue<Long> overwriteQueue = new ConcurrentLinkedQueue<Long>();
 	private final long size;
@@ -36,11 +35,7 @@ public class PersistentMap {
 	}
 
 	public byte[] get(Long key, byte[] data) throws IOException {
-		byte[] value = cache.get(key);
-		if (value != null) {
-			return value;
-		}
-		value = overwriteBackup.get(key);
+		byte[] value = overwriteBackup.get(key);
 		if (value != null) {
 			return value;
 		}
@@ -58,35 +53,42 @@ public class PersistentMap {
 		overwriteBackup.clear();
 	}
 
-	public Integer getIndex(long key) {
+	/**
+	 * Gets the index a key is stored at
+	 * @param key to look up
+	 * @return index of the key, or -1 if it is not stored
+	 */
+	public int getIndex(long key) {
 		return f.hashToIndex(key);
 	}
 
-	public Long getHash(int index) {
+	public long getHash(int index) {
 		return f.indexToHash(index);
 	}
 
 	public void put(Long key, byte[] data) throws IOException {
-		Integer index = f.hashToIndex(key);
-		if (index != null) {
+		if (f.hashToIndex(key) >= 0) {
 			return;
 		}
-		index = f.getIndex();
+		int index = f.getIndex();
 		f.incrementIndex();
-		Long oldHash = f.indexToHash(index);
-		byte[] oldData = new byte[(int)size];
-		oldData = f.readByIndex(index, oldData);
-		if (oldData != null) {
-			overwriteBackup.put(oldHash, oldData);
-			overwriteQueue.add(oldHash);
+		long oldHash = f.indexToHash(index);
+		if (oldHash != 0) {
+			byte[] oldData = f.readByIndex(index, new byte[(int)size]);
+			if (oldData != null) {
+				overwriteBackup.put(oldHash, oldData);
+				overwriteQueue.add(oldHash);
+			}
 		}
 		f.write(index, key, data);
+	}
 
-		if (!cache.contains(key)) {
-			byte[] dataCopy = new byte[data.length];
-			System.arraycopy(data, 0, dataCopy, 0, data.length);
-			cache.put(key, dataCopy);
-		}
+	public void flush() {
+		f.flush();
+	}
+
+	public void close() throws IOException {
+		f.close();
 	}
 
 	public Long getOverwritten() {
@@ -94,14 +96,13 @@ public class PersistentMap {
 	}
 
 	public byte[] removeOverwriteBackup(Long key) {
-		cache.remove(key);
 		return overwriteBackup.remove(key);
 	}
 
 	public boolean corruptionTest(long hash) {
-		Integer index = f.hashToIndex(hash);
+		int index = f.hashToIndex(hash);
 		try {
-			if (index != null) {
+			if (index >= 0) {
 				f.corruptIndex(index);
 				return true;
 			} else {
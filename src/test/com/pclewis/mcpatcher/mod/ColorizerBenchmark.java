@@ -0,0 +1,101 @@
+/*
+ * This file is part of Spoutcraft (http://www.spout.org/).
+ *
+ * Spoutcraft is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Spoutcraft is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.pclewis.mcpatcher.mod;
+
+import java.lang.reflect.Field;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.minecraft.src.Block;
+
+/**
+ * Block colors from a custom color map, as a texture pack with a palette for grass would set up.
+ * There is no texture pack, so the map is filled with random colors and the biome is the same everywhere.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ColorizerBenchmark {
+	private final Block block = Block.grass;
+	private final Block plain = Block.stone;
+	private BiomeHelper flat;
+	private BiomeHelper blended;
+	private int x = 0;
+
+	@Setup
+	public void setup() throws Exception {
+		ColorMap map = new ColorMap(false, null, 0xFFFFFF);
+		int[] colors = new int[256 * 256];
+		Random rand = new Random(42);
+		for (int i = 0; i < colors.length; i++) {
+			colors[i] = rand.nextInt(0x1000000);
+		}
+		Field mapField = ColorMap.class.getDeclaredField("map");
+		mapField.setAccessible(true);
+		mapField.set(map, colors);
+
+		ColorMap[] maps = new ColorMap[Block.blocksList.length];
+		maps[block.blockID] = map;
+		Field mapsField = Colorizer.class.getDeclaredField("blockColorMaps");
+		mapsField.setAccessible(true);
+		mapsField.set(null, maps);
+
+		flat = new BiomeHelper.Stub();
+		blended = new BiomeHelper.Stub() {
+			boolean useBlockBlending() {
+				return true;
+			}
+		};
+	}
+
+	@Benchmark
+	public int inventory() {
+		return Colorizer.colorizeBlock(block);
+	}
+
+	@Benchmark
+	public int uncolored() {
+		BiomeHelper.instance = flat;
+		return Colorizer.colorizeBlock(plain, x++, 64, 0, 0);
+	}
+
+	@Benchmark
+	public int world() {
+		BiomeHelper.instance = flat;
+		return Colorizer.colorizeBlock(block, x++, 64, 0, 0);
+	}
+
+	@Benchmark
+	public int worldBlended() {
+		BiomeHelper.instance = blended;
+		return Colorizer.colorizeBlock(block, x++, 64, 0, 0);
+	}
+}
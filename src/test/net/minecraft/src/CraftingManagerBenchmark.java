@@ -0,0 +1,97 @@
+/*
+ * This file is part of Spoutcraft (http://www.spout.org/).
+ *
+ * Spoutcraft is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Spoutcraft is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.minecraft.src;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Recipe lookup for a 3x3 crafting grid, for an early recipe, a late one and a grid that matches nothing,
+ * which has to look at every recipe.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class CraftingManagerBenchmark {
+	private CraftingManager manager;
+	private InventoryCrafting pickaxe;
+	private InventoryCrafting workbench;
+	private InventoryCrafting nothing;
+
+	@Setup
+	public void setup() {
+		manager = CraftingManager.getInstance();
+
+		pickaxe = grid();
+		pickaxe.setInventorySlotContents(0, new ItemStack(Block.cobblestone));
+		pickaxe.setInventorySlotContents(1, new ItemStack(Block.cobblestone));
+		pickaxe.setInventorySlotContents(2, new ItemStack(Block.cobblestone));
+		pickaxe.setInventorySlotContents(4, new ItemStack(Item.stick));
+		pickaxe.setInventorySlotContents(7, new ItemStack(Item.stick));
+
+		workbench = grid();
+		workbench.setInventorySlotContents(0, new ItemStack(Block.planks));
+		workbench.setInventorySlotContents(1, new ItemStack(Block.planks));
+		workbench.setInventorySlotContents(3, new ItemStack(Block.planks));
+		workbench.setInventorySlotContents(4, new ItemStack(Block.planks));
+
+		nothing = grid();
+		nothing.setInventorySlotContents(0, new ItemStack(Block.planks));
+		nothing.setInventorySlotContents(8, new ItemStack(Item.stick));
+	}
+
+	@Benchmark
+	public ItemStack pickaxe() {
+		return manager.findMatchingRecipe(pickaxe);
+	}
+
+	@Benchmark
+	public ItemStack workbench() {
+		return manager.findMatchingRecipe(workbench);
+	}
+
+	@Benchmark
+	public ItemStack nothing() {
+		return manager.findMatchingRecipe(nothing);
+	}
+
+	private static InventoryCrafting grid() {
+		Container container = new Container() {
+			public IInventory getInventory() {
+				return null;
+			}
+
+			public boolean canInteractWith(EntityPlayer player) {
+				return true;
+			}
+		};
+		return new InventoryCrafting(container, 3, 3);
+	}
+}
@@ -0,0 +1,65 @@
+/*
+ * This file is part of Spoutcraft (http://www.spout.org/).
+ *
+ * Spoutcraft is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Spoutcraft is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.minecraft.src;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Width of chat and widget text. The renderer is built without a font texture, so this runs headless,
+ * with every ascii character 6 pixels wide.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class FontRendererBenchmark {
+	private FontRenderer font;
+	private final String plain = "The quick brown fox jumps over the lazy dog 0123456789";
+	private final String colored = "\u00A7aThe \u00A7lquick\u00A7r brown \u00A7cfox\u00A7r jumps over the \u00A7olazy\u00A7r dog";
+
+	@Setup
+	public void setup() {
+		font = new FontRenderer();
+		font.charWidthf = new float[256];
+		for (int i = 0; i < 256; i++) {
+			font.charWidthf[i] = 6F;
+		}
+	}
+
+	@Benchmark
+	public int plain() {
+		return font.getStringWidth(plain);
+	}
+
+	@Benchmark
+	public int colored() {
+		return font.getStringWidth(colored);
+	}
+}
@@ -0,0 +1,133 @@
+/*
+ * This file is part of Spoutcraft (http://www.spout.org/).
+ *
+ * Spoutcraft is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Spoutcraft is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.spoutcraft.client.chunkcache;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.minecraft.client.Minecraft;
+
+import org.spoutcraft.client.util.ChunkHash;
+
+/**
+ * Handling of a cached chunk packet with 16 full sections, once with every partition sent by the server
+ * and once with every partition taken from the cache.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ChunkCacheBenchmark {
+	private static final int PRIMARY_BIT_MASK = 0xFFFF;
+	private static final int ADD_BIT_MASK = 0;
+
+	private int segments;
+	private byte[] chunkData;
+	private byte[] sentTrailer;
+	private byte[] cachedTrailer;
+	private byte[] partition;
+	private final Inflater inflater = new Inflater();
+
+	@Setup
+	public void setup() throws IOException {
+		//Keep the cache out of the user's minecraft folder
+		Minecraft.portable = true;
+		segments = PartitionChunk.getSegments(PRIMARY_BIT_MASK, ADD_BIT_MASK);
+		chunkData = new byte[segments * PartitionChunk.PARTITION_SIZE + 256];
+		new Random(42).nextBytes(chunkData);
+		partition = new byte[PartitionChunk.PARTITION_SIZE];
+
+		long crc = ChunkHash.hash(chunkData, 0, segments * PartitionChunk.PARTITION_SIZE);
+		byte[] hashData = new byte[segments * 8 + 8];
+		PartitionChunk.setHash(hashData, segments, crc);
+		sentTrailer = deflate(hashData);
+		for (int i = 0; i < segments; i++) {
+			PartitionChunk.setHash(hashData, i, ChunkHash.hash(chunkData, i * PartitionChunk.PARTITION_SIZE, PartitionChunk.PARTITION_SIZE));
+		}
+		cachedTrailer = deflate(hashData);
+
+		ChunkCache.reset();
+		handle(sentTrailer);
+	}
+
+	@TearDown
+	public void tearDown() {
+		inflater.end();
+		ChunkCache.reset();
+	}
+
+	@Benchmark
+	public byte[] handleSent() throws IOException {
+		return handle(sentTrailer);
+	}
+
+	@Benchmark
+	public byte[] handleCached() throws IOException {
+		return handle(cachedTrailer);
+	}
+
+	@Benchmark
+	public byte[] copyFromChunkData() {
+		for (int i = 0; i < segments; i++) {
+			PartitionChunk.copyFromChunkData(chunkData, i, partition);
+		}
+		return partition;
+	}
+
+	@Benchmark
+	public byte[] copyToChunkData() {
+		for (int i = 0; i < segments; i++) {
+			PartitionChunk.copyToChunkData(chunkData, i, partition);
+		}
+		return chunkData;
+	}
+
+	private byte[] handle(byte[] trailer) throws IOException {
+		inflater.reset();
+		inflater.setInput(trailer);
+		return ChunkCache.handle(chunkData, inflater, chunkData.length, 0, 0, PRIMARY_BIT_MASK, ADD_BIT_MASK);
+	}
+
+	private static byte[] deflate(byte[] data) {
+		Deflater deflater = new Deflater();
+		deflater.setInput(data);
+		deflater.finish();
+		byte[] buffer = new byte[data.length + 64];
+		int length = deflater.deflate(buffer);
+		deflater.end();
+		byte[] deflated = new byte[length];
+		System.arraycopy(buffer, 0, deflated, 0, length);
+		return deflated;
+	}
+}
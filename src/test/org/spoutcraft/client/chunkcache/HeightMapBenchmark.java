@@ -0,0 +1,147 @@
+/*
+ * This file is part of Spoutcraft (http://www.spout.org/).
+ *
+ * Spoutcraft is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Spoutcraft is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.spoutcraft.client.chunkcache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Lookups and updates of single columns, and saving and loading of a height map of 32x32 chunks
+ * in a temporary folder. See HeightMapTest for a check of the stored values.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class HeightMapBenchmark {
+	private static final int SIZE = 512;
+	private static final int RECORDS = 4096;
+
+	private File dir;
+	private HeightMap map;
+	private int[] xs, zs;
+	private short[] heights;
+	private int next = 0;
+
+	@Setup
+	public void setup() throws IOException {
+		dir = File.createTempFile("heightmap", "");
+		dir.delete();
+		dir.mkdirs();
+		map = HeightMap.getHeightMap("bench", new File(dir, "bench.hma"));
+		map.clear();
+		Random rand = new Random(42);
+		for (int x = 0; x < SIZE; x++) {
+			for (int z = 0; z < SIZE; z++) {
+				map.setHighestBlock(x, z, (short) rand.nextInt(256), (byte) rand.nextInt(128));
+			}
+		}
+		map.save();
+		xs = new int[RECORDS];
+		zs = new int[RECORDS];
+		heights = new short[RECORDS];
+		for (int i = 0; i < RECORDS; i++) {
+			xs[i] = rand.nextInt(SIZE);
+			zs[i] = rand.nextInt(SIZE);
+			heights[i] = (short) rand.nextInt(256);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		delete(dir);
+	}
+
+	@Benchmark
+	public short getHeight() {
+		int i = next();
+		return map.getHeight(xs[i], zs[i]);
+	}
+
+	@Benchmark
+	public byte getBlockId() {
+		int i = next();
+		return map.getBlockId(xs[i], zs[i]);
+	}
+
+	@Benchmark
+	public void setHighestBlock() {
+		int i = next();
+		map.setHighestBlock(xs[i], zs[i], heights[i], (byte) 1);
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public void save(Changes changes) {
+		map.save();
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public int load() {
+		map.load();
+		//Loading is lazy, reading a column pulls in its region
+		return map.getHeight(0, 0) + map.getHeight(SIZE - 1, SIZE - 1);
+	}
+
+	/**
+	 * Changes a few columns before every save, so there is something to write
+	 */
+	@State(Scope.Thread)
+	public static class Changes {
+		private final Random rand = new Random(42);
+
+		@Setup(Level.Invocation)
+		public void change(HeightMapBenchmark bench) {
+			for (int i = 0; i < 64; i++) {
+				bench.map.setHighestBlock(rand.nextInt(SIZE), rand.nextInt(SIZE), (short) rand.nextInt(256), (byte) 1);
+			}
+		}
+	}
+
+	private int next() {
+		next = (next + 1) % RECORDS;
+		return next;
+	}
+
+	private static void delete(File file) {
+		File[] files = file.listFiles();
+		if (files != null) {
+			for (File f : files) {
+				delete(f);
+			}
+		}
+		file.delete();
+	}
+}
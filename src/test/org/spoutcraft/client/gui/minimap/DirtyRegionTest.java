@@ -0,0 +1,108 @@
+/*
+ * This file is part of Spoutcraft (http://www.spout.org/).
+ *
+ * Spoutcraft is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Spoutcraft is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.spoutcraft.client.gui.minimap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class DirtyRegionTest {
+	private static void assertRect(DirtyRegion region, int index, int minX, int minY, int maxX, int maxY) {
+		assertEquals(minX, region.getMinX(index));
+		assertEquals(minY, region.getMinY(index));
+		assertEquals(maxX, region.getMaxX(index));
+		assertEquals(maxY, region.getMaxY(index));
+	}
+
+	@Test
+	public void touchingRectanglesAreMerged() {
+		DirtyRegion region = new DirtyRegion(4, 32, 32);
+		region.add(0, 0, 2, 2);
+		region.add(2, 0, 4, 2);
+		region.add(1, 1, 3, 5);
+		assertEquals(1, region.size());
+		assertRect(region, 0, 0, 0, 4, 5);
+	}
+
+	@Test
+	public void separateRectanglesAreKept() {
+		DirtyRegion region = new DirtyRegion(4, 32, 32);
+		region.add(0, 0);
+		region.add(10, 10);
+		assertEquals(2, region.size());
+		assertRect(region, 0, 0, 0, 1, 1);
+		assertRect(region, 1, 10, 10, 11, 11);
+		assertEquals(2, region.getArea());
+	}
+
+	@Test
+	public void coveredPixelIsIgnored() {
+		DirtyRegion region = new DirtyRegion(4, 32, 32);
+		region.add(4, 4, 8, 8);
+		region.add(5, 6);
+		assertEquals(1, region.size());
+		assertRect(region, 0, 4, 4, 8, 8);
+	}
+
+	@Test
+	public void overflowMergesIntoTheCheapestRectangle() {
+		DirtyRegion region = new DirtyRegion(4, 32, 32);
+		region.add(0, 0);
+		region.add(20, 0);
+		region.add(0, 20);
+		region.add(20, 20);
+		assertEquals(4, region.size());
+
+		region.add(23, 23);
+		assertEquals(4, region.size());
+		assertRect(region, 0, 0, 0, 1, 1);
+		assertRect(region, 1, 20, 0, 21, 1);
+		assertRect(region, 2, 0, 20, 1, 21);
+		assertRect(region, 3, 20, 20, 24, 24);
+	}
+
+	@Test
+	public void rectanglesAreClampedToTheBounds() {
+		DirtyRegion region = new DirtyRegion(4, 32, 16);
+		region.add(-5, -5, 3, 3);
+		region.add(30, 10, 40, 40);
+		assertEquals(2, region.size());
+		assertRect(region, 0, 0, 0, 3, 3);
+		assertRect(region, 1, 30, 10, 32, 16);
+	}
+
+	@Test
+	public void rectanglesOutsideTheBoundsAreIgnored() {
+		DirtyRegion region = new DirtyRegion(4, 32, 16);
+		region.add(32, 0);
+		region.add(0, 16);
+		region.add(-1, -1);
+		region.add(40, 0, 50, 10);
+		region.add(4, 4, 4, 8);
+		assertTrue(region.isEmpty());
+	}
+
+	@Test
+	public void clearEmptiesTheRegion() {
+		DirtyRegion region = new DirtyRegion(4, 32, 32);
+		region.add(0, 0, 32, 32);
+		region.clear();
+		assertTrue(region.isEmpty());
+		assertEquals(0, region.getArea());
+	}
+}
@@ -0,0 +1,109 @@
+/*
+ * This file is part of Spoutcraft (http://www.spout.org/).
+ *
+ * Spoutcraft is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Spoutcraft is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.spoutcraft.client.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.spoutcraft.client.util.ChunkHash;
+
+/**
+ * Writes and reads of cache partitions in a FileMap in a temporary folder.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class FileMapBenchmark {
+	private static final int SIZE = 2048;
+	private static final int ENTRIES = 4096;
+	private static final int RECORDS = 256;
+
+	private File dir;
+	private FileMap map;
+	private byte[][] records;
+	private long[] hashes;
+	private byte[] buffer;
+	private int next = 0;
+
+	@Setup
+	public void setup() throws IOException {
+		dir = File.createTempFile("filemap", "");
+		dir.delete();
+		dir.mkdirs();
+		map = new FileMap(dir, "bench", SIZE, ENTRIES);
+		Random rand = new Random(42);
+		records = new byte[RECORDS][SIZE];
+		hashes = new long[RECORDS];
+		for (int i = 0; i < RECORDS; i++) {
+			rand.nextBytes(records[i]);
+			hashes[i] = ChunkHash.hash(records[i]);
+			map.write(i, hashes[i], records[i]);
+		}
+		buffer = new byte[SIZE];
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		map.close();
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File f : files) {
+				f.delete();
+			}
+		}
+		dir.delete();
+	}
+
+	@Benchmark
+	public int write() throws IOException {
+		int i = next();
+		map.write(i, hashes[i], records[i]);
+		return i;
+	}
+
+	@Benchmark
+	public byte[] readByIndex() throws IOException {
+		return map.readByIndex(next(), buffer);
+	}
+
+	@Benchmark
+	public byte[] readByHash() throws IOException {
+		return map.readByHash(hashes[next()], buffer);
+	}
+
+	private int next() {
+		next = (next + 1) % RECORDS;
+		return next;
+	}
+}
@@ -0,0 +1,83 @@
+/*
+ * This file is part of Spoutcraft (http://www.spout.org/).
+ *
+ * Spoutcraft is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Spoutcraft is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.spoutcraft.client.packet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Writes a Spout packet the way the network thread does and reads it back, for a small packet and a packet
+ * with a full batch of cache hashes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class CustomPacketBenchmark {
+	private CustomPacket title;
+	private CustomPacket hashes;
+	private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 * 1024);
+	private final DataOutputStream output = new DataOutputStream(bytes);
+
+	@Setup
+	public void setup() {
+		title = new CustomPacket(new PacketEntityTitle(42, "Notch"));
+		long[] data = new long[4096];
+		Random rand = new Random(42);
+		for (int i = 0; i < data.length; i++) {
+			data[i] = rand.nextLong();
+		}
+		hashes = new CustomPacket(new PacketCacheHashUpdate(true, data));
+	}
+
+	@Benchmark
+	public SpoutPacket entityTitle() throws IOException {
+		return roundTrip(title);
+	}
+
+	@Benchmark
+	public SpoutPacket cacheHashUpdate() throws IOException {
+		return roundTrip(hashes);
+	}
+
+	private SpoutPacket roundTrip(CustomPacket packet) throws IOException {
+		bytes.reset();
+		packet.writePacketData(output);
+		output.flush();
+		CustomPacket read = new CustomPacket();
+		read.readPacketData(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+		return read.packet;
+	}
+}
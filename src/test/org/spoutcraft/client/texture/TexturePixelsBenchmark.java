@@ -0,0 +1,86 @@
+/*
+ * This file is part of Spoutcraft (http://www.spout.org/).
+ *
+ * Spoutcraft is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Spoutcraft is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.spoutcraft.client.texture;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The CPU side of RenderEngine.setupTexture for a terrain.png of the given width: reading the pixels and building the
+ * four mipmap levels.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class TexturePixelsBenchmark {
+	@Param({"256", "2048"})
+	public int size;
+
+	private BufferedImage image;
+	private int[] pixels;
+	private int[] mipmap;
+
+	@Setup
+	public void setup() {
+		image = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+		Random random = new Random(42);
+		for (int y = 0; y < size; y++) {
+			for (int x = 0; x < size; x++) {
+				image.setRGB(x, y, random.nextInt());
+			}
+		}
+		pixels = new int[size * size];
+		mipmap = new int[size * size / 4];
+	}
+
+	@Benchmark
+	public int[] raster() {
+		return TexturePixels.getRaster(image);
+	}
+
+	@Benchmark
+	public int[] getRGB() {
+		image.getRGB(0, 0, size, size, pixels, 0, size);
+		return pixels;
+	}
+
+	@Benchmark
+	public int[] mipmaps() {
+		int[] level = TexturePixels.getRaster(image);
+		for (int i = 1; i <= 4; i++) {
+			TexturePixels.downsample(level, size >> i - 1, mipmap, size >> i, size >> i);
+			level = mipmap;
+		}
+		return mipmap;
+	}
+}
@@ -0,0 +1,249 @@
+/*
+ * This file is part of Spoutcraft (http://www.spout.org/).
+ *
+ * Spoutcraft is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Spoutcraft is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.spoutcraft.client.texture;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import com.pclewis.mcpatcher.mod.TextureUtils;
+
+import org.junit.Test;
+
+/**
+ * Compares the int upload of RenderEngine.setupTexture with the byte per channel path it replaced. The old path
+ * uploaded RGBA bytes as GL_UNSIGNED_BYTE, the new one uploads native ints as GL_BGRA and
+ * GL_UNSIGNED_INT_8_8_8_8_REV, so both have to give GL the same R, G, B and A for every pixel.
+ */
+public class TexturePixelsTest {
+	private static final int SIZE = 32;
+
+	private static int[] randomPixels(int length) {
+		Random random = new Random(42);
+		int[] pixels = new int[length];
+		for (int i = 0; i < length; i++) {
+			// Mostly opaque or transparent pixels like a texture pack, with some translucent ones in between
+			int alpha;
+			switch (random.nextInt(4)) {
+				case 0:
+					alpha = 0;
+					break;
+				case 1:
+					alpha = random.nextInt(256);
+					break;
+				default:
+					alpha = 255;
+			}
+			pixels[i] = alpha << 24 | random.nextInt(1 << 24);
+		}
+		return pixels;
+	}
+
+	private static ByteBuffer allocate(int bytes) {
+		return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * The RGBA bytes the old path built for GL_UNSIGNED_BYTE
+	 */
+	private static byte[] oldColors(int[] pixels, boolean anaglyph) {
+		byte[] colors = new byte[pixels.length * 4];
+		for (int i = 0; i < pixels.length; i++) {
+			int a = pixels[i] >> 24 & 255;
+			int r = pixels[i] >> 16 & 255;
+			int g = pixels[i] >> 8 & 255;
+			int b = pixels[i] & 255;
+			if (anaglyph) {
+				int red = (r * 30 + g * 59 + b * 11) / 100;
+				int green = (r * 30 + g * 70) / 100;
+				int blue = (r * 30 + b * 70) / 100;
+				r = red;
+				g = green;
+				b = blue;
+			}
+			colors[i * 4] = (byte) r;
+			colors[i * 4 + 1] = (byte) g;
+			colors[i * 4 + 2] = (byte) b;
+			colors[i * 4 + 3] = (byte) a;
+		}
+		return colors;
+	}
+
+	/**
+	 * The old RenderEngine.alphaBlend, on pixels read from the RGBA bytes as native ints
+	 */
+	private static int oldAlphaBlend(int par1, int par2) {
+		int var3 = (par1 & -16777216) >> 24 & 255;
+		int var4 = (par2 & -16777216) >> 24 & 255;
+		short var5 = 255;
+		short var15;
+		short var16;
+		if (var3 + var4 < 255) {
+			var5 = 0;
+			var15 = 1;
+			var16 = 1;
+		} else if (var3 > var4) {
+			var15 = 255;
+			var16 = 1;
+		} else {
+			var15 = 1;
+			var16 = 255;
+		}
+
+		int var6 = (par1 >> 16 & 255) * var15;
+		int var7 = (par1 >> 8 & 255) * var15;
+		int var8 = (par1 & 255) * var15;
+		int var9 = (par2 >> 16 & 255) * var16;
+		int var10 = (par2 >> 8 & 255) * var16;
+		int var11 = (par2 & 255) * var16;
+		int var12 = (var6 + var9) / (var15 + var16);
+		int var13 = (var7 + var10) / (var15 + var16);
+		int var14 = (var8 + var11) / (var15 + var16);
+		return var5 << 24 | var12 << 16 | var13 << 8 | var14;
+	}
+
+	/**
+	 * The RGBA bytes of each mipmap level, blended the way the old path did it. The old path wrote each level in
+	 * place over the level it was reading, and its column by column loop overwrote source pixels of later columns
+	 * before reading them. That corruption was not kept, so here each level is read from a copy of the previous one.
+	 */
+	private static byte[][] oldMipmaps(byte[] colors, int width, int height) {
+		ByteBuffer source = allocate(colors.length);
+		source.put(colors);
+		byte[][] levels = new byte[4][];
+		for (int i = 1; i <= 4; ++i) {
+			int srcWidth = width >> i - 1;
+			int levelWidth = width >> i;
+			int levelHeight = height >> i;
+			ByteBuffer imageData = allocate(levelWidth * levelHeight * 4);
+			for (int x = 0; x < levelWidth; ++x) {
+				for (int y = 0; y < levelHeight; ++y) {
+					int topLeft = source.getInt((x * 2 + 0 + (y * 2 + 0) * srcWidth) * 4);
+					int topRight = source.getInt((x * 2 + 1 + (y * 2 + 0) * srcWidth) * 4);
+					int bottomRight = source.getInt((x * 2 + 1 + (y * 2 + 1) * srcWidth) * 4);
+					int bottomLeft = source.getInt((x * 2 + 0 + (y * 2 + 1) * srcWidth) * 4);
+					imageData.putInt((x + y * levelWidth) * 4, oldAlphaBlend(oldAlphaBlend(topLeft, topRight), oldAlphaBlend(bottomRight, bottomLeft)));
+				}
+			}
+			levels[i - 1] = new byte[levelWidth * levelHeight * 4];
+			imageData.get(levels[i - 1]);
+			source = imageData;
+		}
+		return levels;
+	}
+
+	/**
+	 * The R, G, B and A that GL reads from a buffer uploaded as GL_BGRA and GL_UNSIGNED_INT_8_8_8_8_REV: each pixel is
+	 * one native int, with B in the lowest 8 bits and A in the highest.
+	 */
+	private static byte[] uploadedColors(ByteBuffer buffer) {
+		ByteBuffer ints = buffer.duplicate().order(ByteOrder.nativeOrder());
+		int pixels = buffer.limit() / 4;
+		byte[] colors = new byte[pixels * 4];
+		for (int i = 0; i < pixels; i++) {
+			int pixel = ints.getInt(i * 4);
+			colors[i * 4] = (byte) (pixel >> 16);
+			colors[i * 4 + 1] = (byte) (pixel >> 8);
+			colors[i * 4 + 2] = (byte) pixel;
+			colors[i * 4 + 3] = (byte) (pixel >> 24);
+		}
+		return colors;
+	}
+
+	@Test
+	public void byteOrderMatchesOldPath() {
+		int[] pixels = randomPixels(SIZE * SIZE);
+		ByteBuffer buffer = TextureUtils.getByteBuffer(allocate(pixels.length * 4), pixels, pixels.length);
+		assertEquals(0, buffer.position());
+		assertEquals(pixels.length * 4, buffer.limit());
+		assertArrayEquals(oldColors(pixels, false), uploadedColors(buffer));
+	}
+
+	@Test
+	public void partialLengthIsUploaded() {
+		int[] pixels = randomPixels(SIZE * SIZE);
+		int length = SIZE * SIZE / 4;
+		ByteBuffer buffer = TextureUtils.getByteBuffer(allocate(pixels.length * 4), pixels, length);
+		assertEquals(length * 4, buffer.limit());
+		int[] part = new int[length];
+		System.arraycopy(pixels, 0, part, 0, length);
+		assertArrayEquals(oldColors(part, false), uploadedColors(buffer));
+	}
+
+	@Test
+	public void anaglyphMatchesOldPath() {
+		int[] pixels = randomPixels(SIZE * SIZE);
+		int[] converted = new int[pixels.length];
+		TexturePixels.anaglyph(pixels, converted, pixels.length);
+		ByteBuffer buffer = TextureUtils.getByteBuffer(allocate(pixels.length * 4), converted, converted.length);
+		assertArrayEquals(oldColors(pixels, true), uploadedColors(buffer));
+
+		// In place, as RenderEngine does it for images without an int raster
+		TexturePixels.anaglyph(pixels, pixels, pixels.length);
+		assertArrayEquals(converted, pixels);
+	}
+
+	@Test
+	public void alphaBlendMatchesOldPath() {
+		int[][] pairs = {
+			{0x00000000, 0x00FFFFFF},
+			{0x7F102030, 0x80405060},
+			{0x80102030, 0x80405060},
+			{0xFF102030, 0x00405060},
+			{0x00102030, 0xFF405060},
+			{0xFFFFFFFF, 0xFF000000},
+			{0x7E102030, 0x80405060},
+		};
+		Random random = new Random(7);
+		for (int i = 0; i < 10000 + pairs.length; i++) {
+			int a = i < pairs.length ? pairs[i][0] : random.nextInt();
+			int b = i < pairs.length ? pairs[i][1] : random.nextInt();
+			ByteBuffer old = allocate(8);
+			old.put(oldColors(new int[] {a, b}, false));
+			int blended = oldAlphaBlend(old.getInt(0), old.getInt(4));
+			old.putInt(0, blended);
+			byte[] expected = new byte[4];
+			old.position(0);
+			old.get(expected);
+
+			int[] pixel = {TexturePixels.alphaBlend(a, b)};
+			ByteBuffer buffer = TextureUtils.getByteBuffer(allocate(4), pixel, 1);
+			assertArrayEquals(expected, uploadedColors(buffer));
+		}
+	}
+
+	@Test
+	public void mipmapsMatchOldPath() {
+		int[] pixels = randomPixels(SIZE * SIZE);
+		byte[][] expected = oldMipmaps(oldColors(pixels, false), SIZE, SIZE);
+
+		ByteBuffer buffer = allocate(pixels.length * 4);
+		int[] mipmap = new int[pixels.length / 4];
+		int[] level = pixels;
+		for (int i = 1; i <= 4; i++) {
+			int levelWidth = SIZE >> i;
+			int levelHeight = SIZE >> i;
+			TexturePixels.downsample(level, SIZE >> i - 1, mipmap, levelWidth, levelHeight);
+			level = mipmap;
+			buffer = TextureUtils.getByteBuffer(buffer, level, levelWidth * levelHeight);
+			assertArrayEquals(expected[i - 1], uploadedColors(buffer));
+		}
+	}
+}